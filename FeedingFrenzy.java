@@ -2,18 +2,120 @@ import tester.*;
 import javalib.worldimages.*;
 import javalib.funworld.*;
 import java.awt.Color;
-import java.util.Random;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.lang.management.ManagementFactory;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Timespan;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 // Main world class representing the Pond
+// The pond's bounds are the player's, which its fish and snacks share.
 class PondWorld extends World {
+  static final int PLAYING = 0; // outcomes of endState
+  static final int LOST = 1;
+  static final int WON = 2;
+  static final int SPAWN_LEVELS = 8; // of red, green and blue in a spawned fish's color
+  static final Color[] SPAWN_COLORS = PondWorld.spawnColors();
+
   ILoFish fish;
   PlayerFish player;
   int tickCounter;
-
-  PondWorld(ILoFish fish, PlayerFish player, int tickCounter) {
+  FishRandom rand;     // the pond's only source of randomness
+  RetainedScene view;  // the nodes drawn last frame, shared by the worlds of one game
+  TickResult result;   // outcome of the tick that produced this world, if any
+  int keys;            // PlayerFish key bits pressed since the last tick
+  SimClock clock;      // paces the steps of onTick, shared like view
+  TickProfiler profiler; // times the phases of each step, shared like view
+  SnackField snacks;   // the pond's snacks, shared like view
+  PondEvents events;   // the spawns and timed effects to come, shared like view
+  int outcome;         // LOST or WON once endState has ended the game, else PLAYING
+  PondJournal journal; // records the keys of every step, if any, shared like view
+
+  PondWorld(ILoFish fish, PlayerFish player, int tickCounter, FishRandom rand, 
+      RetainedScene view, TickResult result, SimClock clock, TickProfiler profiler, 
+      SnackField snacks, PondEvents events) {
     this.fish = fish;
     this.player = player;
     this.tickCounter = tickCounter;
+    this.rand = rand;
+    this.view = view;
+    this.result = result;
+    this.keys = 0;
+    this.clock = clock;
+    this.profiler = profiler;
+    this.snacks = snacks;
+    this.events = events;
+    this.outcome = PondWorld.PLAYING;
+    this.journal = null;
+  }
+
+  PondWorld(ILoFish fish, PlayerFish player, int tickCounter, FishRandom rand, 
+      SnackField snacks) {
+    this(fish, player, tickCounter, rand, new RetainedScene(800, 600, player.bounds), null, 
+        new SimClock(), TickProfiler.OFF, snacks, PondWorld.spawns(tickCounter, snacks));
+  }
+
+  PondWorld(ILoFish fish, PlayerFish player, int tickCounter, FishRandom rand) {
+    this(fish, player, tickCounter, rand, new SnackField(player.bounds));
+  }
+
+  PondWorld(ILoFish fish, PlayerFish player, int tickCounter) {
+    this(fish, player, tickCounter, FishRandom.SHARED);
   }
 
   /*
@@ -21,410 +123,1978 @@ class PondWorld extends World {
    * ... this.fish ...         -- ILoFish
    * ... this.player ...       -- PlayerFish
    * ... this.tickCounter ...  -- int
+   * ... this.rand ...         -- FishRandom
+   * ... this.view ...         -- RetainedScene
+   * ... this.result ...       -- TickResult
+   * ... this.keys ...         -- int
+   * ... this.clock ...        -- SimClock
+   * ... this.profiler ...     -- TickProfiler
+   * ... this.snacks ...       -- SnackField
+   * ... this.events ...       -- PondEvents
+   * ... this.outcome ...      -- int
+   * ... this.journal ...      -- PondJournal
    * Methods:
    * ... this.makeScene() ...        -- WorldScene
+   * ... PondWorld.hud(int, int) ...  -- WorldImage[]
    * ... this.onTick() ...           -- World
+   * ... this.step() ...             -- PondWorld
+   * ... PondWorld.spawns(int, SnackField) ... -- PondEvents
    * ... this.createRandomFish() ... -- bgFish
+   * ... PondWorld.spawnColor(float, float, float) ... -- Color
+   * ... PondWorld.spawnColors() ... -- Color[]
    * ... this.onKeyEvent(String) ... -- World
    * ... this.worldEnds() ...        -- WorldEnd
+   * ... this.endState() ...         -- int
+   * ... this.record(OutputStream, long) ... -- PondWorld
    * Methods for fields:
    * ... this.fish.draw(WorldScene) ...           -- WorldScene
+   * ... this.fish.drawInto(RetainedScene) ...    -- void
    * ... this.fish.move() ...                     -- ILoFish
+   * ... this.fish.add(IFish) ...                 -- ILoFish
    * ... this.fish.filterEaten(PlayerFish) ...    -- ILoFish
    * ... this.fish.eats(PlayerFish) ...           -- boolean
    * ... this.fish.isEatenBy(PlayerFish) ...      -- boolean
    * ... this.fish.isPlayerLargest(PlayerFish) ...-- boolean
+   * ... this.fish.tick(PlayerFish, TickResult) ...-- ILoFish
    * ... this.player.draw() ...                   -- WorldImage
    * ... this.player.move(String) ...             -- PlayerFish
    * ... this.player.move() ...                   -- PlayerFish
    * ... this.player.PlayerisEaten(ILoFish) ...   -- boolean
    * ... this.player.eatFish(ILoFish) ...         -- PlayerFish
    * ... this.player.eatSnack(ISnack) ...         -- PlayerFish
+   * ... this.snacks.feed(PlayerFish, int, PondEvents) ... -- PlayerFish
+   * ... this.events.due(int) ...                 -- int
+   * ... this.snacks.drawInto(RetainedScene) ...  -- void
    */
 
   // Draw the world scene with all fish and the player
   // Draws the current world scene, including all fish and the player fish.
+  // The scene is built once per tick and reused by later calls. Only the nodes of 
+  // the retained scene that changed since the last frame are updated. Moving fish
+  // are drawn part of the way to their next step, as far as the clock is into it.
+  // In a pond larger than the window the view follows the player, and only the 
+  // fish and snacks in view are placed.
   public WorldScene makeScene() {
-    WorldScene scene = this.fish.draw(new WorldScene(800, 600))
-        .placeImageXY(this.player.draw(), this.player.x, this.player.y);
-
-    scene = scene.placeImageXY(new TextImage("Score: " + this.player.score * 10,
-        30, FontStyle.BOLD, Color.BLACK), 100, 50);
-    scene = scene.placeImageXY(new TextImage("Lives: " + this.player.lives, 30,
-        FontStyle.BOLD, Color.BLACK), 100, 100);
+    if (this.result != null && this.result.scene != null) {
+      return this.result.scene;
+    }
+    this.profiler.begin(TickProfiler.MAKE_SCENE);
+    this.view.begin();
+    this.view.alpha = this.clock.alpha;
+    int nextDx = (int) (this.player.dx * Math.max(0, this.player.inertia));
+    int nextDy = (int) (this.player.dy * Math.max(0, this.player.inertia));
+    int playerX = SimClock.ahead(this.player.x, nextDx, this.view.alpha, 
+        this.player.bounds.width);
+    int playerY = SimClock.ahead(this.player.y, nextDy, this.view.alpha, 
+        this.player.bounds.height);
+    this.view.follow(playerX, playerY);
+    this.snacks.drawInto(this.view);
+    this.fish.drawInto(this.view);
+    this.view.node(this.view.screenX(playerX), this.view.screenY(playerY), this.player.draw());
+
+    WorldImage[] hud = PondWorld.hud(this.player.score, this.player.lives);
+    this.view.node(100, 50, hud[0]);
+    this.view.node(100, 100, hud[1]);
+    if (this.profiler.overlay) {
+      String[] lines = this.profiler.overlayText();
+      for (int i = 0; i < lines.length; i += 1) {
+        this.view.node(650, 50 + 30 * i, new TextImage(lines[i], 20, Color.DARK_GRAY));
+      }
+    }
+    WorldScene scene = this.view.compose();
+    this.profiler.end(TickProfiler.MAKE_SCENE);
 
+    if (this.result != null) {
+      this.result.scene = scene;
+    }
     return scene;
   }
 
+  // The score and lives texts for the given values, cached while they do not change
+  static WorldImage[] hud(int score, int lives) {
+    long key = ImageCache.key(score, lives);
+    WorldImage[] hud = ImageCache.HUD.get(key);
+    if (hud == null) {
+      hud = new WorldImage[] {
+        new TextImage("Score: " + score * 10, 30, FontStyle.BOLD, Color.BLACK),
+        new TextImage("Lives: " + lives, 30, FontStyle.BOLD, Color.BLACK)};
+      ImageCache.HUD.put(key, hud);
+    }
+    return hud;
+  }
+
   // Move all fish and the player on each tick
-  // Moves all fish and the player fish on each game tick, 
-  // and checks if the player fish eats other fish.
+  // Runs as many fixed simulation steps as the clock says are due since the last
+  // frame, which may be none on a fast display or several on a slow one. The end 
+  // of game rules run between steps; worldEnds runs them after the last one.
   public World onTick() {
-    PlayerFish newPlayer = this.player.eatFish(this.fish);
-    ILoFish newFish = this.fish.filterEaten(newPlayer);
+    int steps = this.clock.advance(System.nanoTime());
+    if (steps == 0) {
+      if (this.result != null) {
+        this.result.scene = null; // the fish are drawn further along
+      }
+      return this;
+    }
+    PondWorld world = this.step();
+    for (int k = 1; k < steps && world.endState() == PondWorld.PLAYING; k += 1) {
+      world = world.step();
+    }
+    return world;
+  }
 
-    if (this.tickCounter % 100 == 0) { // create a random fish every 10 seconds
-      newFish = new ConsLoFish(this.createRandomFish(), newFish);
+  // Moves all fish and the player fish one step, 
+  // and checks if the player fish eats other fish.
+  // Eating, filtering and moving the fish happen in one pass that also records
+  // what worldEnds needs to know about the moved pond. The keys pressed since the 
+  // last step steer the player first, then the events due this step run, and then
+  // the player eats the snacks it is on. A journaled game records the keys first.
+  public PondWorld step() {
+    TickProfiler profiler = this.profiler;
+    profiler.begin(TickProfiler.TICK);
+    if (this.journal != null) {
+      try {
+        this.journal.step(this.tickCounter, this.keys);
+      } 
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    PlayerFish steered = this.player.steer(this.keys);
+    this.keys = 0;
+    boolean spawnFish = false;
+    profiler.begin(TickProfiler.SNACKS);
+    int due = this.events.due(this.tickCounter);
+    for (int k = 0; k < due; k += 1) {
+      int id = this.events.fired(k);
+      switch (this.events.kind[id]) {
+        case PondEvents.SPAWN_FISH:
+          spawnFish = true; // after the fish tick, as it always has
+          break;
+        case PondEvents.SPAWN_SNACKS:
+          this.snacks.spawn(this.snacks.batch, this.rand);
+          break;
+        default:
+          steered.speed -= this.events.amount[id]; // a speed boost wears off
+          break;
+      }
+      this.events.done(id, this.tickCounter);
     }
+    PlayerFish newPlayer = this.snacks.feed(steered, this.tickCounter, this.events);
+    profiler.end(TickProfiler.SNACKS);
+    TickResult result = new TickResult(newPlayer, this.result);
+    profiler.begin(TickProfiler.FISH_TICK);
+    ILoFish newFish = this.fish.tick(newPlayer, result);
+    profiler.end(TickProfiler.FISH_TICK);
+
+    if (spawnFish) { // a random fish every 10 seconds
+      profiler.begin(TickProfiler.SPAWN);
+      IFish spawned = this.createRandomFish().move();
+      result.observe(spawned.getSize(), spawned.getX(), spawned.getY(), newPlayer);
+      newFish = newFish.add(spawned);
+      profiler.end(TickProfiler.SPAWN);
+    }
+
+    profiler.begin(TickProfiler.PLAYER_MOVE);
+    PlayerFish movedPlayer = newPlayer.move();
+    result.finish(movedPlayer);
+    profiler.end(TickProfiler.PLAYER_MOVE);
+    PondWorld next = new PondWorld(newFish, movedPlayer, this.tickCounter + 1, this.rand, 
+        this.view, result, this.clock, profiler, this.snacks, this.events);
+    next.journal = this.journal;
+    profiler.fishCount = result.fishCount;
+    profiler.end(TickProfiler.TICK);
+    return next;
+  }
 
-    return new PondWorld(newFish.move(), newPlayer.move(), this.tickCounter + 1);
+  // The recurring spawns of a pond starting at the given tick: a fish on every 
+  // hundredth tick and a batch of snacks half way between
+  static PondEvents spawns(int tick, SnackField snacks) {
+    PondEvents events = new PondEvents();
+    events.every(PondEvents.SPAWN_FISH, tick, 100, 0);
+    if (snacks.period > 0) {
+      events.every(PondEvents.SPAWN_SNACKS, tick, snacks.period, snacks.period / 2);
+    }
+    return events;
   }
 
   //Create a new background fish with random properties
   public BgFish createRandomFish() {
-    Random rand = new Random();
+    FishRandom rand = this.rand;
     int size = rand.nextInt(90) + 10; // size between 10 - 100
-    Color color = new Color(rand.nextFloat(), rand.nextFloat(), rand.nextFloat());
+    Color color = PondWorld.spawnColor(rand.nextFloat(), rand.nextFloat(), rand.nextFloat());
     int x = 0;
-    int y = rand.nextInt(600);
+    int y = rand.nextInt(this.player.bounds.height);
     int dx = rand.nextInt(3) + 1;
     int dy = rand.nextInt(3) - 1; // -1, 0, or 1 for random y-direction
-    return new BgFish(size, color, x, y, dx, dy, rand.nextInt(100));
+    return new BgFish(size, color, x, y, dx, dy, rand.nextInt(100), rand, this.player.bounds);
+  }
+
+  // The color of the fixed spawn palette for the given red, green and blue 
+  // fractions. Spawned fish take their colors from this palette rather than each 
+  // making a new one, so the palettes of the array and off-heap fish lists stay 
+  // small however many fish are spawned.
+  static Color spawnColor(float r, float g, float b) {
+    int levels = PondWorld.SPAWN_LEVELS;
+    int red = Math.min(levels - 1, (int) (r * levels));
+    int green = Math.min(levels - 1, (int) (g * levels));
+    int blue = Math.min(levels - 1, (int) (b * levels));
+    return PondWorld.SPAWN_COLORS[(red * levels + green) * levels + blue];
+  }
+
+  // Every color of the spawn palette, evenly spread from black to white
+  static Color[] spawnColors() {
+    int levels = PondWorld.SPAWN_LEVELS;
+    Color[] colors = new Color[levels * levels * levels];
+    for (int i = 0; i < colors.length; i += 1) {
+      colors[i] = new Color(i / (levels * levels) * 255 / (levels - 1), 
+          i / levels % levels * 255 / (levels - 1), i % levels * 255 / (levels - 1));
+    }
+    return colors;
   }
 
   // Handle key events to move the player fish
-  // Moves the player fish based on keyboard input.
+  // Records the key for the next tick, which steers the player fish with every key 
+  // pressed since the last one. Key presses do not make a new world or advance time.
   public World onKeyEvent(String key) {
-    return new PondWorld(this.fish, this.player.move(key), this.tickCounter + 1);
+    this.keys = PlayerFish.press(this.keys, PlayerFish.keyBit(key));
+    return this;
   }
 
   // Check for end of game conditions
   // Checks for end of game conditions (whether the player fish is eaten). 
-  // If the game ends, it displays "Game Over!".
+  // If the game ends, it displays "Game Over!", and closes the journal, if any.
   public WorldEnd worldEnds() {
-    if (this.player.playerIsEaten(this.fish)) {
-      if (this.player.lives == 1) {
-        this.player.lives -= 1;
-        return new WorldEnd(true, this.makeScene()
-            .placeImageXY(new TextImage("Game Over! You Lost!", 50, FontStyle.BOLD, Color.RED), 
-                400, 300));
-      }
-      else {
-        this.player = new PlayerFish(this.player.size, this.player.color, 400, 300, this.player.dx, 
-            this.player.dy, this.player.score, this.player.lives - 1, this.player.inertia, 
-            this.player.speed);
-        return new WorldEnd(false, this.makeScene());
+    this.profiler.begin(TickProfiler.WORLD_ENDS);
+    int state = this.endState();
+    this.profiler.end(TickProfiler.WORLD_ENDS);
+    if (state != PondWorld.PLAYING && this.journal != null) {
+      try {
+        this.journal.end(this);
+      } 
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
     }
-
-    if (this.fish.isPlayerLargest(this.player)) {
+    if (state == PondWorld.LOST) {
+      return new WorldEnd(true, this.makeScene()
+          .placeImageXY(new TextImage("Game Over! You Lost!", 50, FontStyle.BOLD, Color.RED), 
+              this.view.width / 2, this.view.height / 2));
+    }
+    if (state == PondWorld.WON) {
       return new WorldEnd(true, this.makeScene()
           .placeImageXY(new AboveImage(
               new TextImage("Congratulations! You Won!", 50, FontStyle.BOLD, Color.GREEN),
               new TextImage("You are the largest fish!", 50, FontStyle.BOLD, Color.GREEN)), 
-              400, 300));
+              this.view.width / 2, this.view.height / 2));
     }
     return new WorldEnd(false, this.makeScene());
   }
+
+  // Applies the end of game rules without drawing anything: an eaten player loses 
+  // a life and restarts in the middle, or loses the game on its last life; 
+  // otherwise the game is won once the player is the largest fish. Once the game
+  // has ended the outcome is kept, so the rules run again by worldEnds after the 
+  // steps of onTick do not take a life the player no longer has.
+  public int endState() {
+    if (this.outcome != PondWorld.PLAYING) {
+      return this.outcome;
+    }
+    boolean eaten = this.result != null 
+        ? this.result.playerEaten 
+        : this.player.playerIsEaten(this.fish);
+    if (eaten) {
+      if (this.player.lives == 1) {
+        this.player.lives -= 1;
+        this.outcome = PondWorld.LOST;
+        return PondWorld.LOST;
+      }
+      else {
+        PondBounds bounds = this.player.bounds;
+        this.player = new PlayerFish(this.player.size, this.player.color, bounds.width / 2, 
+            bounds.height / 2, this.player.dx, this.player.dy, this.player.score, 
+            this.player.lives - 1, this.player.inertia, this.player.speed, bounds);
+        this.result = null; // the tick's checks and scene no longer match the player
+        return PondWorld.PLAYING;
+      }
+    }
+
+    boolean largest = this.result != null 
+        ? this.result.playerLargest 
+        : this.fish.isPlayerLargest(this.player);
+    if (largest) {
+      this.outcome = PondWorld.WON;
+      return PondWorld.WON;
+    }
+    return PondWorld.PLAYING;
+  }
+
+  // Journals the rest of this game to out, so a game played at the keyboard can be
+  // replayed exactly. From here on the game plays the way the replay will: its 
+  // fish in an ArrayLoFish, drawing from a random source of the pond's own that 
+  // starts from seed.
+  PondWorld record(OutputStream out, long seed) throws IOException {
+    HeadlessRunner.reseed(this, seed);
+    if (!(this.fish instanceof ArrayLoFish)) {
+      ArrayLoFish fish = new ArrayLoFish(this.fish, this.player.bounds);
+      fish.rand = this.rand;
+      this.fish = fish;
+    }
+    this.journal = new PondJournal(out, this, seed);
+    return this;
+  }
 }
 
+// Class representing the clock of a pond that simulates in fixed steps whatever
+// the frame rate. Each frame adds the time since the last one to an accumulator 
+// and runs as many whole steps as it holds; the remainder, as a fraction of a 
+// step, tells makeScene how far to draw the fish toward their next positions. 
+// When frames are so slow that more than maxSteps steps are due, the extra steps
+// are dropped instead of run, so one slow frame cannot snowball.
+class SimClock {
+  long stepNanos;
+  int maxSteps;     // steps run per frame at most
+  boolean started;
+  long last;        // time of the last frame
+  long accumulator; // time not yet simulated
+  double alpha;     // fraction of a step in the accumulator after the last frame
+  long steps;       // steps run in total
+  long caughtUp;    // steps run beyond one in a frame, in total
+  long dropped;     // steps given up, in total
+  long windowStart; // start of the current one-second window
+  long windowCaughtUp;
+  long windowDropped;
+  long windowSteps;
+  long caughtUpPerSecond; // over the last full second
+  long droppedPerSecond;
+  long stepsPerSecond;
 
-// represent snacks
-interface ISnack {
-  // apply the snack effect on the player fish
-  PlayerFish applyEffect(PlayerFish player);
+  /*
+   * Fields:
+   * ... this.stepNanos ...         -- long
+   * ... this.maxSteps ...          -- int
+   * ... this.started ...           -- boolean
+   * ... this.last ...              -- long
+   * ... this.accumulator ...       -- long
+   * ... this.alpha ...             -- double
+   * ... this.steps ...             -- long
+   * ... this.caughtUp ...          -- long
+   * ... this.dropped ...           -- long
+   * ... this.windowStart ...       -- long
+   * ... this.windowCaughtUp ...    -- long
+   * ... this.windowDropped ...     -- long
+   * ... this.windowSteps ...       -- long
+   * ... this.caughtUpPerSecond ... -- long
+   * ... this.droppedPerSecond ...  -- long
+   * ... this.stepsPerSecond ...    -- long
+   * Methods:
+   * ... this.advance(long) ...     -- int
+   * ... this.report() ...          -- String
+   * ... SimClock.ahead(int, int, double, int) ... -- int
+   */
 
-  //Method to draw the snack
-  WorldImage draw();
+  SimClock(long stepNanos, int maxSteps) {
+    this.stepNanos = stepNanos;
+    this.maxSteps = maxSteps;
+    this.started = false;
+    this.last = 0;
+    this.accumulator = 0;
+    this.alpha = 0;
+    this.steps = 0;
+    this.caughtUp = 0;
+    this.dropped = 0;
+    this.windowStart = 0;
+    this.windowCaughtUp = 0;
+    this.windowDropped = 0;
+    this.windowSteps = 0;
+    this.caughtUpPerSecond = 0;
+    this.droppedPerSecond = 0;
+    this.stepsPerSecond = 0;
+  }
 
-  // get X
-  int getX();
+  // A clock stepping every 0.1 seconds, the pace the game was designed for
+  SimClock() {
+    this(100000000L, 5);
+  }
 
-  // get Y
-  int getY();
+  // The number of steps to run for a frame at time now. The first frame always 
+  // runs exactly one step.
+  int advance(long now) {
+    int n;
+    if (!this.started) {
+      this.started = true;
+      this.windowStart = now;
+      n = 1;
+    } 
+    else {
+      this.accumulator += Math.max(0, now - this.last);
+      long due = this.accumulator / this.stepNanos;
+      if (due > this.maxSteps) {
+        this.dropped += due - this.maxSteps;
+        this.windowDropped += due - this.maxSteps;
+        due = this.maxSteps;
+      }
+      n = (int) due;
+      this.accumulator -= due * this.stepNanos;
+      if (this.accumulator >= this.stepNanos) {
+        this.accumulator %= this.stepNanos; // forget the dropped steps' time
+      }
+      if (n > 1) {
+        this.caughtUp += n - 1;
+        this.windowCaughtUp += n - 1;
+      }
+    }
+    this.last = now;
+    this.alpha = (double) this.accumulator / this.stepNanos;
+    this.steps += n;
+    this.windowSteps += n;
+    if (now - this.windowStart >= 1000000000L) {
+      this.stepsPerSecond = this.windowSteps;
+      this.caughtUpPerSecond = this.windowCaughtUp;
+      this.droppedPerSecond = this.windowDropped;
+      this.windowSteps = 0;
+      this.windowCaughtUp = 0;
+      this.windowDropped = 0;
+      this.windowStart = now;
+    }
+    return n;
+  }
+
+  // A readable summary of the last full second
+  String report() {
+    return this.stepsPerSecond + " steps/s, " + this.caughtUpPerSecond + " caught up/s, " 
+        + this.droppedPerSecond + " dropped/s";
+  }
+
+  // The position pos drawn alpha of the way toward pos + velocity, wrapped into 
+  // [0, period)
+  static int ahead(int pos, int velocity, double alpha, int period) {
+    return ((pos + (int) Math.round(velocity * alpha)) % period + period) % period;
+  }
 }
 
-// Abstract class representing a general snack
-abstract class ASnack implements ISnack {
+// Class representing what one tick of the pond computed in its single pass over 
+// the fish, so onTick, worldEnds and makeScene can read it instead of walking the 
+// fish list again
+class TickResult {
+  int playerX;     // player position before moving
+  int playerY;
+  int reachX;      // how far the player can move along each axis this tick
+  int reachY;
+  int eatenCount;
+  int fishCount;
+  int largestFish;
+  int[] predators; // size, x, y of each moved fish that may reach the moved player
+  int predatorCount;
+  boolean playerEaten;
+  boolean playerLargest;
+  WorldScene scene; // built by the first makeScene of the tick
 
   /*
-   * fields:
-   *  ... this.x ... --int
-   *  ... this.y ... --int
-   * methods:
-   *  ... this.appleEffect(PlayerFish) ... -- PlayerFish
-   *  ... this.draw() ... --WorldImage
-   *  ... this.getX() ... --int
-   *  ... this.getY() ... --int
-   * methods for fields: none
+   * Fields:
+   * ... this.playerX ...       -- int
+   * ... this.playerY ...       -- int
+   * ... this.reachX ...        -- int
+   * ... this.reachY ...        -- int
+   * ... this.eatenCount ...    -- int
+   * ... this.fishCount ...     -- int
+   * ... this.largestFish ...   -- int
+   * ... this.predators ...     -- int[]
+   * ... this.predatorCount ... -- int
+   * ... this.playerEaten ...   -- boolean
+   * ... this.playerLargest ... -- boolean
+   * ... this.scene ...         -- WorldScene
+   * Methods:
+   * ... this.observe(int, int, int, PlayerFish) ... -- void
+   * ... this.watch(int, int, int, PlayerFish) ...   -- void
+   * ... this.finish(PlayerFish) ...                 -- void
+   * ... TickResult.wrapDistance(int, int, int) ...  -- int
    */
 
-  int x;
-  int y;
+  // The predators buffer of a settled earlier result is only read by its finish, so
+  // it can be handed on to the next tick's result instead of allocating a new one
+  TickResult(PlayerFish player, TickResult previous) {
+    this(player);
+    if (previous != null) {
+      this.predators = previous.predators;
+    }
+  }
 
-  ASnack(int x, int y) {
-    this.x = x;
-    this.y = y;
+  TickResult(PlayerFish player) {
+    this.playerX = player.x;
+    this.playerY = player.y;
+    // PlayerFish.move scales the velocity by the inertia, which never exceeds 1 in play
+    double scale = Math.max(1, player.inertia);
+    this.reachX = (int) (Math.abs(player.dx) * scale) + 1;
+    this.reachY = (int) (Math.abs(player.dy) * scale) + 1;
+    this.eatenCount = 0;
+    this.fishCount = 0;
+    this.largestFish = Integer.MIN_VALUE;
+    this.predators = new int[12];
+    this.predatorCount = 0;
+    this.playerEaten = false;
+    this.playerLargest = true;
+    this.scene = null;
   }
 
-  // Abstract method to apply the snack effect on the player fish
-  public abstract PlayerFish applyEffect(PlayerFish player);
+  // Records a fish that survived the tick, at its moved position. The player only 
+  // grows during the tick, so a fish no larger than it now can never eat it; the 
+  // others are kept if they are close enough to reach the player after it moves.
+  void observe(int size, int x, int y, PlayerFish player) {
+    this.fishCount += 1;
+    this.largestFish = Math.max(this.largestFish, size);
+    this.watch(size, x, y, player);
+  }
 
-  // Method to draw the snack
-  public abstract WorldImage draw();
+  // Keeps a fish at its moved position if it may reach the player after it moves,
+  // without counting it
+  void watch(int size, int x, int y, PlayerFish player) {
+    if (size > player.size
+        && TickResult.wrapDistance(x, this.playerX, player.bounds.width) < size + this.reachX
+        && TickResult.wrapDistance(y, this.playerY, player.bounds.height) < size + this.reachY) {
+      if (this.predatorCount * 3 == this.predators.length) {
+        this.predators = Arrays.copyOf(this.predators, this.predators.length * 2);
+      }
+      this.predators[this.predatorCount * 3] = size;
+      this.predators[this.predatorCount * 3 + 1] = x;
+      this.predators[this.predatorCount * 3 + 2] = y;
+      this.predatorCount += 1;
+    }
+  }
 
-  // get X
-  public int getX() {
-    return this.x;
+  // Settles the end-of-tick checks against the moved player
+  void finish(PlayerFish player) {
+    this.playerLargest = player.size >= this.largestFish;
+    this.playerEaten = false;
+    for (int k = 0; k < this.predatorCount * 3 && !this.playerEaten; k += 3) {
+      this.playerEaten = AFish.reaches(this.predators[k], this.predators[k + 1], 
+          this.predators[k + 2], player.size, player.x, player.y);
+    }
   }
 
-  // get Y
-  public int getY() {
-    return this.y;
+  // Distance between two coordinates on an axis that wraps around at period
+  static int wrapDistance(int a, int b, int period) {
+    int d = Math.floorMod(a - b, period);
+    return Math.min(d, period - d);
   }
 }
 
-//Class representing a size snack
-class SizeSnack extends ASnack {
+// Class representing a seedable, splittable source of pseudo-random numbers whose
+// whole state is two longs (the SplitMix64 generator). A pond and all of its fish 
+// share one, so a tick draws random numbers without allocating and a run is 
+// reproduced exactly from its seed. It is not thread-safe: give each thread its own
+// stream with split.
+class FishRandom {
+  static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  // used by fish and ponds built without a source of their own
+  static final FishRandom SHARED = new FishRandom(System.nanoTime());
+
+  long seed;
+  long gamma; // odd increment added to the seed for each number
 
   /*
-   * fields:
-   *  ... this.x ... --int
-   *  ... this.y ... --int
-   *  ... this.growthAmount ... -- int
-   * methods:
-   *  ... this.appleEffect(PlayerFish) ... -- PlayerFish
-   *  ... this.draw() ... --WorldImage
-   *  ... this.getX() ... --int
-   *  ... this.getY() ... --int
-   *  ... this.draw() ... --WorldImage
-   * methods for fields: none
+   * Fields:
+   * ... this.seed ...  -- long
+   * ... this.gamma ... -- long
+   * Methods:
+   * ... this.setSeed(long) ...  -- void
+   * ... this.nextLong() ...     -- long
+   * ... this.nextInt(int) ...   -- int
+   * ... this.nextFloat() ...    -- float
+   * ... this.split() ...        -- FishRandom
+   * ... FishRandom.mix64(long) ...    -- long
+   * ... FishRandom.mix32(long) ...    -- int
+   * ... FishRandom.mixGamma(long) ... -- long
    */
 
-  int growthAmount;
+  FishRandom(long seed, long gamma) {
+    this.seed = seed;
+    this.gamma = gamma;
+  }
 
-  SizeSnack(int x, int y, int growthAmount) {
-    super(x, y);
-    this.growthAmount = growthAmount;
+  FishRandom(long seed) {
+    this(seed, GOLDEN_GAMMA);
   }
 
-  // Apply the size growth effect on the player fish
-  public PlayerFish applyEffect(PlayerFish player) {
-    /* 
-     * fields:
-     * ... this.x ... --int
-     *  ... this.y ... --int
-     *  ... this.growthAmount ... -- int
-     * methods on fields: none
-     * methods for parameters:
-     *  ... this.draw() ... --WorldImage
-     *  ... this.getX() ... --int
-     *  ... this.getY() ... -- int
-     *  ... this.getSize() ... int
-     *  ... this.canEat(IFish) ... -- boolean
-     *  ... this.move(String) ... --PlayerFish
-     *  ... this.move() ... --PlayerFish
-     *  ... this.PlayerIsEaten(ILoFish) ... --boolean
-     *  ... this.eatFish(ILoFish) ... -- PlayerFish
-     *  ... this.eatSnack(ISnack) ... -- PlayerFish
-     */
-    return new PlayerFish(player.size + this.growthAmount, player.color, player.x, 
-        player.y, player.dx, player.dy, player.score, player.lives, player.inertia, player.speed);
+  // Restarts this stream from the given seed
+  void setSeed(long seed) {
+    this.seed = seed;
+    this.gamma = GOLDEN_GAMMA;
   }
 
-  // Draw the size snack
-  public WorldImage draw() {
-    return new CircleImage(10, OutlineMode.SOLID, Color.GREEN);
+  // Returns a pseudo-random long
+  long nextLong() {
+    this.seed += this.gamma;
+    return FishRandom.mix64(this.seed);
   }
-}
 
-// Class representing a speed snack
-class SpeedSnack extends ASnack {
-  /*
-   * fields:
-   *  ... this.x ... --int
-   *  ... this.y ... --int
-   *  ... this.speedBoost ... -- int
-   *  ... this.boostDuration ... -- int
-   * methods:
-   *  ... this.appleEffect(PlayerFish) ... -- PlayerFish
-   *  ... this.draw() ... --WorldImage
-   *  ... this.getX() ... --int
-   *  ... this.getY() ... --int
-   *  ... this.draw() ... -- WorldImage
-   * methods for fields: none
-   */
-  int speedBoost;
-  int boostDuration;
+  // Returns a pseudo-random int between 0 (inclusive) and bound (exclusive)
+  int nextInt(int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("Bound must be positive: " + bound);
+    }
+    this.seed += this.gamma;
+    int r = FishRandom.mix32(this.seed);
+    int m = bound - 1;
+    if ((bound & m) == 0) { // a power of two
+      return r & m;
+    }
+    // reject the top values that would make some results more likely than others
+    for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = FishRandom.mix32(this.seed) >>> 1) {
+      this.seed += this.gamma;
+    }
+    return r;
+  }
 
-  SpeedSnack(int x, int y, int speedBoost, int boostDuration) {
-    super(x, y);
-    this.speedBoost = speedBoost;
-    this.boostDuration = boostDuration;
+  // Returns a pseudo-random float between 0 (inclusive) and 1 (exclusive)
+  float nextFloat() {
+    return (this.nextLong() >>> 40) * 0x1.0p-24f;
   }
 
-  // Apply the speed boost effect on the player fish
-  public PlayerFish applyEffect(PlayerFish player) {
-    /* 
-     * fields:
-     * ... this.x ... --int
-     *  ... this.y ... --int
-     *  ... this.speedBoost ... -- int
-     *  ... this.boostDuration ... --int
-     * methods on fields: none
-     * methods for parameters:
-     *  ... this.draw() ... --WorldImage
-     *  ... this.getX() ... --int
-     *  ... this.getY() ... -- int
-     *  ... this.getSize() ... int
-     *  ... this.canEat(IFish) ... -- boolean
-     *  ... this.move(String) ... --PlayerFish
-     *  ... this.move() ... --PlayerFish
-     *  ... this.PlayerIsEaten(ILoFish) ... --boolean
-     *  ... this.eatFish(ILoFish) ... -- PlayerFish
-     *  ... this.eatSnack(ISnack) ... -- PlayerFish
-     */
-    return new PlayerFish(player.size, player.color, player.x, player.y, player.dx + speedBoost,
-        player.dy + speedBoost, player.score, player.lives, player.inertia, player.speed);
+  // Returns a new stream, independent of this one, for another thread or game
+  FishRandom split() {
+    long nextSeed = this.nextLong();
+    this.seed += this.gamma;
+    return new FishRandom(nextSeed, FishRandom.mixGamma(this.seed));
   }
 
-  // Draw the speed snack
-  public WorldImage draw() {
-    return new CircleImage(10, OutlineMode.SOLID, Color.BLUE);
+  // Scrambles a seed into a 64-bit output
+  static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // Scrambles a seed into a 32-bit output
+  static int mix32(long z) {
+    z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+    return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+  }
+
+  // Turns a seed into an odd increment with enough bit transitions for a good stream
+  static long mixGamma(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    int n = Long.bitCount(z ^ (z >>> 1));
+    return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
   }
 }
 
-interface IFish {
+// Class representing a bounded cache of images keyed by a long. Once full it evicts 
+// the least recently used entry, and it counts hits and misses. The shared caches 
+// below keep rendering a stable pond from re-creating identical images every frame.
+class ImageCache<T> {
+  static final ImageCache<WorldImage> SPRITES = new ImageCache<WorldImage>(4096);
+  static final ImageCache<WorldImage> PLAYERS = new ImageCache<WorldImage>(256);
+  static final ImageCache<WorldImage[]> HUD = new ImageCache<WorldImage[]>(64);
 
-  // move the fish
-  IFish move();
+  int capacity;
+  LinkedHashMap<Long, T> images; // in least recently used first order
+  long hits;
+  long misses;
 
-  // draw the fish
-  WorldImage draw();
+  /*
+   * Fields:
+   * ... this.capacity ... -- int
+   * ... this.images ...   -- LinkedHashMap<Long, T>
+   * ... this.hits ...     -- long
+   * ... this.misses ...   -- long
+   * Methods:
+   * ... this.get(long) ...       -- T
+   * ... this.put(long, T) ...    -- void
+   * ... this.size() ...          -- int
+   * ... this.hitRate() ...       -- double
+   * ... ImageCache.key(int, int) ... -- long
+   */
 
-  // check if one fish can eat another
-  boolean canEat(IFish other);
+  ImageCache(int capacity) {
+    this.capacity = capacity;
+    this.images = new LinkedHashMap<Long, T>(16, 0.75f, true);
+    this.hits = 0;
+    this.misses = 0;
+  }
 
-  // get the size of a fish
-  int getSize();
+  // Returns the cached image for the key, or null if it is not cached
+  synchronized T get(long key) {
+    T image = this.images.get(key);
+    if (image == null) {
+      this.misses += 1;
+    } 
+    else {
+      this.hits += 1;
+    }
+    return image;
+  }
 
-  // get x coordinate of a fish
-  int getX();
+  // Caches the image for the key, evicting the least recently used image if full
+  synchronized void put(long key, T image) {
+    this.images.put(key, image);
+    if (this.images.size() > this.capacity) {
+      Iterator<Long> eldest = this.images.keySet().iterator();
+      eldest.next();
+      eldest.remove();
+    }
+  }
 
-  // get y coordinate of a fish
-  int getY();
+  // Number of cached images
+  synchronized int size() {
+    return this.images.size();
+  }
 
+  // Fraction of lookups that found a cached image
+  synchronized double hitRate() {
+    long lookups = this.hits + this.misses;
+    return lookups == 0 ? 0 : (double) this.hits / lookups;
+  }
 
+  // Packs two ints into one cache key
+  static long key(int a, int b) {
+    return ((long) a << 32) | (b & 0xffffffffL);
+  }
 }
 
-// Class representing a generic fish
-abstract class AFish implements IFish {
-  int x;
-  int y;
-  int size;
-  Color color;
-  Random rand;
+// Class representing the extent of a pond, whose edges wrap around so a fish 
+// leaving one side comes back on the other. A pond's fish, grids and view share
+// one; WINDOW is the pond that exactly fills the 800x600 window.
+class PondBounds {
+  static final PondBounds WINDOW = new PondBounds(800, 600);
+  static final int MAX_CELLS = 1 << 20; // cells of a grid over the pond at most
+
+  int width;
+  int height;
+
+  /*
+   * Fields:
+   * ... this.width ...  -- int
+   * ... this.height ... -- int
+   * Methods:
+   * ... this.wrapX(int) ...    -- int
+   * ... this.wrapY(int) ...    -- int
+   * ... this.cellSize(int) ... -- int
+   */
+
+  PondBounds(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  // The x in [0, width) the given x wraps around to
+  int wrapX(int x) {
+    return Math.floorMod(x, this.width);
+  }
+
+  // The y in [0, height) the given y wraps around to
+  int wrapY(int y) {
+    return Math.floorMod(y, this.height);
+  }
+
+  // The smallest cell size of at least least, doubling it, for which a grid over
+  // the pond has no more than MAX_CELLS cells
+  int cellSize(int least) {
+    int cellSize = Math.max(1, least);
+    while ((long) ((this.width + cellSize - 1) / cellSize) 
+        * ((this.height + cellSize - 1) / cellSize) > PondBounds.MAX_CELLS) {
+      cellSize *= 2;
+    }
+    return cellSize;
+  }
+}
+
+// Class representing a retained scene: one node per placed image (each fish, then 
+// the player and the HUD), kept from frame to frame. A frame only updates the 
+// nodes whose position or image changed, and a new WorldScene is composed only 
+// when some node did; otherwise the last composed scene is handed back as is.
+// The scene is the camera's view of a pond: along an axis on which the pond is 
+// larger than the view, the view follows the player and only what is in it is
+// placed, at view coordinates; along the others, world and view coincide.
+// With a raster, the fish nodes are drawn into its framebuffer instead, which is
+// placed as the first node of every frame.
+class RetainedScene {
+  int width;     // of the view
+  int height;
+  PondBounds bounds; // of the pond viewed
+  int left;      // world position of the view's top left corner
+  int top;
+  int count;     // nodes placed so far this frame
+  int lastCount; // nodes in the composed scene
+  int[] x;
+  int[] y;
+  int[] size;    // for fish nodes, so their sprite is only looked up on change
+  Color[] color;
+  WorldImage[] image;
+  int changed;   // nodes updated this frame
+  double alpha;  // how far toward their next step moving nodes are drawn
+  WorldScene composed;
+  long composeCount;
+  long reuseCount;
+  FishRaster raster; // draws the fish nodes when set
+
+  /*
+   * Fields:
+   * ... this.width ...        -- int
+   * ... this.height ...       -- int
+   * ... this.bounds ...       -- PondBounds
+   * ... this.left ...         -- int
+   * ... this.top ...          -- int
+   * ... this.count ...        -- int
+   * ... this.lastCount ...    -- int
+   * ... this.x ...            -- int[]
+   * ... this.y ...            -- int[]
+   * ... this.size ...         -- int[]
+   * ... this.color ...        -- Color[]
+   * ... this.image ...        -- WorldImage[]
+   * ... this.changed ...      -- int
+   * ... this.alpha ...        -- double
+   * ... this.composed ...     -- WorldScene
+   * ... this.composeCount ... -- long
+   * ... this.reuseCount ...   -- long
+   * ... this.raster ...       -- FishRaster
+   * Methods:
+   * ... this.begin() ...                         -- void
+   * ... this.rasterize(int) ...                  -- RetainedScene
+   * ... this.follow(int, int) ...                -- void
+   * ... this.showsAll() ...                      -- boolean
+   * ... this.screenX(int) ...                    -- int
+   * ... this.screenY(int) ...                    -- int
+   * ... this.shows(int, int, int) ...            -- boolean
+   * ... this.fishNode(int, int, int, Color) ...  -- void
+   * ... this.node(int, int, WorldImage) ...      -- void
+   * ... this.compose() ...                       -- WorldScene
+   * ... this.nextNode() ...                      -- int
+   */
+
+  RetainedScene(int width, int height, PondBounds bounds) {
+    this.width = width;
+    this.height = height;
+    this.bounds = bounds;
+    this.left = 0;
+    this.top = 0;
+    this.count = 0;
+    this.lastCount = 0;
+    this.x = new int[16];
+    this.y = new int[16];
+    this.size = new int[16];
+    this.color = new Color[16];
+    this.image = new WorldImage[16];
+    this.changed = 0;
+    this.composed = null;
+    this.composeCount = 0;
+    this.reuseCount = 0;
+    this.raster = null;
+  }
+
+  RetainedScene(int width, int height) {
+    this(width, height, PondBounds.WINDOW);
+  }
+
+  // Starts a new frame
+  void begin() {
+    this.count = 0;
+    this.changed = 0;
+    if (this.raster != null) {
+      this.raster.begin();
+      this.node(this.width / 2, this.height / 2, this.raster.image);
+    }
+  }
+
+  // Draws the fish nodes of every later frame into a framebuffer of the view's 
+  // size, in the given number of bands
+  RetainedScene rasterize(int bands) {
+    this.raster = new FishRaster(this.width, this.height, bands);
+    return this;
+  }
+
+  // Centers the view on the world point (x, y) along each axis on which the pond
+  // is larger than the view
+  void follow(int x, int y) {
+    this.left = this.bounds.width > this.width ? x - this.width / 2 : 0;
+    this.top = this.bounds.height > this.height ? y - this.height / 2 : 0;
+  }
+
+  // Whether the whole pond is in view, so nothing needs culling
+  boolean showsAll() {
+    return this.bounds.width <= this.width && this.bounds.height <= this.height;
+  }
+
+  // The view x of world x, taken from the copy of x around the wrap-around edges
+  // nearest to the view
+  int screenX(int x) {
+    if (this.bounds.width <= this.width) {
+      return x;
+    }
+    int margin = (this.bounds.width - this.width) / 2;
+    return Math.floorMod(x - this.left + margin, this.bounds.width) - margin;
+  }
+
+  // The view y of world y, as screenX
+  int screenY(int y) {
+    if (this.bounds.height <= this.height) {
+      return y;
+    }
+    int margin = (this.bounds.height - this.height) / 2;
+    return Math.floorMod(y - this.top + margin, this.bounds.height) - margin;
+  }
+
+  // Whether an image reaching radius around the world point (x, y) is in view
+  boolean shows(int x, int y, int radius) {
+    int sx = this.screenX(x);
+    int sy = this.screenY(y);
+    return sx + radius > 0 && sx - radius < this.width 
+        && sy + radius > 0 && sy - radius < this.height;
+  }
+
+  // Places the next node as a fish circle of the given size and color, or queues
+  // the circle in the raster
+  void fishNode(int x, int y, int size, Color color) {
+    if (this.raster != null) {
+      this.raster.circle(x, y, size, color.getRGB());
+      return;
+    }
+    int i = this.nextNode();
+    boolean fresh = i >= this.lastCount || this.size[i] != size 
+        || !color.equals(this.color[i]) || this.image[i] == null;
+    if (fresh) {
+      this.size[i] = size;
+      this.color[i] = color;
+      this.image[i] = AFish.sprite(size, color);
+    }
+    if (fresh || this.x[i] != x || this.y[i] != y) {
+      this.x[i] = x;
+      this.y[i] = y;
+      this.changed += 1;
+    }
+  }
+
+  // Places the next node as the given image
+  void node(int x, int y, WorldImage image) {
+    int i = this.nextNode();
+    if (i >= this.lastCount || this.image[i] != image || this.x[i] != x || this.y[i] != y) {
+      this.x[i] = x;
+      this.y[i] = y;
+      this.size[i] = -1; // not a fish node
+      this.color[i] = null;
+      this.image[i] = image;
+      this.changed += 1;
+    }
+  }
+
+  // Finishes the frame, composing a new scene only if any node changed. The 
+  // raster's image is the same node every frame, so a scene is reused with the 
+  // pixels of this one.
+  WorldScene compose() {
+    if (this.raster != null) {
+      this.raster.finish();
+    }
+    if (this.composed != null && this.changed == 0 && this.count == this.lastCount) {
+      this.reuseCount += 1;
+      return this.composed;
+    }
+    WorldScene scene = new WorldScene(this.width, this.height);
+    for (int i = 0; i < this.count; i += 1) {
+      scene = scene.placeImageXY(this.image[i], this.x[i], this.y[i]);
+    }
+    this.composed = scene;
+    this.lastCount = this.count;
+    this.composeCount += 1;
+    return scene;
+  }
+
+  // Claims the next node slot, growing the node arrays if needed
+  int nextNode() {
+    if (this.count == this.x.length) {
+      int capacity = this.count * 2;
+      this.x = Arrays.copyOf(this.x, capacity);
+      this.y = Arrays.copyOf(this.y, capacity);
+      this.size = Arrays.copyOf(this.size, capacity);
+      this.color = Arrays.copyOf(this.color, capacity);
+      this.image = Arrays.copyOf(this.image, capacity);
+    }
+    this.count += 1;
+    return this.count - 1;
+  }
+}
+
+// Class representing a framebuffer the circles of a frame, the fish and snacks, 
+// are drawn straight into as runs of pixels, instead of each becoming an image 
+// node for javalib to walk and rasterize. The circles are queued in drawing order
+// and drawn when the frame finishes, topmost first, each pixel only by the first
+// circle to cover it, so a frame costs at most one write per pixel however many 
+// circles overlap; with more than one band, each band of rows is drawn on its 
+// own on the fork/join pool. Only the pixels that differ from the
+// last frame are handed on to the ComputedPixelImage placed in the scene, so the
+// scene holds a single image however many fish are in view.
+class FishRaster {
+  static final int BACKGROUND = 0xffffff; // RGB of an empty scene
+  static final int UNSHOWN = 0xff000000;  // never an RGB value, so always handed on
+
+  int width;
+  int height;
+  BufferedImage frame;
+  int[] pixels;    // RGB of the frame, row by row, backing frame
+  int[] shown;     // the pixels last handed to image
+  int[] skip;      // per row of width + 1, the distance to a pixel that may be unfilled
+  boolean[] full;  // whether each row has every pixel filled
+  ComputedPixelImage image;
+  int count;       // circles queued this frame
+  int[] circles;   // x, y, radius and RGB of each queued circle
+  int[][] spans;   // by radius, the half width of each row of a circle, or null
+  int bands;       // of rows drawn in parallel; 1 draws on the calling thread
+  ForkJoinPool pool;
+  int[][] changed; // by band, the pixels that changed this frame
+  int[] changedCount;
+  int[] colorKeys;     // RGB of each slot of an open-addressed table
+  Color[] colorValues; // the Color handed to image for each slot, or null if empty
+  int colorCount;
+  long pixelsSet;  // handed to image in total
+
+  /*
+   * Fields:
+   * ... this.width ...        -- int
+   * ... this.height ...       -- int
+   * ... this.frame ...        -- BufferedImage
+   * ... this.pixels ...       -- int[]
+   * ... this.shown ...        -- int[]
+   * ... this.skip ...         -- int[]
+   * ... this.full ...         -- boolean[]
+   * ... this.image ...        -- ComputedPixelImage
+   * ... this.count ...        -- int
+   * ... this.circles ...      -- int[]
+   * ... this.spans ...        -- int[][]
+   * ... this.bands ...        -- int
+   * ... this.pool ...         -- ForkJoinPool
+   * ... this.changed ...      -- int[][]
+   * ... this.changedCount ... -- int[]
+   * ... this.colorKeys ...    -- int[]
+   * ... this.colorValues ...  -- Color[]
+   * ... this.colorCount ...   -- int
+   * ... this.pixelsSet ...    -- long
+   * Methods:
+   * ... this.begin() ...                       -- void
+   * ... this.circle(int, int, int, int) ...    -- void
+   * ... this.finish() ...                      -- ComputedPixelImage
+   * ... this.drawBand(int) ...                 -- void
+   * ... this.unfilled(int) ...                 -- int
+   * ... this.color(int) ...                    -- Color
+   * ... FishRaster.span(int) ...               -- int[]
+   */
+
+  FishRaster(int width, int height, int bands) {
+    this.width = width;
+    this.height = height;
+    this.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    this.pixels = ((DataBufferInt) this.frame.getRaster().getDataBuffer()).getData();
+    this.shown = new int[width * height];
+    Arrays.fill(this.shown, FishRaster.UNSHOWN);
+    this.skip = new int[(width + 1) * height];
+    this.full = new boolean[height];
+    this.image = new ComputedPixelImage(width, height);
+    this.count = 0;
+    this.circles = new int[64];
+    this.spans = new int[128][];
+    this.bands = Math.max(1, Math.min(bands, height));
+    this.pool = ForkJoinPool.commonPool();
+    this.changed = new int[this.bands][];
+    this.changedCount = new int[this.bands];
+    for (int b = 0; b < this.bands; b += 1) {
+      this.changed[b] = new int[64];
+    }
+    this.colorKeys = new int[64];
+    this.colorValues = new Color[64];
+    this.colorCount = 0;
+    this.pixelsSet = 0;
+  }
+
+  FishRaster(int width, int height) {
+    this(width, height, 1);
+  }
+
+  // Starts a new frame with no circles queued
+  void begin() {
+    this.count = 0;
+  }
+
+  // Queues a solid circle of the given radius and RGB color centered on (x, y), 
+  // covering the pixels whose centers are inside it, as CircleImage does
+  void circle(int x, int y, int radius, int rgb) {
+    if (radius <= 0) {
+      return;
+    }
+    if (radius >= this.spans.length) {
+      this.spans = Arrays.copyOf(this.spans, Math.max(radius + 1, this.spans.length * 2));
+    }
+    if (this.spans[radius] == null) {
+      this.spans[radius] = FishRaster.span(radius);
+    }
+    if (this.count * 4 == this.circles.length) {
+      this.circles = Arrays.copyOf(this.circles, this.circles.length * 2);
+    }
+    this.circles[this.count * 4] = x;
+    this.circles[this.count * 4 + 1] = y;
+    this.circles[this.count * 4 + 2] = radius;
+    this.circles[this.count * 4 + 3] = rgb & 0xffffff;
+    this.count += 1;
+  }
+
+  // Draws the queued circles into the frame and hands the pixels that changed to
+  // image, which it returns
+  ComputedPixelImage finish() {
+    if (this.bands == 1) {
+      this.drawBand(0);
+    } 
+    else {
+      this.pool.invoke(new RasterBandTask(this, 0, this.bands));
+    }
+    for (int b = 0; b < this.bands; b += 1) {
+      int[] band = this.changed[b];
+      for (int k = 0; k < this.changedCount[b]; k += 1) {
+        int i = band[k];
+        this.image.setPixel(i % this.width, i / this.width, this.color(this.pixels[i]));
+      }
+      this.pixelsSet += this.changedCount[b];
+    }
+    return this.image;
+  }
+
+  // The Color of the given RGB, made once and then found by linear probing, so a 
+  // changed pixel neither boxes its RGB nor allocates a Color
+  Color color(int rgb) {
+    int mask = this.colorKeys.length - 1;
+    int slot = FishRandom.mix32(rgb) & mask;
+    while (this.colorValues[slot] != null) {
+      if (this.colorKeys[slot] == rgb) {
+        return this.colorValues[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    Color color = new Color(rgb);
+    this.colorKeys[slot] = rgb;
+    this.colorValues[slot] = color;
+    this.colorCount += 1;
+    if (this.colorCount * 2 > this.colorKeys.length) {
+      int[] keys = this.colorKeys;
+      Color[] values = this.colorValues;
+      this.colorKeys = new int[keys.length * 2];
+      this.colorValues = new Color[keys.length * 2];
+      mask = this.colorKeys.length - 1;
+      for (int k = 0; k < keys.length; k += 1) {
+        if (values[k] != null) {
+          int at = FishRandom.mix32(keys[k]) & mask;
+          while (this.colorValues[at] != null) {
+            at = (at + 1) & mask;
+          }
+          this.colorKeys[at] = keys[k];
+          this.colorValues[at] = values[k];
+        }
+      }
+    }
+    return color;
+  }
+
+  // Clears band b of the frame, draws the part of every queued circle in it, and
+  // records the pixels of the band that changed since they were last shown. The
+  // circles are taken from the last queued, which is drawn on top, and a pixel 
+  // is filled by the first that covers it; skip links each filled pixel toward 
+  // the next one in its row that may not be, as a union-find does.
+  void drawBand(int b) {
+    int top = (int) ((long) this.height * b / this.bands);
+    int bottom = (int) ((long) this.height * (b + 1) / this.bands);
+    int width = this.width;
+    int[] pixels = this.pixels;
+    int[] skip = this.skip;
+    Arrays.fill(pixels, top * width, bottom * width, FishRaster.BACKGROUND);
+    Arrays.fill(skip, top * (width + 1), bottom * (width + 1), 0);
+    Arrays.fill(this.full, top, bottom, false);
+    int open = bottom - top; // rows not yet full; once none is, no circle shows
+    for (int c = this.count * 4 - 4; c >= 0 && open > 0; c -= 4) {
+      int x = this.circles[c];
+      int y = this.circles[c + 1];
+      int radius = this.circles[c + 2];
+      int rgb = this.circles[c + 3];
+      int[] span = this.spans[radius];
+      int from = Math.max(y - radius, top);
+      int to = Math.min(y + radius, bottom);
+      for (int row = from; row < to; row += 1) {
+        int half = span[row - y + radius];
+        int left = Math.max(x - half, 0);
+        int right = Math.min(x + half, width);
+        if (left >= right || this.full[row]) {
+          continue;
+        }
+        int base = row * (width + 1); // the last entry of a row is never filled
+        int offset = row * width - base;
+        int start = base + left;
+        int end = base + right;
+        int i = this.unfilled(start);
+        if (i >= end) {
+          continue; // covered by the circles above
+        }
+        while (i < end) {
+          int run = i + 1; // the unfilled pixels from i on are filled as one run
+          while (run < end && skip[run] == 0) {
+            run += 1;
+          }
+          Arrays.fill(pixels, offset + i, offset + run, rgb);
+          for (int k = i; k < run; k += 1) {
+            skip[k] = run - k;
+          }
+          i = this.unfilled(run);
+        }
+        skip[start] = i - start;
+        if (this.unfilled(base) == base + width) {
+          this.full[row] = true;
+          open -= 1;
+        }
+      }
+    }
+    int[] band = this.changed[b];
+    int n = 0;
+    for (int i = top * width; i < bottom * width; i += 1) {
+      if (pixels[i] != this.shown[i]) {
+        this.shown[i] = pixels[i];
+        if (n == band.length) {
+          band = Arrays.copyOf(band, n * 2);
+        }
+        band[n] = i;
+        n += 1;
+      }
+    }
+    this.changed[b] = band;
+    this.changedCount[b] = n;
+  }
+
+  // The first entry of skip from k on that is not filled, shortening the links
+  // followed to point straight at it
+  int unfilled(int k) {
+    int[] skip = this.skip;
+    int root = k;
+    while (skip[root] != 0) {
+      root += skip[root];
+    }
+    while (k != root) {
+      int next = k + skip[k];
+      skip[k] = root - k;
+      k = next;
+    }
+    return root;
+  }
+
+  // The half width of each of the 2 * radius rows of a circle of the given radius,
+  // top to bottom: row j covers the pixels [x - half, x + half) whose centers 
+  // are inside the circle
+  static int[] span(int radius) {
+    int[] span = new int[2 * radius];
+    for (int j = 0; j < 2 * radius; j += 1) {
+      double dy = j - radius + 0.5;
+      span[j] = (int) Math.floor(Math.sqrt((double) radius * radius - dy * dy) + 0.5);
+    }
+    return span;
+  }
+}
+
+// Class representing the drawing of a range of row bands of a FishRaster on the 
+// fork/join pool, split in halves down to single bands
+class RasterBandTask extends RecursiveAction {
+  static final long serialVersionUID = 1L;
+
+  transient FishRaster raster; // tasks are never serialized
+  int lo;
+  int hi;
+
+  RasterBandTask(FishRaster raster, int lo, int hi) {
+    this.raster = raster;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // Draws a single band, or splits the range in two
+  protected void compute() {
+    if (this.hi - this.lo <= 1) {
+      if (this.lo < this.hi) {
+        this.raster.drawBand(this.lo);
+      }
+    } 
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      ForkJoinTask.invokeAll(new RasterBandTask(this.raster, this.lo, mid),
+          new RasterBandTask(this.raster, mid, this.hi));
+    }
+  }
+}
+
+// represent snacks
+interface ISnack {
+  // apply the snack effect on the player fish
+  PlayerFish applyEffect(PlayerFish player);
+
+  //Method to draw the snack
+  WorldImage draw();
+
+  // get X
+  int getX();
+
+  // get Y
+  int getY();
+}
+
+// Abstract class representing a general snack
+abstract class ASnack implements ISnack {
 
   /*
    * fields:
-   *  ... this.x ... -- int
-   *  ... this.y ... -- int
-   *  ... this.size ... -- int
-   *  ... this.color ... -- Color
-   *  ... this.rand ... -- Random
+   *  ... this.x ... --int
+   *  ... this.y ... --int
    * methods:
+   *  ... this.appleEffect(PlayerFish) ... -- PlayerFish
    *  ... this.draw() ... --WorldImage
-   *  ... this.move() ... -- IFish
    *  ... this.getX() ... --int
-   *  ... this.getY() ... -- int
-   *  ... this.getSize() ... int
-   *  ... this.canEat(IFish) ... -- boolean
-   * methods for fields:
-   *  none
+   *  ... this.getY() ... --int
+   * methods for fields: none
    */
 
-  AFish(int size, Color color, int x, int y) {
-    this.size = size;
-    this.color = color;
+  int x;
+  int y;
+
+  ASnack(int x, int y) {
     this.x = x;
     this.y = y;
-    this.rand = new Random();
   }
 
-  AFish(int size, Color color) {
-    this(size, color, new Random().nextInt(800), new Random().nextInt(600));
-  }
+  // Abstract method to apply the snack effect on the player fish
+  public abstract PlayerFish applyEffect(PlayerFish player);
 
-  //Draw the fish
-  // Draws the fish as a circle with its size and color.
-  public WorldImage draw() {
-    return new CircleImage(this.size, OutlineMode.SOLID, this.color);
-  }  
+  // Method to draw the snack
+  public abstract WorldImage draw();
 
+  // get X
   public int getX() {
     return this.x;
   }
 
+  // get Y
   public int getY() {
     return this.y;
   }
+}
 
-  public int getSize() {
-    return this.size;
+//Class representing a size snack
+class SizeSnack extends ASnack {
+
+  /*
+   * fields:
+   *  ... this.x ... --int
+   *  ... this.y ... --int
+   *  ... this.growthAmount ... -- int
+   * methods:
+   *  ... this.appleEffect(PlayerFish) ... -- PlayerFish
+   *  ... this.draw() ... --WorldImage
+   *  ... this.getX() ... --int
+   *  ... this.getY() ... --int
+   *  ... this.draw() ... --WorldImage
+   * methods for fields: none
+   */
+
+  int growthAmount;
+
+  SizeSnack(int x, int y, int growthAmount) {
+    super(x, y);
+    this.growthAmount = growthAmount;
   }
 
-  // Check if this fish eats another fish
-  public boolean canEat(IFish other) {
-    /*
+  // Apply the size growth effect on the player fish
+  public PlayerFish applyEffect(PlayerFish player) {
+    /* 
      * fields:
-     *  ... this.x ... -- int
-     *  ... this.y ... -- int
-     *  ... this.size ... -- int
-     *  ... this.color ... -- Color
-     *  ... this.rand ... -- Random
+     * ... this.x ... --int
+     *  ... this.y ... --int
+     *  ... this.growthAmount ... -- int
      * methods on fields: none
      * methods for parameters:
      *  ... this.draw() ... --WorldImage
-     *  ... this.move() ... -- IFish
      *  ... this.getX() ... --int
      *  ... this.getY() ... -- int
      *  ... this.getSize() ... int
      *  ... this.canEat(IFish) ... -- boolean
+     *  ... this.move(String) ... --PlayerFish
+     *  ... this.steer(int) ... --PlayerFish
+     *  ... PlayerFish.keyBit(String) ... --int
+     *  ... PlayerFish.press(int, int) ... --int
+     *  ... this.move() ... --PlayerFish
+     *  ... this.PlayerIsEaten(ILoFish) ... --boolean
+     *  ... this.eatFish(ILoFish) ... -- PlayerFish
+     *  ... this.eatSnack(ISnack) ... -- PlayerFish
      */
-    return this.size > other.getSize()
-        && Math.abs(this.x - other.getX()) < this.size 
-        && Math.abs(this.y - other.getY()) < this.size;
+    return new PlayerFish(player.size + this.growthAmount, player.color, player.x, 
+        player.y, player.dx, player.dy, player.score, player.lives, player.inertia, player.speed,
+        player.bounds);
   }
 
+  // Draw the size snack
+  public WorldImage draw() {
+    return new CircleImage(10, OutlineMode.SOLID, Color.GREEN);
+  }
 }
 
-// represent background fish
-class BgFish extends AFish {
-  /* TEMPLATE
-   * Fields:
-   * ... this.size ...   -- int
-   * ... this.color ...  -- Color
-   * ... this.x ...      -- int
-   * ... this.y ...      -- int
-   * ... this.rand ...   -- Random
-   * ... this.dy ...     -- int
-   * ... this.dx ...     -- int
-   * ... this.timeLeft ... -- int
-   * Methods:
-   *  ... this.move() ... --IFish
+// Class representing a speed snack
+class SpeedSnack extends ASnack {
+  /*
+   * fields:
+   *  ... this.x ... --int
+   *  ... this.y ... --int
+   *  ... this.speedBoost ... -- int
+   *  ... this.boostDuration ... -- int
+   * methods:
+   *  ... this.appleEffect(PlayerFish) ... -- PlayerFish
    *  ... this.draw() ... --WorldImage
    *  ... this.getX() ... --int
-   *  ... this.getY() ... -- int
-   *  ... this.getSize() ... int
-   *  ... this.canEat(IFish) ... -- boolean
-   * methods for fields:
-   *  none
+   *  ... this.getY() ... --int
+   *  ... this.draw() ... -- WorldImage
+   * methods for fields: none
    */
+  int speedBoost;
+  int boostDuration;
 
-  int dx;
-  int dy;
+  SpeedSnack(int x, int y, int speedBoost, int boostDuration) {
+    super(x, y);
+    this.speedBoost = speedBoost;
+    this.boostDuration = boostDuration;
+  }
+
+  // Apply the speed boost effect on the player fish
+  public PlayerFish applyEffect(PlayerFish player) {
+    /* 
+     * fields:
+     * ... this.x ... --int
+     *  ... this.y ... --int
+     *  ... this.speedBoost ... -- int
+     *  ... this.boostDuration ... --int
+     * methods on fields: none
+     * methods for parameters:
+     *  ... this.draw() ... --WorldImage
+     *  ... this.getX() ... --int
+     *  ... this.getY() ... -- int
+     *  ... this.getSize() ... int
+     *  ... this.canEat(IFish) ... -- boolean
+     *  ... this.move(String) ... --PlayerFish
+     *  ... this.move() ... --PlayerFish
+     *  ... this.PlayerIsEaten(ILoFish) ... --boolean
+     *  ... this.eatFish(ILoFish) ... -- PlayerFish
+     *  ... this.eatSnack(ISnack) ... -- PlayerFish
+     */
+    return new PlayerFish(player.size, player.color, player.x, player.y, player.dx + speedBoost,
+        player.dy + speedBoost, player.score, player.lives, player.inertia, player.speed, 
+        player.bounds);
+  }
+
+  // Draw the speed snack
+  public WorldImage draw() {
+    return new CircleImage(10, OutlineMode.SOLID, Color.BLUE);
+  }
+}
+
+// Class representing the snacks of a pond in parallel arrays, with a FishGrid over 
+// them so the player only checks the snacks in the cells it covers. A snack is a 
+// kind, a position and an amount: the growth of a size snack, or the boost of a 
+// speed snack, which lasts for its duration in ticks. The end of each boost is a 
+// PondEvents event that lowers the player's speed again.
+class SnackField {
+  static final byte SIZE = 0; // kinds
+  static final byte SPEED = 1;
+  static final int CELL = 20;
+  static final int RADIUS = 10; // of either snack image
+  static final Color SIZE_COLOR = Color.GREEN; // as SizeSnack and SpeedSnack draw them
+  static final Color SPEED_COLOR = Color.BLUE;
+
+  byte[] kind;
+  int[] x;
+  int[] y;
+  int[] amount;     // growth or speed boost
+  int[] duration;   // ticks a speed boost lasts
+  int count;
+  FishGrid grid;
+  int period;       // ticks between spawns, or 0 for none
+  int batch;        // snacks spawned at a time
+  int limit;        // no spawning beyond this many snacks
+  long eatenTotal;
+  PondBounds bounds;
+
+  /*
+   * Fields:
+   * ... this.kind ...       -- byte[]
+   * ... this.x ...          -- int[]
+   * ... this.y ...          -- int[]
+   * ... this.amount ...     -- int[]
+   * ... this.duration ...   -- int[]
+   * ... this.count ...      -- int
+   * ... this.grid ...       -- FishGrid
+   * ... this.period ...     -- int
+   * ... this.batch ...      -- int
+   * ... this.limit ...      -- int
+   * ... this.eatenTotal ... -- long
+   * ... this.bounds ...     -- PondBounds
+   * Methods:
+   * ... this.add(ISnack) ...                      -- int
+   * ... this.add(byte, int, int, int, int) ...    -- int
+   * ... this.spawn(int, FishRandom) ...           -- int
+   * ... this.remove(int) ...                      -- void
+   * ... this.snack(int) ...                       -- ISnack
+   * ... this.feed(PlayerFish, int, PondEvents) ... -- PlayerFish
+   * ... this.drawInto(RetainedScene) ...          -- void
+   * ... this.placeNode(RetainedScene, int) ...    -- void
+   * ... this.ensureCapacity(int) ...              -- void
+   */
+
+  SnackField(int period, int batch, int limit, PondBounds bounds) {
+    this.kind = new byte[16];
+    this.x = new int[16];
+    this.y = new int[16];
+    this.amount = new int[16];
+    this.duration = new int[16];
+    this.count = 0;
+    this.grid = new FishGrid(bounds.cellSize(SnackField.CELL), 16, bounds);
+    this.period = period;
+    this.batch = batch;
+    this.limit = limit;
+    this.eatenTotal = 0;
+    this.bounds = bounds;
+  }
+
+  SnackField(int period, int batch, int limit) {
+    this(period, batch, limit, PondBounds.WINDOW);
+  }
+
+  // A few snacks every 10 seconds
+  SnackField(PondBounds bounds) {
+    this(100, 5, 50, bounds);
+  }
+
+  SnackField() {
+    this(PondBounds.WINDOW);
+  }
+
+  // Adds the given size or speed snack, returning its index
+  int add(ISnack snack) {
+    if (snack instanceof SpeedSnack) {
+      SpeedSnack speed = (SpeedSnack) snack;
+      return this.add(SnackField.SPEED, speed.x, speed.y, speed.speedBoost, speed.boostDuration);
+    }
+    SizeSnack size = (SizeSnack) snack;
+    return this.add(SnackField.SIZE, size.x, size.y, size.growthAmount, 0);
+  }
+
+  // Adds a snack of the given kind, returning its index
+  int add(byte kind, int x, int y, int amount, int duration) {
+    this.ensureCapacity(this.count + 1);
+    int i = this.count;
+    this.kind[i] = kind;
+    this.x[i] = x;
+    this.y[i] = y;
+    this.amount[i] = amount;
+    this.duration[i] = duration;
+    this.grid.insert(i, x, y);
+    this.count += 1;
+    return i;
+  }
+
+  // Adds up to n random snacks, one in four a speed snack, without going over the 
+  // limit, and returns how many were added
+  int spawn(int n, FishRandom rand) {
+    n = Math.max(0, Math.min(n, this.limit - this.count));
+    this.ensureCapacity(this.count + n);
+    for (int k = 0; k < n; k += 1) {
+      if (rand.nextInt(4) == 0) {
+        this.add(SnackField.SPEED, rand.nextInt(this.bounds.width), 
+            rand.nextInt(this.bounds.height), rand.nextInt(3) + 2, rand.nextInt(50) + 30);
+      } 
+      else {
+        this.add(SnackField.SIZE, rand.nextInt(this.bounds.width), 
+            rand.nextInt(this.bounds.height), rand.nextInt(3) + 1, 0);
+      }
+    }
+    return n;
+  }
+
+  // Removes snack i by moving the last snack into its place
+  void remove(int i) {
+    int last = this.count - 1;
+    this.grid.remove(i);
+    if (i != last) {
+      this.grid.relabel(last, i);
+    }
+    this.kind[i] = this.kind[last];
+    this.x[i] = this.x[last];
+    this.y[i] = this.y[last];
+    this.amount[i] = this.amount[last];
+    this.duration[i] = this.duration[last];
+    this.count = last;
+  }
+
+  // Snack i as an ISnack
+  ISnack snack(int i) {
+    if (this.kind[i] == SnackField.SPEED) {
+      return new SpeedSnack(this.x[i], this.y[i], this.amount[i], this.duration[i]);
+    }
+    return new SizeSnack(this.x[i], this.y[i], this.amount[i]);
+  }
+
+  // Lets the player eat the snacks it covers at the given tick, and returns the 
+  // player with their effects. Only the snacks in the grid cells around the player
+  // are checked. The end of each speed boost, at least a tick on, goes in events.
+  PlayerFish feed(PlayerFish player, int tick, PondEvents events) {
+    if (this.count == 0) {
+      return player;
+    }
+    int found = this.grid.gather(player.x, player.y, player.size / 2);
+    int[] cells = this.grid.found;
+    int hits = 0;
+    for (int c = 0; c < found; c += 1) {
+      int i = cells[c];
+      if (Math.abs(player.x - this.x[i]) < player.size / 2 
+          && Math.abs(player.y - this.y[i]) < player.size / 2) {
+        cells[hits] = i;
+        hits += 1;
+      }
+    }
+    if (hits == 0) {
+      return player;
+    }
+    Arrays.sort(cells, 0, hits);
+    PlayerFish fed = player;
+    for (int c = 0; c < hits; c += 1) {
+      int i = cells[c];
+      fed = fed.eatSnack(this.snack(i));
+      if (this.kind[i] == SnackField.SPEED) {
+        fed.speed += this.amount[i];
+        events.add(PondEvents.BOOST_END, tick + Math.max(1, this.duration[i]), 0, 
+            this.amount[i]);
+      }
+    }
+    for (int c = hits - 1; c >= 0; c -= 1) {
+      this.remove(cells[c]);
+    }
+    this.eatenTotal += hits;
+    return fed;
+  }
+
+  // Places a node for every snack in view, in index order. When the pond is 
+  // larger than the view, only the grid cells around the view are searched.
+  void drawInto(RetainedScene view) {
+    if (view.showsAll()) {
+      for (int i = 0; i < this.count; i += 1) {
+        this.placeNode(view, i);
+      }
+      return;
+    }
+    int margin = SnackField.RADIUS;
+    int n = this.grid.gatherArea(view.left - margin, view.top - margin, 
+        view.width + 2 * margin, view.height + 2 * margin);
+    Arrays.sort(this.grid.found, 0, n);
+    for (int k = 0; k < n; k += 1) {
+      this.placeNode(view, this.grid.found[k]);
+    }
+  }
+
+  // Places a circle node for snack i if it is in view
+  void placeNode(RetainedScene view, int i) {
+    if (view.shows(this.x[i], this.y[i], SnackField.RADIUS)) {
+      view.fishNode(view.screenX(this.x[i]), view.screenY(this.y[i]), SnackField.RADIUS, 
+          this.kind[i] == SnackField.SPEED ? SnackField.SPEED_COLOR : SnackField.SIZE_COLOR);
+    }
+  }
+
+  // Makes room for capacity snacks
+  void ensureCapacity(int capacity) {
+    if (capacity > this.x.length) {
+      int grown = Math.max(capacity, this.x.length * 2);
+      this.kind = Arrays.copyOf(this.kind, grown);
+      this.x = Arrays.copyOf(this.x, grown);
+      this.y = Arrays.copyOf(this.y, grown);
+      this.amount = Arrays.copyOf(this.amount, grown);
+      this.duration = Arrays.copyOf(this.duration, grown);
+      this.grid.ensureCapacity(grown);
+    }
+  }
+}
+
+// Class representing the timed events of a pond, scheduled on a TimingWheel: the 
+// recurring fish and snack spawns, and the end of each speed boost. An event is 
+// an id with a kind, a period for a recurring event (0 for a one-off) and an 
+// amount. The ids of finished one-offs are reused.
+class PondEvents {
+  static final byte SPAWN_FISH = 0; // kinds
+  static final byte SPAWN_SNACKS = 1;
+  static final byte BOOST_END = 2;
+
+  TimingWheel wheel;
+  byte[] kind;
+  int[] period;
+  int[] amount;
+  int count;     // ids handed out so far
+  int[] free;    // ids of finished one-offs
+  int freeCount;
+
+  /*
+   * Fields:
+   * ... this.wheel ...     -- TimingWheel
+   * ... this.kind ...      -- byte[]
+   * ... this.period ...    -- int[]
+   * ... this.amount ...    -- int[]
+   * ... this.count ...     -- int
+   * ... this.free ...      -- int[]
+   * ... this.freeCount ... -- int
+   * Methods:
+   * ... this.add(byte, int, int, int) ...     -- int
+   * ... this.every(byte, int, int, int) ...   -- int
+   * ... this.due(int) ...                     -- int
+   * ... this.fired(int) ...                   -- int
+   * ... this.done(int, int) ...               -- void
+   */
+
+  PondEvents() {
+    this.wheel = new TimingWheel(16);
+    this.kind = new byte[16];
+    this.period = new int[16];
+    this.amount = new int[16];
+    this.count = 0;
+    this.free = new int[16];
+    this.freeCount = 0;
+  }
+
+  // Schedules an event of the given kind at the given tick, returning its id
+  int add(byte kind, int tick, int period, int amount) {
+    int id;
+    if (this.freeCount > 0) {
+      this.freeCount -= 1;
+      id = this.free[this.freeCount];
+    } 
+    else {
+      if (this.count == this.kind.length) {
+        int capacity = this.count * 2;
+        this.kind = Arrays.copyOf(this.kind, capacity);
+        this.period = Arrays.copyOf(this.period, capacity);
+        this.amount = Arrays.copyOf(this.amount, capacity);
+        this.free = Arrays.copyOf(this.free, capacity);
+        this.wheel.ensureCapacity(capacity);
+      }
+      id = this.count;
+      this.count += 1;
+    }
+    this.kind[id] = kind;
+    this.period[id] = period;
+    this.amount[id] = amount;
+    this.wheel.schedule(id, tick);
+    return id;
+  }
+
+  // Schedules an event of the given kind at every tick from the given one on whose
+  // remainder by period is offset
+  int every(byte kind, int from, int period, int offset) {
+    return this.add(kind, from + Math.floorMod(offset - from, period), period, 0);
+  }
+
+  // Takes the events due at the given tick off the wheel, returning how many 
+  // there are. Each is handed to done once it has been dealt with.
+  int due(int tick) {
+    return this.wheel.advance(tick);
+  }
+
+  // The id of the k-th event of the last due
+  int fired(int k) {
+    return this.wheel.fired[k];
+  }
+
+  // Schedules the next run of a recurring event that fell due at the given tick,
+  // or frees the id of a one-off
+  void done(int id, int tick) {
+    if (this.period[id] > 0) {
+      this.wheel.schedule(id, tick + this.period[id]);
+    } 
+    else {
+      this.free[this.freeCount] = id;
+      this.freeCount += 1;
+    }
+  }
+}
+
+interface IFish {
+
+  // move the fish
+  IFish move();
+
+  // draw the fish
+  WorldImage draw();
+
+  // check if one fish can eat another
+  boolean canEat(IFish other);
+
+  // get the size of a fish
+  int getSize();
+
+  // get x coordinate of a fish
+  int getX();
+
+  // get y coordinate of a fish
+  int getY();
+
+
+}
+
+// Class representing a generic fish
+abstract class AFish implements IFish {
+  int x;
+  int y;
+  int size;
+  Color color;
+  FishRandom rand;
+  PondBounds bounds; // of the pond the fish swims in
+
+  /*
+   * fields:
+   *  ... this.x ... -- int
+   *  ... this.y ... -- int
+   *  ... this.size ... -- int
+   *  ... this.color ... -- Color
+   *  ... this.rand ... -- FishRandom
+   *  ... this.bounds ... -- PondBounds
+   * methods:
+   *  ... this.draw() ... --WorldImage
+   *  ... this.move() ... -- IFish
+   *  ... this.getX() ... --int
+   *  ... this.getY() ... -- int
+   *  ... this.getSize() ... int
+   *  ... this.canEat(IFish) ... -- boolean
+   *  ... AFish.reaches(int, int, int, int, int, int) ... -- boolean
+   *  ... AFish.sprite(int, Color) ... -- WorldImage
+   * methods for fields:
+   *  none
+   */
+
+  AFish(int size, Color color, int x, int y, FishRandom rand, PondBounds bounds) {
+    this.size = size;
+    this.color = color;
+    this.x = x;
+    this.y = y;
+    this.rand = rand;
+    this.bounds = bounds;
+  }
+
+  AFish(int size, Color color, int x, int y, FishRandom rand) {
+    this(size, color, x, y, rand, PondBounds.WINDOW);
+  }
+
+  AFish(int size, Color color, int x, int y) {
+    this(size, color, x, y, FishRandom.SHARED);
+  }
+
+  AFish(int size, Color color) {
+    this(size, color, FishRandom.SHARED.nextInt(800), FishRandom.SHARED.nextInt(600));
+  }
+
+  //Draw the fish
+  // Draws the fish as a circle with its size and color.
+  public WorldImage draw() {
+    return AFish.sprite(this.size, this.color);
+  }  
+
+  // The circle for a fish of the given size and color, cached across frames
+  static WorldImage sprite(int size, Color color) {
+    long key = ImageCache.key(size, color.getRGB());
+    WorldImage image = ImageCache.SPRITES.get(key);
+    if (image == null) {
+      image = new CircleImage(size, OutlineMode.SOLID, color);
+      ImageCache.SPRITES.put(key, image);
+    }
+    return image;
+  }
+
+  public int getX() {
+    return this.x;
+  }
+
+  public int getY() {
+    return this.y;
+  }
+
+  public int getSize() {
+    return this.size;
+  }
+
+  // Check if this fish eats another fish
+  public boolean canEat(IFish other) {
+    /*
+     * fields:
+     *  ... this.x ... -- int
+     *  ... this.y ... -- int
+     *  ... this.size ... -- int
+     *  ... this.color ... -- Color
+     *  ... this.rand ... -- FishRandom
+     * methods on fields: none
+     * methods for parameters:
+     *  ... this.draw() ... --WorldImage
+     *  ... this.move() ... -- IFish
+     *  ... this.getX() ... --int
+     *  ... this.getY() ... -- int
+     *  ... this.getSize() ... int
+     *  ... this.canEat(IFish) ... -- boolean
+     */
+    return AFish.reaches(this.size, this.x, this.y, other.getSize(), other.getX(), other.getY());
+  }
+
+  // Check if a fish of the given size at (x, y) can eat a fish of otherSize at (otherX, otherY)
+  static boolean reaches(int size, int x, int y, int otherSize, int otherX, int otherY) {
+    return size > otherSize
+        && Math.abs(x - otherX) < size 
+        && Math.abs(y - otherY) < size;
+  }
+
+}
+
+// represent background fish
+class BgFish extends AFish {
+  /* TEMPLATE
+   * Fields:
+   * ... this.size ...   -- int
+   * ... this.color ...  -- Color
+   * ... this.x ...      -- int
+   * ... this.y ...      -- int
+   * ... this.rand ...   -- FishRandom
+   * ... this.bounds ... -- PondBounds
+   * ... this.dy ...     -- int
+   * ... this.dx ...     -- int
+   * ... this.timeLeft ... -- int
+   * Methods:
+   *  ... this.move() ... --IFish
+   *  ... this.draw() ... --WorldImage
+   *  ... this.getX() ... --int
+   *  ... this.getY() ... -- int
+   *  ... this.getSize() ... int
+   *  ... this.canEat(IFish) ... -- boolean
+   * methods for fields:
+   *  none
+   */
+
+  int dx;
+  int dy;
   int timeLeft; // the bgfish will move in the same direction during the time left
 
-  BgFish(int size, Color color, int x, int y, int dx, int dy, int timeLeft) {
-    super(size, color, x, y);
+  BgFish(int size, Color color, int x, int y, int dx, int dy, int timeLeft, FishRandom rand,
+      PondBounds bounds) {
+    super(size, color, x, y, rand, bounds);
     this.dx = dx;
     this.dy = dy;
     this.timeLeft = timeLeft;
   }
 
+  BgFish(int size, Color color, int x, int y, int dx, int dy, int timeLeft, FishRandom rand) {
+    this(size, color, x, y, dx, dy, timeLeft, rand, PondBounds.WINDOW);
+  }
+
+  BgFish(int size, Color color, int x, int y, int dx, int dy, int timeLeft) {
+    this(size, color, x, y, dx, dy, timeLeft, FishRandom.SHARED);
+  }
+
   BgFish(int size, Color color, int x, int y) {
-    this(size, color, new Random().nextInt(800), new Random().nextInt(600), 1, 0, 
-        new Random().nextInt(100));
+    this(size, color, FishRandom.SHARED.nextInt(800), FishRandom.SHARED.nextInt(600), 1, 0, 
+        FishRandom.SHARED.nextInt(100));
   }
 
   //Move the fish in the current direction for the remaining time
@@ -434,362 +2104,4225 @@ class BgFish extends AFish {
       int newDx = (rand.nextInt(2) == 0 ? -1 : 1); // -1 or 1
       int newDy = (rand.nextInt(2) == 0 ? -1 : 1); // -1, or 1
       return new BgFish(this.size, this.color, this.x, this.y, newDx, newDy, 
-          new Random().nextInt(100));
+          this.rand.nextInt(100), this.rand, this.bounds);
     } 
     else {
-      return new BgFish(this.size, this.color, (this.x + this.dx + 800) % 800, 
-          (this.y + this.dy + 600) % 600, this.dx, this.dy, this.timeLeft - 1);
+      return new BgFish(this.size, this.color, this.bounds.wrapX(this.x + this.dx), 
+          this.bounds.wrapY(this.y + this.dy), this.dx, this.dy, this.timeLeft - 1, this.rand,
+          this.bounds);
+    }
+  }
+
+}
+
+// Class representing the player-controlled fish
+class PlayerFish extends AFish {
+  static final int LEFT = 1; // key bits
+  static final int RIGHT = 2;
+  static final int UP = 4;
+  static final int DOWN = 8;
+
+  /*
+   * fields:
+   *  ... this.x ... -- int
+   *  ... this.y ... -- int
+   *  ... this.size ... -- int
+   *  ... this.color ... -- Color
+   *  ... this.rand ... -- FishRandom
+   *  ... this.bounds ... -- PondBounds
+   *  ... this.inertia ... -- double
+   *  ... this.speed ... -- int
+   *  ... this.score ... -- int
+   *  ... this.dx ... -- int
+   *  ... this.dy ... -- int
+   *  ... this.lives ... -- int
+   * methods:
+   *  ... this.draw() ... --WorldImage
+   *  ... this.getX() ... --int
+   *  ... this.getY() ... -- int
+   *  ... this.getSize() ... int
+   *  ... this.canEat(IFish) ... -- boolean
+   *  ... this.move(String) ... --PlayerFish
+   *  ... this.move() ... --PlayerFish
+   *  ... this.PlayerIsEaten(ILoFish) ... --boolean
+   *  ... this.eatFish(ILoFish) ... -- PlayerFish
+   *  ... this.eatSnack(ISnack) ... -- PlayerFish
+   *  ... this.grow(int) ... -- void
+   * methods for fields:
+   *  none
+   */
+  double inertia;
+  int speed;
+  int score;
+  int dx; // velocity in x direction
+  int dy; // velocity in y direction
+  int lives; // multiple lives for player
+
+  PlayerFish(int size, Color color, int x, int y, int dx, int dy, 
+      int score, int lives, double inertia, int speed, PondBounds bounds) {
+    super(size, color, x, y, FishRandom.SHARED, bounds);
+    this.dx = dx;
+    this.dy = dy;
+    this.score = score;
+    this.lives = lives;
+    this.inertia = inertia;
+    this.speed = speed;
+  }
+
+  PlayerFish(int size, Color color, int x, int y, int dx, int dy, 
+      int score, int lives, double inertia, int speed) {
+    this(size, color, x, y, dx, dy, score, lives, inertia, speed, PondBounds.WINDOW);
+  }
+
+  PlayerFish(int size, Color color, int dx, int dy, int score, int lives) {
+    super(size, color);
+    this.dx = dx;
+    this.dy = dy;
+    this.score = score;
+    this.lives = lives;
+    this.inertia = 0.85;
+    this.speed = 10;
+  }
+
+  PlayerFish(int size, Color color) {
+    this(size, color, 0, 0, 0, 3);
+  }
+
+
+  // Move the player fish based on key input
+  // Moves the player fish based on key input (left, right, up, down).
+  public PlayerFish move(String key) {
+    PlayerFish steered = this.steer(PlayerFish.keyBit(key));
+    int newX = this.bounds.wrapX(this.x + steered.dx);
+    int newY = this.bounds.wrapY(this.y + steered.dy);
+
+    return new PlayerFish(this.size, this.color, newX, newY, 
+        steered.dx, steered.dy, this.score, this.lives, this.inertia, this.speed, this.bounds);
+  }
+
+  // A copy of this fish heading at full speed in the directions of the given key 
+  // bits, keeping its velocity along any axis with no key pressed
+  public PlayerFish steer(int keys) {
+    int newDx = (keys & PlayerFish.LEFT) != 0 ? -this.speed 
+        : (keys & PlayerFish.RIGHT) != 0 ? this.speed : this.dx;
+    int newDy = (keys & PlayerFish.UP) != 0 ? -this.speed 
+        : (keys & PlayerFish.DOWN) != 0 ? this.speed : this.dy;
+    return new PlayerFish(this.size, this.color, this.x, this.y, 
+        newDx, newDy, this.score, this.lives, this.inertia, this.speed, this.bounds);
+  }
+
+  // The key bit of a key name, or 0 for keys that do not steer
+  static int keyBit(String key) {
+    switch (key) {
+      case "left":
+        return PlayerFish.LEFT;
+      case "right":
+        return PlayerFish.RIGHT;
+      case "up":
+        return PlayerFish.UP;
+      case "down":
+        return PlayerFish.DOWN;
+      default:
+        return 0;
+    }
+  }
+
+  // Adds a key bit to the keys pressed so far, where a later key overrides an 
+  // earlier one along the same axis, as it would when applied one at a time
+  static int press(int keys, int bit) {
+    if ((bit & (PlayerFish.LEFT | PlayerFish.RIGHT)) != 0) {
+      keys &= ~(PlayerFish.LEFT | PlayerFish.RIGHT);
+    }
+    if ((bit & (PlayerFish.UP | PlayerFish.DOWN)) != 0) {
+      keys &= ~(PlayerFish.UP | PlayerFish.DOWN);
+    }
+    return keys | bit;
+  }
+
+  //Move the player fish based on its velocity
+  public PlayerFish move() {
+    if (this.inertia <= 0) {
+      this.inertia = 0;
+    }
+
+    int newDx = (int) (this.dx * this.inertia);
+    int newDy = (int) (this.dy * this.inertia);
+
+    // Ensure fish stays within bounds
+    int newX = this.bounds.wrapX(this.x + newDx);
+    int newY = this.bounds.wrapY(this.y + newDy);
+
+    return new PlayerFish(this.size, this.color, newX, newY, 
+        newDx, newDy, this.score, this.lives, this.inertia, this.speed, this.bounds);
+  }
+
+  // Checks if the player fish is eaten by any background fish
+  public boolean playerIsEaten(ILoFish fish) {
+    /*
+     * fields:
+     *  ... this.x ... -- int
+     *  ... this.y ... -- int
+     *  ... this.size ... -- int
+     *  ... this.color ... -- Color
+     *  ... this.rand ... -- FishRandom
+     *  ... this.inertia ... -- double
+     *  ... this.speed ... -- int
+     *  ... this.score ... -- int
+     *  ... this.dx ... -- int
+     *  ... this.dy ... -- int
+     *  ... this.lives ... -- int
+     * methods on fields: none
+     * methods for parameters:
+     * ... this.draw(WorldScene) ...           -- WorldScene
+     * ... this.drawInto(RetainedScene) ...    -- void
+     * ... this.move() ...                     -- ILoFish
+     * ... this.isEatenBy(PlayerFish) ...      -- boolean
+     * ... this.eats(PlayerFish) ...           -- boolean
+     * ... this.filterEaten(PlayerFish) ...    -- ILoFish
+     * ... this.isPlayerLargest(PlayerFish) ...-- boolean
+     */
+    return fish.eats(this);
+  }
+
+  // If the player fish eats a smaller fish, it grows in size by the eaten fish
+  public PlayerFish eatFish(ILoFish fish) {
+    if (fish.isEatenBy(this)) {
+      return new PlayerFish(this.size, this.color, this.x, this.y,
+          this.dx, this.dy, this.score, this.lives, this.inertia, this.speed, this.bounds);
+    }
+    return this;
+  }
+
+  // Grows this player fish after eating a fish of the given size
+  void grow(int eatenSize) {
+    this.size += eatenSize / 5; // grow the player fish
+    this.score += eatenSize / 5; // add score to the player fish
+
+    // The bigger the player gets, the harder it should become to accelerate 
+    // the fish and also to stop
+    this.inertia -= this.size / 100; 
+  }
+
+  //Check for collision with a snack and apply its effect
+  public PlayerFish eatSnack(ISnack snack) {
+    /*
+     * fields:
+     *  ... this.x ... -- int
+     *  ... this.y ... -- int
+     *  ... this.size ... -- int
+     *  ... this.color ... -- Color
+     *  ... this.rand ... -- FishRandom
+     *  ... this.inertia ... -- double
+     *  ... this.speed ... -- int
+     *  ... this.score ... -- int
+     *  ... this.dx ... -- int
+     *  ... this.dy ... -- int
+     *  ... this.lives ... -- int
+     * methods on fields: none
+     * methods for parameters:
+     * ... this.appleEffect(PlayerFish) ... -- PlayerFish
+     *  ... this.draw() ... --WorldImage
+     *  ... this.getX() ... --int
+     *  ... this.getY() ... --int
+     */
+    if (Math.abs(this.x - snack.getX()) < this.size / 2 
+        && Math.abs(this.y - snack.getY()) < this.size / 2) {
+      return snack.applyEffect(this);
+    }
+    return this;
+  }
+
+  // Draws the player fish with the text "Player Fish" above it.
+  // The image only changes with the size and color, so it is cached across frames.
+  public WorldImage draw() {
+    long key = ImageCache.key(this.size, this.color.getRGB());
+    WorldImage image = ImageCache.PLAYERS.get(key);
+    if (image == null) {
+      WorldImage fishImage = super.draw();
+      WorldImage textImage = new TextImage("You", this.size / 6 + 10, FontStyle.BOLD, 
+          Color.BLACK);
+      image = new OverlayImage(textImage, fishImage);
+      ImageCache.PLAYERS.put(key, image);
+    }
+    return image;
+  }
+}
+
+// Interface for a list of fish
+interface ILoFish {
+
+  // Draws the world scene
+  WorldScene draw(WorldScene acc);
+
+  // places a node for each fish in view in the retained scene, in drawing order
+  void drawInto(RetainedScene view);
+
+  // move the fish in the list
+  ILoFish move();
+
+  // add a fish to the list
+  ILoFish add(IFish fish);
+
+  // append every fish in this list, front to back, to the given array list
+  ArrayLoFish appendTo(ArrayLoFish acc);
+
+  // check if the fish is eaten by the player
+  boolean isEatenBy(PlayerFish player);
+
+  // check if the fish can eat the given fish
+  boolean eats(IFish fish);
+
+  // eliminate the fish that are eaten by the player
+  ILoFish filterEaten(PlayerFish player);
+
+  // check if the player is the largest fish
+  boolean isPlayerLargest(PlayerFish player);
+
+  // eat, filter and move the fish in one pass, recording the outcome in result
+  ILoFish tick(PlayerFish player, TickResult result);
+}
+
+// Class representing an empty list of fish
+class MtLoFish implements ILoFish {
+  /* fields: none
+   * Methods:
+   * ... this.draw(WorldScene) ...           -- WorldScene
+   * ... this.drawInto(RetainedScene) ...    -- void
+   * ... this.move() ...                     -- ILoFish
+   * ... this.add(IFish) ...                 -- ILoFish
+   * ... this.appendTo(ArrayLoFish) ...      -- ArrayLoFish
+   * ... this.isEatenBy(PlayerFish) ...      -- boolean
+   * ... this.eats(PlayerFish) ...           -- boolean
+   * ... this.filterEaten(PlayerFish) ...    -- ILoFish
+   * ... this.isPlayerLargest(PlayerFish) ...-- boolean
+   * ... this.tick(PlayerFish, TickResult) ... -- ILoFish
+   */
+
+  // Draws nothing and returns the unchanged world scene.
+  public WorldScene draw(WorldScene acc) {
+    return acc;
+  }
+
+  // Places no nodes.
+  public void drawInto(RetainedScene view) {
+    // no fish to place
+  }
+
+  // Returns an empty list (no fish to move).
+  public ILoFish move() {
+    return this;
+  }
+
+  // Returns a one-element list holding the given fish.
+  public ILoFish add(IFish fish) {
+    return new ConsLoFish(fish, this);
+  }
+
+  // Returns the accumulator unchanged (no fish to append).
+  public ArrayLoFish appendTo(ArrayLoFish acc) {
+    return acc;
+  }
+
+  // Returns false (no fish to be eaten by the player).
+  public boolean isEatenBy(PlayerFish player) {
+    return false;
+  }
+
+  // Returns false (no fish to eat the player).
+  public boolean eats(IFish fish) {
+    return false;
+  }
+
+  // Returns an empty list (no fish to filter).
+  public ILoFish filterEaten(PlayerFish player) {
+    return this;
+  }
+
+  //Returns true as there are no fish larger than the player.
+  public boolean isPlayerLargest(PlayerFish player) {
+    return true;
+  }
+
+  // Returns an empty list (no fish to eat or move).
+  public ILoFish tick(PlayerFish player, TickResult result) {
+    return this;
+  }
+}
+
+// Class representing a non-empty list of fish
+class ConsLoFish implements ILoFish {
+  IFish first;
+  ILoFish rest;
+
+  ConsLoFish(IFish first, ILoFish rest) {
+    this.first = first;
+    this.rest = rest;
+  }
+  /* 
+   * Fields:
+   * ... this.first ... -- IFish
+   * ... this.rest ...  -- ILoFish
+   * Methods:
+   * ... this.draw(WorldScene) ...           -- WorldScene
+   * ... this.drawInto(RetainedScene) ...    -- void
+   * ... this.move() ...                     -- ILoFish
+   * ... this.add(IFish) ...                 -- ILoFish
+   * ... this.appendTo(ArrayLoFish) ...      -- ArrayLoFish
+   * ... this.isEatenBy(PlayerFish) ...      -- boolean
+   * ... this.eats(IFish) ...                -- boolean
+   * ... this.filterEaten(PlayerFish) ...    -- ILoFish
+   * ... isPlayerLargerst(PlayerFish) ...    -- boolean
+   * ... this.tick(PlayerFish, TickResult) ... -- ILoFish
+   * Methods for fields:
+   * ... this.first.draw() ... --WorldImage
+   * ... this.first.move() ... -- IFish
+   * ... this.first.getX() ... --int
+   * ... this.first.getY() ... -- int
+   * ... this.first.getSize() ... int
+   * ... this.first.canEat(IFish) ... -- boolean
+   * ... this.rest.draw(WorldScene) ... -- WorldScene
+   * ... this.rest.move() ...  -- ILoFish
+   * ... this.rest.isEatenBy(PlayerFish) ... -- boolean
+   * ... this.rest.eats(PlayerFish) ... -- boolean
+   * ... this.rest.filterEaten(PlayerFish) ... -- ILoFish
+   * ... this.rest.isPlayerLargest(PlayerFish) ...-- boolean
+   */
+
+  // Draw every fish in the list, the last fish first, so the current fish ends up on top.
+  // The walk is a loop so long lists do not grow the call stack.
+  public WorldScene draw(WorldScene acc) {
+    IFish[] fish = new IFish[16];
+    int n = 0;
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      if (n == fish.length) {
+        fish = Arrays.copyOf(fish, n * 2);
+      }
+      fish[n] = cons.first;
+      n += 1;
+      cur = cons.rest;
+    }
+    acc = cur.draw(acc);
+    for (int i = n - 1; i >= 0; i -= 1) {
+      acc = acc.placeImageXY(fish[i].draw(), fish[i].getX(), fish[i].getY());
+    }
+    return acc;
+  }
+
+  // Place a node for every fish in the list in view in the same order draw places
+  // them. Every fish is checked, as a list has no index to search by place.
+  public void drawInto(RetainedScene view) {
+    IFish[] fish = new IFish[16];
+    int n = 0;
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      if (n == fish.length) {
+        fish = Arrays.copyOf(fish, n * 2);
+      }
+      fish[n] = cons.first;
+      n += 1;
+      cur = cons.rest;
+    }
+    cur.drawInto(view);
+    for (int i = n - 1; i >= 0; i -= 1) {
+      if (!view.shows(fish[i].getX(), fish[i].getY(), fish[i].getSize())) {
+        continue;
+      }
+      if (fish[i] instanceof BgFish) {
+        BgFish bg = (BgFish) fish[i];
+        view.fishNode(view.screenX(bg.x), view.screenY(bg.y), bg.size, bg.color);
+      } 
+      else {
+        view.node(view.screenX(fish[i].getX()), view.screenY(fish[i].getY()), fish[i].draw());
+      }
+    }
+  }
+
+  // Move every fish in the list, front to back, into a new list in the same order.
+  public ILoFish move() {
+    ConsLoFish front = new ConsLoFish(this.first.move(), null);
+    ConsLoFish last = front;
+    ILoFish cur = this.rest;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      ConsLoFish cell = new ConsLoFish(cons.first.move(), null);
+      last.rest = cell;
+      last = cell;
+      cur = cons.rest;
+    }
+    last.rest = cur.move();
+    return front;
+  }
+
+  // Add the given fish to the front of this list.
+  public ILoFish add(IFish fish) {
+    return new ConsLoFish(fish, this);
+  }
+
+  // Append every fish in the list, front to back, to the accumulator.
+  public ArrayLoFish appendTo(ArrayLoFish acc) {
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      acc.add(cons.first);
+      cur = cons.rest;
+    }
+    return cur.appendTo(acc);
+  }
+
+  // Check if any fish in the list, front to back, is eaten by the player fish.
+  public boolean isEatenBy(PlayerFish player) {
+    /*
+     * methods for parameters:
+     * ... this.draw() ... --WorldImage
+     *  ... this.getX() ... --int
+     *  ... this.getY() ... -- int
+     *  ... this.getSize() ... int
+     *  ... this.canEat(IFish) ... -- boolean
+     *  ... this.move(String) ... --PlayerFish
+     *  ... this.move() ... --PlayerFish
+     *  ... this.PlayerIsEaten(ILoFish) ... --boolean
+     *  ... this.eatFish(ILoFish) ... -- PlayerFish
+     *  ... this.eatSnack(ISnack) ... -- PlayerFish
+     */
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      if (player.canEat(cons.first)) {
+        return true;
+      }
+      cur = cons.rest;
+    }
+    return cur.isEatenBy(player);
+  }
+
+  // Check if any fish in the list, front to back, eats the given fish.
+  public boolean eats(IFish fish) {
+    /*
+     * methods for parameters:
+     *  ... this.draw() ... --WorldImage
+     *  ... this.move() ... -- IFish
+     *  ... this.getX() ... --int
+     *  ... this.getY() ... -- int
+     *  ... this.getSize() ... int
+     *  ... this.canEat(IFish) ... -- boolean
+     */
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      if (cons.first.canEat(fish)) {
+        return true;
+      }
+      cur = cons.rest;
+    }
+    return cur.eats(fish);
+  }
+
+  // Filter out, front to back, the fish eaten by the player fish, growing the player
+  // as each one is eaten. The survivors keep their order.
+  public ILoFish filterEaten(PlayerFish player) {
+    ConsLoFish front = new ConsLoFish(null, null); // placeholder ahead of the result
+    ConsLoFish last = front;
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      if (player.canEat(cons.first)) {
+        player.grow(cons.first.getSize());
+      } 
+      else {
+        ConsLoFish cell = new ConsLoFish(cons.first, null);
+        last.rest = cell;
+        last = cell;
+      }
+      cur = cons.rest;
+    }
+    last.rest = cur.filterEaten(player);
+    return front.rest;
+  }
+
+  //Checks if the player fish is the largest fish in the list.
+  public boolean isPlayerLargest(PlayerFish player) {
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      if (player.size < cons.first.getSize()) {
+        return false;
+      }
+      cur = cons.rest;
+    }
+    return cur.isPlayerLargest(player);
+  }
+
+  // Let the player eat each fish, front to back, or move it and record it in the 
+  // result. The survivors keep their order.
+  public ILoFish tick(PlayerFish player, TickResult result) {
+    ConsLoFish front = new ConsLoFish(null, null); // placeholder ahead of the result
+    ConsLoFish last = front;
+    ILoFish cur = this;
+    while (cur instanceof ConsLoFish) {
+      ConsLoFish cons = (ConsLoFish) cur;
+      if (player.canEat(cons.first)) {
+        player.grow(cons.first.getSize());
+        result.eatenCount += 1;
+      } 
+      else {
+        IFish moved = cons.first.move();
+        result.observe(moved.getSize(), moved.getX(), moved.getY(), player);
+        ConsLoFish cell = new ConsLoFish(moved, null);
+        last.rest = cell;
+        last = cell;
+      }
+      cur = cons.rest;
+    }
+    last.rest = cur.tick(player, result);
+    return front.rest;
+  }
+}
+
+// Class representing a list of background fish stored as parallel primitive arrays.
+// Filtering updates the arrays in place (eaten fish are swap-removed), so a 
+// steady-state tick does not allocate. A fish swims in a straight line between 
+// direction changes, so rather than being moved on every tick it keeps where and
+// when its line began, and its position at the current tick is worked out when 
+// it is looked at. Two TimingWheels say when a fish next needs attention: the 
+// tick it changes direction, as BgFish does when its time left runs out, and the
+// tick it enters another grid cell, which keeps the grid exact. A tick only 
+// visits the fish those events fire for and the fish near the player. A sweep 
+// over enough fish, the batch of cell crossings or settling every fish, is split
+// into chunks on a fork/join pool.
+class ArrayLoFish implements ILoFish {
+  static final int CHUNK = 4096; // fish per chunk of a parallel sweep
+  static final String PARALLEL_PROPERTY = "feedingfrenzy.parallel"; // sets the threshold
+  static final int PARALLEL_THRESHOLD = 
+      Integer.getInteger(ArrayLoFish.PARALLEL_PROPERTY, 2 * ArrayLoFish.CHUNK);
+
+  int count;
+  int[] x;     // where each fish's line began, at tick since
+  int[] y;
+  int[] dx;
+  int[] dy;
+  int[] size;
+  int[] since; // the first tick each fish moves in its current direction
+  int[] color; // index into the palette
+  Color[] palette;
+  int paletteSize;
+  HashMap<Color, Integer> paletteIndex;
+  FishRandom rand;
+  PondBounds bounds;
+  FishGrid grid; // spatial index over the fish positions
+  SizeIndex sizes; // index over the fish sizes
+  TimingWheel turns; // the tick each fish next changes direction
+  TimingWheel crossings; // the tick each moving fish next enters another cell
+  int now;         // ticks this list has run
+  FishSweep sweep; // lets the fish eat each other when set, the ecosystem mode
+  int[] eaten;   // scratch buffer of indices eaten during filterEaten
+  int parallelThreshold; // fish a sweep covers from which it runs in parallel chunks
+  ForkJoinPool pool;
+  int[] crossX;  // where each fish of the last crossings advance is, in fired order
+  int[] crossY;
+  int[] crossAt; // the tick each of them next enters another cell, or -1
+
+  /*
+   * Fields:
+   * ... this.count ...        -- int
+   * ... this.x ...            -- int[]
+   * ... this.y ...            -- int[]
+   * ... this.dx ...           -- int[]
+   * ... this.dy ...           -- int[]
+   * ... this.size ...         -- int[]
+   * ... this.since ...        -- int[]
+   * ... this.color ...        -- int[]
+   * ... this.palette ...      -- Color[]
+   * ... this.paletteSize ...  -- int
+   * ... this.paletteIndex ... -- HashMap<Color, Integer>
+   * ... this.rand ...         -- FishRandom
+   * ... this.bounds ...       -- PondBounds
+   * ... this.grid ...         -- FishGrid
+   * ... this.sizes ...        -- SizeIndex
+   * ... this.turns ...        -- TimingWheel
+   * ... this.crossings ...    -- TimingWheel
+   * ... this.now ...          -- int
+   * ... this.sweep ...        -- FishSweep
+   * ... this.eaten ...        -- int[]
+   * ... this.parallelThreshold ... -- int
+   * ... this.pool ...         -- ForkJoinPool
+   * ... this.crossX ...       -- int[]
+   * ... this.crossY ...       -- int[]
+   * ... this.crossAt ...      -- int[]
+   * Methods:
+   * ... this.draw(WorldScene) ...           -- WorldScene
+   * ... this.drawInto(RetainedScene) ...    -- void
+   * ... this.placeNode(RetainedScene, int) ... -- void
+   * ... this.move() ...                     -- ILoFish
+   * ... this.add(IFish) ...                 -- ILoFish
+   * ... this.appendTo(ArrayLoFish) ...      -- ArrayLoFish
+   * ... this.isEatenBy(PlayerFish) ...      -- boolean
+   * ... this.eats(IFish) ...                -- boolean
+   * ... this.filterEaten(PlayerFish) ...    -- ILoFish
+   * ... this.isPlayerLargest(PlayerFish) ...-- boolean
+   * ... this.tick(PlayerFish, TickResult) ... -- ILoFish
+   * ... this.turn() ...                     -- void
+   * ... this.cross() ...                    -- void
+   * ... this.parallelCross(int) ...         -- void
+   * ... this.tickChunk(byte, int) ...       -- void
+   * ... this.scheduleCrossing(int) ...      -- void
+   * ... this.nextCrossing(int) ...          -- int
+   * ... ArrayLoFish.stepsToLeave(int, int, int, int) ... -- int
+   * ... this.currentX(int) ...              -- int
+   * ... this.currentY(int) ...              -- int
+   * ... this.settle() ...                   -- void
+   * ... this.settleRange(int, int) ...      -- void
+   * ... this.timeLeft(int) ...              -- int
+   * ... this.addFish(int, Color, int, int, int, int, int) ... -- ArrayLoFish
+   * ... this.remove(int) ...                -- void
+   * ... this.rebuildGrid(int) ...           -- void
+   * ... this.colorIndex(Color) ...          -- int
+   */
+
+  ArrayLoFish(int capacity, FishRandom rand, PondBounds bounds) {
+    this.count = 0;
+    this.x = new int[capacity];
+    this.y = new int[capacity];
+    this.dx = new int[capacity];
+    this.dy = new int[capacity];
+    this.size = new int[capacity];
+    this.since = new int[capacity];
+    this.color = new int[capacity];
+    this.palette = new Color[16];
+    this.paletteSize = 0;
+    this.paletteIndex = new HashMap<Color, Integer>();
+    this.rand = rand;
+    this.bounds = bounds;
+    // createRandomFish spawns sizes below 100
+    this.grid = new FishGrid(bounds.cellSize(100), capacity, bounds);
+    this.sizes = new SizeIndex();
+    this.turns = new TimingWheel(capacity);
+    this.crossings = new TimingWheel(capacity);
+    this.now = 0;
+    this.sweep = null;
+    this.eaten = new int[16];
+    this.parallelThreshold = ArrayLoFish.PARALLEL_THRESHOLD;
+    this.pool = ForkJoinPool.commonPool();
+    this.crossX = new int[16];
+    this.crossY = new int[16];
+    this.crossAt = new int[16];
+  }
+
+  ArrayLoFish(int capacity, FishRandom rand) {
+    this(capacity, rand, PondBounds.WINDOW);
+  }
+
+  ArrayLoFish(int capacity) {
+    this(capacity, FishRandom.SHARED);
+  }
+
+  ArrayLoFish() {
+    this(16);
+  }
+
+  // Build an array list holding the same fish, in the same order, as the given list
+  // in a pond of the given bounds
+  ArrayLoFish(ILoFish fish, PondBounds bounds) {
+    this(16, FishRandom.SHARED, bounds);
+    fish.appendTo(this);
+  }
+
+  ArrayLoFish(ILoFish fish) {
+    this(fish, PondBounds.WINDOW);
+  }
+
+  // Draws every fish; the fish at index 0 is placed last so it ends up on top,
+  // matching the scene a ConsLoFish with the same order would draw.
+  public WorldScene draw(WorldScene acc) {
+    for (int i = this.count - 1; i >= 0; i -= 1) {
+      acc = acc.placeImageXY(AFish.sprite(this.size[i], this.palette[this.color[i]]), 
+          this.currentX(i), this.currentY(i));
+    }
+    return acc;
+  }
+
+  // Places a node for every fish in view in the same order draw places them. When
+  // the pond is larger than the view, only the grid cells around the view are 
+  // searched, so the cost follows the fish in view rather than in the pond.
+  public void drawInto(RetainedScene view) {
+    if (view.showsAll()) {
+      for (int i = this.count - 1; i >= 0; i -= 1) {
+        this.placeNode(view, i);
+      }
+      return;
+    }
+    if (this.count == 0) {
+      return;
+    }
+    int margin = this.sizes.largest + 1; // a fish drawn ahead moves a step at most
+    int n = this.grid.gatherArea(view.left - margin, view.top - margin, 
+        view.width + 2 * margin, view.height + 2 * margin);
+    Arrays.sort(this.grid.found, 0, n);
+    for (int k = n - 1; k >= 0; k -= 1) {
+      this.placeNode(view, this.grid.found[k]);
+    }
+  }
+
+  // Places a node for fish i if it is in view, a moving fish drawn view.alpha of 
+  // the way to its next step
+  void placeNode(RetainedScene view, int i) {
+    int x = this.currentX(i);
+    int y = this.currentY(i);
+    if (view.alpha > 0 && this.timeLeft(i) > 0) {
+      x = SimClock.ahead(x, this.dx[i], view.alpha, this.bounds.width);
+      y = SimClock.ahead(y, this.dy[i], view.alpha, this.bounds.height);
+    }
+    if (view.shows(x, y, this.size[i])) {
+      view.fishNode(view.screenX(x), view.screenY(y), this.size[i], 
+          this.palette[this.color[i]]);
+    }
+  }
+
+  // Moves every fish on a tick, which only takes the turns and cell crossings 
+  // that fall due
+  public ILoFish move() {
+    this.turn();
+    this.now += 1;
+    this.cross();
+    return this;
+  }
+
+  // Adds the given fish at the end of the arrays
+  public ILoFish add(IFish fish) {
+    if (fish instanceof BgFish) {
+      BgFish bg = (BgFish) fish;
+      return this.addFish(bg.size, bg.color, bg.x, bg.y, bg.dx, bg.dy, bg.timeLeft);
+    }
+    return this.addFish(fish.getSize(), Color.GRAY, fish.getX(), fish.getY(), 0, 0, 0);
+  }
+
+  // Appends every fish in this list to the given array list
+  public ArrayLoFish appendTo(ArrayLoFish acc) {
+    for (int i = 0; i < this.count; i += 1) {
+      acc.addFish(this.size[i], this.palette[this.color[i]], this.currentX(i), 
+          this.currentY(i), this.dx[i], this.dy[i], this.timeLeft(i));
+    }
+    return acc;
+  }
+
+  // Check if any fish near the player fish is eaten by it; only fish smaller than 
+  // the player can be
+  public boolean isEatenBy(PlayerFish player) {
+    if (this.sizes.countBelow(player.size) == 0) {
+      return false;
+    }
+    int n = this.grid.gather(player.x, player.y, player.size);
+    for (int k = 0; k < n; k += 1) {
+      int i = this.grid.found[k];
+      if (AFish.reaches(player.size, player.x, player.y, this.size[i], this.currentX(i), 
+          this.currentY(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Check if any fish near the given fish eats it; only fish larger than it can, 
+  // and none is larger than a cell, so only the neighbouring cells can hold one
+  public boolean eats(IFish fish) {
+    if (this.sizes.countAbove(fish.getSize()) == 0) {
+      return false;
+    }
+    int n = this.grid.gather(fish.getX(), fish.getY(), this.sizes.largest);
+    for (int k = 0; k < n; k += 1) {
+      int i = this.grid.found[k];
+      if (AFish.reaches(this.size[i], this.currentX(i), this.currentY(i), 
+          fish.getSize(), fish.getX(), fish.getY())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Removes the fish eaten by the player fish in place, growing the player 
+  // the same way ConsLoFish.filterEaten does. Only the cells near the player are
+  // checked, in index order; if the player grows past the searched radius the 
+  // search is repeated.
+  public ILoFish filterEaten(PlayerFish player) {
+    int radius;
+    do {
+      if (this.sizes.countBelow(player.size) == 0) {
+        return this; // nothing left the player can eat
+      }
+      radius = player.size;
+      int n = this.grid.gather(player.x, player.y, radius);
+      Arrays.sort(this.grid.found, 0, n); // the same order however the cells were filled
+      int eatenCount = 0;
+      for (int k = 0; k < n; k += 1) {
+        int i = this.grid.found[k];
+        if (AFish.reaches(player.size, player.x, player.y, this.size[i], this.currentX(i), 
+            this.currentY(i))) {
+          player.grow(this.size[i]);
+          if (eatenCount == this.eaten.length) {
+            this.eaten = Arrays.copyOf(this.eaten, eatenCount * 2);
+          }
+          this.eaten[eatenCount] = i;
+          eatenCount += 1;
+        }
+      }
+      // remove from the highest index down so no pending index is swapped away
+      Arrays.sort(this.eaten, 0, eatenCount);
+      for (int k = eatenCount - 1; k >= 0; k -= 1) {
+        this.remove(this.eaten[k]);
+      }
+    } while (this.grid.span(player.size) != this.grid.span(radius));
+    return this;
+  }
+
+  // Checks if the player fish is at least as large as every fish in the arrays
+  public boolean isPlayerLargest(PlayerFish player) {
+    return this.sizes.largest <= player.size;
+  }
+
+  // Lets the player eat the fish it reaches and runs the pond for a tick, 
+  // recording the outcome in result. In the ecosystem mode the fish first eat 
+  // each other. The fish due to change direction turn before the player eats, 
+  // and the fish entering another cell move to it after the tick, so the result
+  // only needs the fish near the player to find the ones that may reach it.
+  public ILoFish tick(PlayerFish player, TickResult result) {
+    if (this.sweep != null) {
+      this.sweep.resolve(this);
+    }
+    this.turn();
+    int before = this.count;
+    this.filterEaten(player);
+    result.eatenCount += before - this.count;
+    this.now += 1;
+    this.cross();
+    result.fishCount += this.count;
+    if (this.count > 0) {
+      result.largestFish = Math.max(result.largestFish, this.sizes.largest);
+    }
+    if (this.sizes.countAbove(player.size) > 0) {
+      int n = this.grid.gather(result.playerX, result.playerY, 
+          this.sizes.largest + Math.max(result.reachX, result.reachY));
+      for (int k = 0; k < n; k += 1) {
+        int i = this.grid.found[k];
+        result.watch(this.size[i], this.currentX(i), this.currentY(i), player);
+      }
+    }
+    return this;
+  }
+
+  // Gives each fish whose direction change falls due this tick a new direction,
+  // and schedules its next change, following the same rules as BgFish.move: the 
+  // fish stays put this tick and then keeps its direction for up to 99 ticks
+  void turn() {
+    int n = this.turns.advance(this.now);
+    for (int k = 0; k < n; k += 1) {
+      int i = this.turns.fired[k];
+      this.x[i] = this.currentX(i);
+      this.y[i] = this.currentY(i);
+      this.dx[i] = (this.rand.nextInt(2) == 0 ? -1 : 1); // -1 or 1
+      this.dy[i] = (this.rand.nextInt(2) == 0 ? -1 : 1); // -1 or 1
+      this.since[i] = this.now + 1;
+      this.turns.schedule(i, this.now + 1 + this.rand.nextInt(100));
+      this.scheduleCrossing(i);
+    }
+  }
+
+  // Moves each fish that has just entered another grid cell into it. Large 
+  // batches of crossings work out the fish's cells and next crossings in parallel.
+  void cross() {
+    int n = this.crossings.advance(this.now);
+    if (n >= this.parallelThreshold) {
+      this.parallelCross(n);
+      return;
+    }
+    for (int k = 0; k < n; k += 1) {
+      int i = this.crossings.fired[k];
+      this.grid.update(i, this.currentX(i), this.currentY(i));
+      this.scheduleCrossing(i);
+    }
+  }
+
+  // Runs cross over fixed-size chunks of the n fish fired on the fork/join pool. 
+  // Each chunk works out where its fish are and when they next cross, which only
+  // reads the fish; the grid and the wheel are then updated in fired order, so a
+  // run is the same however many threads the pool has.
+  void parallelCross(int n) {
+    if (this.crossAt.length < n) {
+      int capacity = Math.max(n, this.crossAt.length * 2);
+      this.crossX = new int[capacity];
+      this.crossY = new int[capacity];
+      this.crossAt = new int[capacity];
+    }
+    this.pool.invoke(new ParallelTickTask(this, ParallelTickTask.CROSS, 0, 
+        (n + ArrayLoFish.CHUNK - 1) / ArrayLoFish.CHUNK));
+    for (int k = 0; k < n; k += 1) {
+      int i = this.crossings.fired[k];
+      this.grid.update(i, this.crossX[k], this.crossY[k]);
+      if (this.crossAt[k] >= 0) {
+        this.crossings.schedule(i, this.crossAt[k]);
+      }
+    }
+  }
+
+  // The work of chunk c of a parallel cross or settle. It only writes the fish,
+  // or the crossing scratch entries, of its own chunk.
+  void tickChunk(byte phase, int c) {
+    int lo = c * ArrayLoFish.CHUNK;
+    if (phase == ParallelTickTask.SETTLE) {
+      this.settleRange(lo, Math.min(this.count, lo + ArrayLoFish.CHUNK));
+      return;
+    }
+    int hi = Math.min(this.crossings.firedCount, lo + ArrayLoFish.CHUNK);
+    for (int k = lo; k < hi; k += 1) {
+      int i = this.crossings.fired[k];
+      this.crossX[k] = this.currentX(i);
+      this.crossY[k] = this.currentY(i);
+      this.crossAt[k] = this.nextCrossing(i);
+    }
+  }
+
+  // Schedules the first tick at which fish i is in another grid cell than it is
+  // now, unless it changes direction first
+  void scheduleCrossing(int i) {
+    int tick = this.nextCrossing(i);
+    if (tick >= 0) {
+      this.crossings.schedule(i, tick);
+    } 
+    else {
+      this.crossings.cancel(i);
+    }
+  }
+
+  // The first tick at which fish i is in another grid cell than it is now, or -1
+  // if it changes direction first
+  int nextCrossing(int i) {
+    int steps = Math.min(
+        ArrayLoFish.stepsToLeave(this.currentX(i), this.dx[i], this.grid.cellSize, 
+            this.bounds.width),
+        ArrayLoFish.stepsToLeave(this.currentY(i), this.dy[i], this.grid.cellSize, 
+            this.bounds.height));
+    int start = Math.max(this.now, this.since[i]);
+    return steps <= this.turns.deadline[i] - start ? start + steps : -1;
+  }
+
+  // The steps of velocity v it takes from position p to leave its cell, on an axis
+  // of the given length that wraps around, or Integer.MAX_VALUE if v is 0
+  static int stepsToLeave(int p, int v, int cellSize, int length) {
+    int cellStart = p / cellSize * cellSize;
+    if (v > 0) {
+      return (Math.min(cellStart + cellSize, length) - p + v - 1) / v;
+    }
+    if (v < 0) {
+      return (p - cellStart + 1 - v - 1) / -v;
+    }
+    return Integer.MAX_VALUE;
+  }
+
+  // The x of fish i at the current tick
+  int currentX(int i) {
+    return this.bounds.wrapX(this.x[i] + this.dx[i] * Math.max(0, this.now - this.since[i]));
+  }
+
+  // The y of fish i at the current tick
+  int currentY(int i) {
+    return this.bounds.wrapY(this.y[i] + this.dy[i] * Math.max(0, this.now - this.since[i]));
+  }
+
+  // Starts the line of every fish at the current tick, so x and y hold where the 
+  // fish are now. Large ponds are settled in parallel chunks.
+  void settle() {
+    if (this.count >= this.parallelThreshold) {
+      this.pool.invoke(new ParallelTickTask(this, ParallelTickTask.SETTLE, 0, 
+          (this.count + ArrayLoFish.CHUNK - 1) / ArrayLoFish.CHUNK));
+    } 
+    else {
+      this.settleRange(0, this.count);
+    }
+  }
+
+  // Starts the line of the fish at indices [lo, hi) at the current tick
+  void settleRange(int lo, int hi) {
+    for (int i = lo; i < hi; i += 1) {
+      if (this.since[i] < this.now) {
+        this.x[i] = this.currentX(i);
+        this.y[i] = this.currentY(i);
+        this.since[i] = this.now;
+      }
+    }
+  }
+
+  // The ticks fish i keeps moving before it next changes direction, as 
+  // BgFish.timeLeft counts them
+  int timeLeft(int i) {
+    return this.turns.deadline[i] - this.now;
+  }
+
+  // Adds a fish with the given properties at the end of the arrays
+  ArrayLoFish addFish(int size, Color color, int x, int y, int dx, int dy, int timeLeft) {
+    if (this.count == this.x.length) {
+      int capacity = Math.max(16, this.count * 2);
+      this.x = Arrays.copyOf(this.x, capacity);
+      this.y = Arrays.copyOf(this.y, capacity);
+      this.dx = Arrays.copyOf(this.dx, capacity);
+      this.dy = Arrays.copyOf(this.dy, capacity);
+      this.size = Arrays.copyOf(this.size, capacity);
+      this.since = Arrays.copyOf(this.since, capacity);
+      this.color = Arrays.copyOf(this.color, capacity);
+      this.grid.ensureCapacity(capacity);
+      this.turns.ensureCapacity(capacity);
+      this.crossings.ensureCapacity(capacity);
+    }
+    int i = this.count;
+    this.x[i] = x;
+    this.y[i] = y;
+    this.dx[i] = dx;
+    this.dy[i] = dy;
+    this.size[i] = size;
+    this.since[i] = this.now;
+    this.turns.schedule(i, this.now + Math.max(0, timeLeft));
+    this.color[i] = this.colorIndex(color);
+    this.sizes.add(size);
+    this.count += 1;
+    if (size > this.grid.cellSize) {
+      this.rebuildGrid(size);
+    } 
+    else {
+      this.grid.insert(i, x, y);
+      this.scheduleCrossing(i);
+    }
+    return this;
+  }
+
+  // Removes the fish at index i by moving the last fish into its slot
+  void remove(int i) {
+    int last = this.count - 1;
+    this.grid.remove(i);
+    this.sizes.remove(this.size[i]);
+    this.turns.cancel(i);
+    this.crossings.cancel(i);
+    if (i != last) {
+      this.grid.relabel(last, i);
+      this.turns.relabel(last, i);
+      this.crossings.relabel(last, i);
+    }
+    this.x[i] = this.x[last];
+    this.y[i] = this.y[last];
+    this.dx[i] = this.dx[last];
+    this.dy[i] = this.dy[last];
+    this.size[i] = this.size[last];
+    this.since[i] = this.since[last];
+    this.color[i] = this.color[last];
+    this.count = last;
+  }
+
+  // Replaces the grid with one whose cells are as large as the given fish size,
+  // and schedules the cell crossings anew
+  void rebuildGrid(int cellSize) {
+    this.grid = new FishGrid(this.bounds.cellSize(cellSize), this.x.length, this.bounds);
+    for (int i = 0; i < this.count; i += 1) {
+      this.grid.insert(i, this.currentX(i), this.currentY(i));
+      this.scheduleCrossing(i);
+    }
+  }
+
+  // Returns the palette index of the given color, adding it to the palette if needed
+  int colorIndex(Color c) {
+    Integer index = this.paletteIndex.get(c);
+    if (index != null) {
+      return index;
+    }
+    if (this.paletteSize == this.palette.length) {
+      this.palette = Arrays.copyOf(this.palette, this.paletteSize * 2);
+    }
+    this.palette[this.paletteSize] = c;
+    this.paletteIndex.put(c, this.paletteSize);
+    this.paletteSize += 1;
+    return this.paletteSize - 1;
+  }
+}
+
+// Class representing a list of background fish whose state lives outside the Java 
+// heap, for ponds of millions of fish. Each fish is a fixed 16-byte record in one
+// direct buffer, its color an index into a palette the fish share, so the garbage 
+// collector sees a handful of objects however many fish there are, and its pauses
+// do not grow with the pond. A tick walks the records in order the way 
+// ConsLoFish.tick walks its cells, moving each fish as BgFish.move does, and 
+// compacts the survivors in place, so the fish keep their order and a steady-state
+// tick does not allocate.
+class OffHeapLoFish implements ILoFish {
+  static final int RECORD = 16;    // bytes per fish
+  static final int X = 0;          // int, the offsets of the fields in a record
+  static final int Y = 4;          // int
+  static final int SIZE = 8;       // short
+  static final int COLOR = 10;     // char, index into the palette
+  static final int DX = 12;        // byte
+  static final int DY = 13;        // byte
+  static final int TIME_LEFT = 14; // short, as BgFish.timeLeft counts it
+  static final int MAX_COLORS = 1 << 16;
+
+  int count;
+  ByteBuffer records; // direct, in the native byte order
+  Color[] palette;
+  int paletteSize;
+  HashMap<Color, Integer> paletteIndex;
+  FishRandom rand;
+  PondBounds bounds;
+
+  /*
+   * Fields:
+   * ... this.count ...        -- int
+   * ... this.records ...      -- ByteBuffer
+   * ... this.palette ...      -- Color[]
+   * ... this.paletteSize ...  -- int
+   * ... this.paletteIndex ... -- HashMap<Color, Integer>
+   * ... this.rand ...         -- FishRandom
+   * ... this.bounds ...       -- PondBounds
+   * Methods:
+   * ... this.draw(WorldScene) ...           -- WorldScene
+   * ... this.drawInto(RetainedScene) ...    -- void
+   * ... this.move() ...                     -- ILoFish
+   * ... this.add(IFish) ...                 -- ILoFish
+   * ... this.appendTo(ArrayLoFish) ...      -- ArrayLoFish
+   * ... this.isEatenBy(PlayerFish) ...      -- boolean
+   * ... this.eats(IFish) ...                -- boolean
+   * ... this.filterEaten(PlayerFish) ...    -- ILoFish
+   * ... this.isPlayerLargest(PlayerFish) ...-- boolean
+   * ... this.tick(PlayerFish, TickResult) ... -- ILoFish
+   * ... this.moveFish(int) ...              -- void
+   * ... this.copy(int, int) ...             -- void
+   * ... this.x(int) ...                     -- int
+   * ... this.y(int) ...                     -- int
+   * ... this.size(int) ...                  -- int
+   * ... this.color(int) ...                 -- Color
+   * ... this.dx(int) ...                    -- int
+   * ... this.dy(int) ...                    -- int
+   * ... this.timeLeft(int) ...              -- int
+   * ... this.addFish(int, Color, int, int, int, int, int) ... -- OffHeapLoFish
+   * ... this.colorIndex(Color) ...          -- int
+   */
+
+  OffHeapLoFish(int capacity, FishRandom rand, PondBounds bounds) {
+    this.count = 0;
+    this.records = ByteBuffer.allocateDirect(Math.max(1, capacity) * OffHeapLoFish.RECORD)
+        .order(ByteOrder.nativeOrder());
+    this.palette = new Color[16];
+    this.paletteSize = 0;
+    this.paletteIndex = new HashMap<Color, Integer>();
+    this.rand = rand;
+    this.bounds = bounds;
+  }
+
+  // Build an off-heap list holding the same fish, in the same order, as the given 
+  // array list, drawing from its random numbers
+  OffHeapLoFish(ArrayLoFish fish) {
+    this(fish.count, fish.rand, fish.bounds);
+    for (int i = 0; i < fish.count; i += 1) {
+      this.addFish(fish.size[i], fish.palette[fish.color[i]], fish.currentX(i), 
+          fish.currentY(i), fish.dx[i], fish.dy[i], fish.timeLeft(i));
+    }
+  }
+
+  // Draws every fish; the fish at index 0 is placed last so it ends up on top,
+  // matching the scene a ConsLoFish with the same order would draw.
+  public WorldScene draw(WorldScene acc) {
+    for (int i = this.count - 1; i >= 0; i -= 1) {
+      acc = acc.placeImageXY(AFish.sprite(this.size(i), this.color(i)), this.x(i), this.y(i));
+    }
+    return acc;
+  }
+
+  // Places a node for every fish in view in the same order draw places them, a 
+  // moving fish drawn view.alpha of the way to its next step. Every record is 
+  // checked, as the records have no index to search by place.
+  public void drawInto(RetainedScene view) {
+    for (int i = this.count - 1; i >= 0; i -= 1) {
+      int x = this.x(i);
+      int y = this.y(i);
+      if (view.alpha > 0 && this.timeLeft(i) > 0) {
+        x = SimClock.ahead(x, this.dx(i), view.alpha, this.bounds.width);
+        y = SimClock.ahead(y, this.dy(i), view.alpha, this.bounds.height);
+      }
+      if (view.shows(x, y, this.size(i))) {
+        view.fishNode(view.screenX(x), view.screenY(y), this.size(i), this.color(i));
+      }
+    }
+  }
+
+  // Moves every fish in place
+  public ILoFish move() {
+    for (int i = 0; i < this.count; i += 1) {
+      this.moveFish(i);
+    }
+    return this;
+  }
+
+  // Adds the given fish at the end of the records
+  public ILoFish add(IFish fish) {
+    if (fish instanceof BgFish) {
+      BgFish bg = (BgFish) fish;
+      return this.addFish(bg.size, bg.color, bg.x, bg.y, bg.dx, bg.dy, bg.timeLeft);
+    }
+    return this.addFish(fish.getSize(), Color.GRAY, fish.getX(), fish.getY(), 0, 0, 0);
+  }
+
+  // Appends every fish in this list to the given array list
+  public ArrayLoFish appendTo(ArrayLoFish acc) {
+    for (int i = 0; i < this.count; i += 1) {
+      acc.addFish(this.size(i), this.color(i), this.x(i), this.y(i), this.dx(i), this.dy(i),
+          this.timeLeft(i));
+    }
+    return acc;
+  }
+
+  // Check if any fish, in order, is eaten by the player fish
+  public boolean isEatenBy(PlayerFish player) {
+    for (int i = 0; i < this.count; i += 1) {
+      if (AFish.reaches(player.size, player.x, player.y, this.size(i), this.x(i), this.y(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Check if any fish, in order, eats the given fish
+  public boolean eats(IFish fish) {
+    for (int i = 0; i < this.count; i += 1) {
+      if (AFish.reaches(this.size(i), this.x(i), this.y(i), fish.getSize(), fish.getX(), 
+          fish.getY())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Removes, in order, the fish eaten by the player fish, growing the player as 
+  // each one is eaten. The survivors are moved down over the eaten records and 
+  // keep their order.
+  public ILoFish filterEaten(PlayerFish player) {
+    int kept = 0;
+    for (int i = 0; i < this.count; i += 1) {
+      if (AFish.reaches(player.size, player.x, player.y, this.size(i), this.x(i), this.y(i))) {
+        player.grow(this.size(i));
+      } 
+      else {
+        this.copy(i, kept);
+        kept += 1;
+      }
+    }
+    this.count = kept;
+    return this;
+  }
+
+  // Checks if the player fish is at least as large as every fish in the records
+  public boolean isPlayerLargest(PlayerFish player) {
+    for (int i = 0; i < this.count; i += 1) {
+      if (player.size < this.size(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Lets the player eat each fish, in order, or moves it and records it in the 
+  // result, the same way ConsLoFish.tick does. The survivors keep their order.
+  public ILoFish tick(PlayerFish player, TickResult result) {
+    int kept = 0;
+    for (int i = 0; i < this.count; i += 1) {
+      int size = this.size(i);
+      if (AFish.reaches(player.size, player.x, player.y, size, this.x(i), this.y(i))) {
+        player.grow(size);
+        result.eatenCount += 1;
+      } 
+      else {
+        this.moveFish(i);
+        result.observe(size, this.x(i), this.y(i), player);
+        this.copy(i, kept);
+        kept += 1;
+      }
+    }
+    this.count = kept;
+    return this;
+  }
+
+  // Moves fish i a step, or gives it a new direction when its time left has run 
+  // out, following the same rules as BgFish.move
+  void moveFish(int i) {
+    int at = i * OffHeapLoFish.RECORD;
+    int timeLeft = this.records.getShort(at + OffHeapLoFish.TIME_LEFT);
+    if (timeLeft <= 0) {
+      this.records.put(at + OffHeapLoFish.DX, (byte) (this.rand.nextInt(2) == 0 ? -1 : 1));
+      this.records.put(at + OffHeapLoFish.DY, (byte) (this.rand.nextInt(2) == 0 ? -1 : 1));
+      this.records.putShort(at + OffHeapLoFish.TIME_LEFT, (short) this.rand.nextInt(100));
+    } 
+    else {
+      this.records.putInt(at + OffHeapLoFish.X, 
+          this.bounds.wrapX(this.x(i) + this.records.get(at + OffHeapLoFish.DX)));
+      this.records.putInt(at + OffHeapLoFish.Y, 
+          this.bounds.wrapY(this.y(i) + this.records.get(at + OffHeapLoFish.DY)));
+      this.records.putShort(at + OffHeapLoFish.TIME_LEFT, (short) (timeLeft - 1));
+    }
+  }
+
+  // Copies the record of fish from over the record of fish to
+  void copy(int from, int to) {
+    if (from != to) {
+      int src = from * OffHeapLoFish.RECORD;
+      int dst = to * OffHeapLoFish.RECORD;
+      this.records.putLong(dst, this.records.getLong(src));
+      this.records.putLong(dst + 8, this.records.getLong(src + 8));
+    }
+  }
+
+  // The x of fish i
+  int x(int i) {
+    return this.records.getInt(i * OffHeapLoFish.RECORD + OffHeapLoFish.X);
+  }
+
+  // The y of fish i
+  int y(int i) {
+    return this.records.getInt(i * OffHeapLoFish.RECORD + OffHeapLoFish.Y);
+  }
+
+  // The size of fish i
+  int size(int i) {
+    return this.records.getShort(i * OffHeapLoFish.RECORD + OffHeapLoFish.SIZE);
+  }
+
+  // The color of fish i
+  Color color(int i) {
+    return this.palette[this.records.getChar(i * OffHeapLoFish.RECORD + OffHeapLoFish.COLOR)];
+  }
+
+  // The x velocity of fish i
+  int dx(int i) {
+    return this.records.get(i * OffHeapLoFish.RECORD + OffHeapLoFish.DX);
+  }
+
+  // The y velocity of fish i
+  int dy(int i) {
+    return this.records.get(i * OffHeapLoFish.RECORD + OffHeapLoFish.DY);
+  }
+
+  // The ticks fish i keeps moving before it next changes direction
+  int timeLeft(int i) {
+    return this.records.getShort(i * OffHeapLoFish.RECORD + OffHeapLoFish.TIME_LEFT);
+  }
+
+  // Adds a fish with the given properties at the end of the records, doubling the
+  // buffer when it is full
+  OffHeapLoFish addFish(int size, Color color, int x, int y, int dx, int dy, int timeLeft) {
+    if (size != (short) size || dx != (byte) dx || dy != (byte) dy 
+        || timeLeft != (short) timeLeft) {
+      throw new IllegalArgumentException("Fish does not fit an off-heap record: size " + size 
+          + ", velocity " + dx + "," + dy + ", time left " + timeLeft);
+    }
+    int at = this.count * OffHeapLoFish.RECORD;
+    if (at == this.records.capacity()) {
+      ByteBuffer grown = ByteBuffer.allocateDirect(at * 2).order(ByteOrder.nativeOrder());
+      grown.put(0, this.records, 0, at);
+      this.records = grown;
+    }
+    this.records.putInt(at + OffHeapLoFish.X, x);
+    this.records.putInt(at + OffHeapLoFish.Y, y);
+    this.records.putShort(at + OffHeapLoFish.SIZE, (short) size);
+    this.records.putChar(at + OffHeapLoFish.COLOR, (char) this.colorIndex(color));
+    this.records.put(at + OffHeapLoFish.DX, (byte) dx);
+    this.records.put(at + OffHeapLoFish.DY, (byte) dy);
+    this.records.putShort(at + OffHeapLoFish.TIME_LEFT, (short) timeLeft);
+    this.count += 1;
+    return this;
+  }
+
+  // Returns the palette index of the given color, adding it to the palette if needed.
+  // Spawned fish take their colors from PondWorld.SPAWN_COLORS, so only fish added
+  // with many colors of their own can fill the palette.
+  int colorIndex(Color c) {
+    Integer index = this.paletteIndex.get(c);
+    if (index != null) {
+      return index;
+    }
+    if (this.paletteSize == OffHeapLoFish.MAX_COLORS) {
+      throw new IllegalStateException("Off-heap palette is full: " + this.paletteSize 
+          + " colors");
+    }
+    if (this.paletteSize == this.palette.length) {
+      this.palette = Arrays.copyOf(this.palette, this.paletteSize * 2);
+    }
+    this.palette[this.paletteSize] = c;
+    this.paletteIndex.put(c, this.paletteSize);
+    this.paletteSize += 1;
+    return this.paletteSize - 1;
+  }
+}
+
+// Class representing the ecosystem pass of an ArrayLoFish, in which larger fish
+// eat the smaller fish they reach, across the wrap-around edges too. The broad 
+// phase sorts the fish into horizontal bands at least as tall as the largest fish
+// and by x within each band, so the candidates of a fish are the ones in its own
+// and the two neighbouring bands within its reach along x, found by binary search
+// and swept in x order. The fish are sorted with a counting sort over the band and
+// x, or, in a pond so wide that its buckets would far outnumber the fish, with a
+// counting sort over the bands alone and a sort of each band by x. Eaters are 
+// taken largest first, ties by index, and a fish
+// eaten in a tick does not eat in it, so chains resolve the same way every time 
+// and fish eaten early are never swept at all.
+class FishSweep {
+  static final int MIN_BAND = 16; // keeps the band and bucket counts small
+  static final int MAX_BUCKETS = 1 << 22; // the counting sort over x takes at most
+
+  int[] order;     // fish indices sorted by band, then x, then index
+  int[] bucket;    // counting sort buckets over band * width + x, or band
+  int[] bandStart; // first position in order of each band, plus one past the end
+  int bands;
+  int height;      // of every band but the last, which takes the rest
+  int[] found;     // candidates of the last call to near
+  int foundCount;
+  long[] keys;     // eaters by size, largest first
+  int[] eaten;     // the tick stamp at which each index was eaten
+  int[] eatenList;
+  int stamp;
+  long eatenTotal;
+  long checks;     // candidates checked in total
+
+  /*
+   * Fields:
+   * ... this.order ...      -- int[]
+   * ... this.bucket ...     -- int[]
+   * ... this.bandStart ...  -- int[]
+   * ... this.bands ...      -- int
+   * ... this.height ...     -- int
+   * ... this.found ...      -- int[]
+   * ... this.foundCount ... -- int
+   * ... this.keys ...       -- long[]
+   * ... this.eaten ...      -- int[]
+   * ... this.eatenList ...  -- int[]
+   * ... this.stamp ...      -- int
+   * ... this.eatenTotal ... -- long
+   * ... this.checks ...     -- long
+   * Methods:
+   * ... this.resolve(ArrayLoFish) ...      -- int
+   * ... this.sort(ArrayLoFish) ...         -- void
+   * ... this.sortBands(ArrayLoFish) ...    -- void
+   * ... this.near(ArrayLoFish, int) ...    -- int
+   * ... this.scan(ArrayLoFish, int, int, int, int) ... -- void
+   * ... this.lowerBound(ArrayLoFish, int, int, int) ... -- int
+   */
+
+  FishSweep() {
+    this.order = new int[16];
+    this.bucket = new int[0];
+    this.bandStart = new int[0];
+    this.bands = 0;
+    this.height = 0;
+    this.found = new int[16];
+    this.foundCount = 0;
+    this.keys = new long[16];
+    this.eaten = new int[16];
+    this.eatenList = new int[16];
+    this.stamp = 0;
+    this.eatenTotal = 0;
+    this.checks = 0;
+  }
+
+  // Lets every fish eat the smaller fish it reaches and removes them, returning 
+  // how many were eaten. Each eater grows by a fifth of each fish it eats, as the
+  // player does, but reaches only as far as its size at the start of the tick.
+  int resolve(ArrayLoFish fish) {
+    int n = fish.count;
+    if (n < 2 || fish.sizes.largest <= 0) {
+      return 0;
+    }
+    fish.settle();
+    this.sort(fish);
+    this.stamp += 1;
+    if (this.eaten.length < n) {
+      this.eaten = new int[fish.x.length];
+      this.eatenList = new int[fish.x.length];
+      this.stamp = 1;
+    }
+    if (this.keys.length < n) {
+      this.keys = new long[fish.x.length];
+    }
+    for (int i = 0; i < n; i += 1) {
+      this.keys[i] = ((long) (Integer.MAX_VALUE - fish.size[i]) << 32) | i;
+    }
+    Arrays.sort(this.keys, 0, n);
+    int eatenCount = 0;
+    int grown = fish.grid.cellSize;
+    for (int k = 0; k < n; k += 1) {
+      int e = (int) this.keys[k];
+      int reach = fish.size[e];
+      if (fish.sizes.countBelow(reach) == 0) {
+        break; // no fish is smaller than this or any later eater
+      }
+      if (this.eaten[e] == this.stamp) {
+        continue;
+      }
+      int m = this.near(fish, e);
+      for (int c = 0; c < m; c += 1) {
+        int p = this.found[c];
+        if (this.eaten[p] != this.stamp) {
+          this.eaten[p] = this.stamp;
+          this.eatenList[eatenCount] = p;
+          eatenCount += 1;
+          fish.sizes.remove(fish.size[e]);
+          fish.size[e] += fish.size[p] / 5;
+          fish.sizes.add(fish.size[e]);
+          grown = Math.max(grown, fish.size[e]);
+        }
+      }
+    }
+    Arrays.sort(this.eatenList, 0, eatenCount);
+    for (int k = eatenCount - 1; k >= 0; k -= 1) {
+      fish.remove(this.eatenList[k]);
+    }
+    if (grown > fish.grid.cellSize) {
+      fish.rebuildGrid(grown);
+    }
+    this.eatenTotal += eatenCount;
+    return eatenCount;
+  }
+
+  // Sorts the fish into order by band, then x, with a counting sort
+  void sort(ArrayLoFish fish) {
+    int width = fish.bounds.width;
+    this.height = Math.max(Math.min(fish.sizes.largest, fish.bounds.height), FishSweep.MIN_BAND);
+    this.bands = Math.max(1, fish.bounds.height / this.height);
+    if (this.order.length < fish.count) {
+      this.order = new int[fish.x.length];
+    }
+    if ((long) this.bands * width > FishSweep.MAX_BUCKETS) {
+      this.sortBands(fish);
+      return;
+    }
+    int buckets = this.bands * width;
+    if (this.bucket.length < buckets + 1) {
+      this.bucket = new int[buckets + 1];
+    }
+    Arrays.fill(this.bucket, 0, buckets + 1, 0);
+    for (int i = 0; i < fish.count; i += 1) {
+      int band = Math.min(fish.y[i] / this.height, this.bands - 1);
+      this.bucket[band * width + fish.x[i] + 1] += 1;
+    }
+    for (int k = 1; k <= buckets; k += 1) {
+      this.bucket[k] += this.bucket[k - 1];
+    }
+    if (this.bandStart.length < this.bands + 1) {
+      this.bandStart = new int[this.bands + 1];
+    }
+    for (int b = 0; b <= this.bands; b += 1) {
+      this.bandStart[b] = this.bucket[b * width];
+    }
+    for (int i = 0; i < fish.count; i += 1) {
+      int band = Math.min(fish.y[i] / this.height, this.bands - 1);
+      int key = band * width + fish.x[i];
+      this.order[this.bucket[key]] = i;
+      this.bucket[key] += 1;
+    }
+  }
+
+  // Sorts the fish into order by band with a counting sort, then each band by x 
+  // and index through keys
+  void sortBands(ArrayLoFish fish) {
+    if (this.bucket.length < this.bands + 1) {
+      this.bucket = new int[this.bands + 1];
+    }
+    Arrays.fill(this.bucket, 0, this.bands + 1, 0);
+    for (int i = 0; i < fish.count; i += 1) {
+      this.bucket[Math.min(fish.y[i] / this.height, this.bands - 1) + 1] += 1;
+    }
+    for (int b = 1; b <= this.bands; b += 1) {
+      this.bucket[b] += this.bucket[b - 1];
+    }
+    if (this.bandStart.length < this.bands + 1) {
+      this.bandStart = new int[this.bands + 1];
+    }
+    System.arraycopy(this.bucket, 0, this.bandStart, 0, this.bands + 1);
+    if (this.keys.length < fish.count) {
+      this.keys = new long[fish.x.length];
+    }
+    for (int i = 0; i < fish.count; i += 1) {
+      int band = Math.min(fish.y[i] / this.height, this.bands - 1);
+      this.keys[this.bucket[band]] = ((long) fish.x[i] << 32) | i;
+      this.bucket[band] += 1;
+    }
+    for (int b = 0; b < this.bands; b += 1) {
+      Arrays.sort(this.keys, this.bandStart[b], this.bandStart[b + 1]);
+    }
+    for (int k = 0; k < fish.count; k += 1) {
+      this.order[k] = (int) this.keys[k];
+    }
+  }
+
+  // Fills found with the fish that fish e reaches and is larger than, in sweep 
+  // order, returning how many there are. The fish must have been sorted since 
+  // they last moved.
+  int near(ArrayLoFish fish, int e) {
+    this.foundCount = 0;
+    int reach = fish.size[e];
+    int x = fish.x[e];
+    int band = Math.min(fish.y[e] / this.height, this.bands - 1);
+    for (int d = -1; d <= 1; d += 1) {
+      int b = Math.floorMod(band + d, this.bands);
+      if ((d == 1 && this.bands <= 2 && b == Math.floorMod(band - 1, this.bands)) 
+          || (d != 0 && b == band)) {
+        continue; // a band already swept
+      }
+      int from = this.bandStart[b];
+      int to = this.bandStart[b + 1];
+      int lo = x - reach + 1;
+      int hi = x + reach;
+      int width = fish.bounds.width;
+      if (hi - lo >= width) {
+        this.scan(fish, e, from, to, 0, width);
+      } 
+      else if (lo < 0) {
+        this.scan(fish, e, from, to, 0, hi);
+        this.scan(fish, e, from, to, lo + width, width);
+      } 
+      else if (hi > width) {
+        this.scan(fish, e, from, to, lo, width);
+        this.scan(fish, e, from, to, 0, hi - width);
+      } 
+      else {
+        this.scan(fish, e, from, to, lo, hi);
+      }
+    }
+    return this.foundCount;
+  }
+
+  // Adds to found the fish at positions [from, to) of order whose x is in 
+  // [loX, hiX) that fish e is larger than and reaches across the wrap-around
+  void scan(ArrayLoFish fish, int e, int from, int to, int loX, int hiX) {
+    int reach = fish.size[e];
+    int y = fish.y[e];
+    for (int q = this.lowerBound(fish, from, to, loX); q < to && fish.x[this.order[q]] < hiX; 
+        q += 1) {
+      int j = this.order[q];
+      this.checks += 1;
+      if (fish.size[j] < reach 
+          && TickResult.wrapDistance(fish.y[j], y, fish.bounds.height) < reach) {
+        if (this.foundCount == this.found.length) {
+          this.found = Arrays.copyOf(this.found, this.foundCount * 2);
+        }
+        this.found[this.foundCount] = j;
+        this.foundCount += 1;
+      }
+    }
+  }
+
+  // The first position in [from, to) of order whose fish has an x of at least x
+  int lowerBound(ArrayLoFish fish, int from, int to, int x) {
+    while (from < to) {
+      int mid = (from + to) >>> 1;
+      if (fish.x[this.order[mid]] < x) {
+        from = mid + 1;
+      } 
+      else {
+        to = mid;
+      }
+    }
+    return from;
+  }
+}
+
+// Class representing a multiset of fish sizes kept as a count per size in a 
+// Fenwick tree, so the number of fish above or below a size takes O(log n) time 
+// and the largest size is kept at hand for O(1) checks
+class SizeIndex {
+  int[] counts; // fish of each size
+  int[] tree;   // Fenwick tree over counts, 1-based
+  int total;
+  int largest;  // largest size held, or -1 when empty
+
+  /*
+   * Fields:
+   * ... this.counts ...  -- int[]
+   * ... this.tree ...    -- int[]
+   * ... this.total ...   -- int
+   * ... this.largest ... -- int
+   * Methods:
+   * ... this.add(int) ...         -- void
+   * ... this.remove(int) ...      -- void
+   * ... this.atMost(int) ...      -- int
+   * ... this.countBelow(int) ...  -- int
+   * ... this.countAbove(int) ...  -- int
+   * ... this.select(int) ...      -- int
+   * ... this.ensureSize(int) ...  -- void
+   * ... this.adjust(int, int) ... -- void
+   */
+
+  SizeIndex() {
+    this.counts = new int[128];
+    this.tree = new int[129];
+    this.total = 0;
+    this.largest = -1;
+  }
+
+  // Adds one fish of the given size
+  void add(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Fish size must not be negative: " + size);
+    }
+    this.ensureSize(size);
+    this.adjust(size, 1);
+    this.largest = Math.max(this.largest, size);
+  }
+
+  // Removes one fish of the given size, which must be held
+  void remove(int size) {
+    this.adjust(size, -1);
+    if (size == this.largest && this.counts[size] == 0) {
+      this.largest = this.total == 0 ? -1 : this.select(this.total);
+    }
+  }
+
+  // The number of fish of at most the given size
+  int atMost(int size) {
+    int sum = 0;
+    for (int i = Math.min(size, this.counts.length - 1) + 1; i > 0; i -= i & -i) {
+      sum += this.tree[i];
+    }
+    return size < 0 ? 0 : sum;
+  }
+
+  // The number of fish smaller than the given size
+  int countBelow(int size) {
+    return this.atMost(size - 1);
+  }
+
+  // The number of fish larger than the given size
+  int countAbove(int size) {
+    return this.total - this.atMost(size);
+  }
+
+  // The size of the k-th smallest fish, counting from 1
+  int select(int k) {
+    int pos = 0;
+    for (int step = Integer.highestOneBit(this.counts.length); step > 0; step >>= 1) {
+      if (pos + step < this.tree.length && this.tree[pos + step] < k) {
+        pos += step;
+        k -= this.tree[pos];
+      }
+    }
+    return pos; // the 1-based position pos + 1 is the size pos
+  }
+
+  // Makes room for the given size, rebuilding the tree at a larger length
+  void ensureSize(int size) {
+    if (size < this.counts.length) {
+      return;
+    }
+    int length = this.counts.length;
+    while (length <= size) {
+      length *= 2;
+    }
+    this.counts = Arrays.copyOf(this.counts, length);
+    this.tree = new int[length + 1];
+    for (int i = 1; i <= length; i += 1) {
+      this.tree[i] += this.counts[i - 1];
+      int parent = i + (i & -i);
+      if (parent <= length) {
+        this.tree[parent] += this.tree[i];
+      }
+    }
+  }
+
+  // Changes the count of the given size by delta
+  void adjust(int size, int delta) {
+    this.counts[size] += delta;
+    this.total += delta;
+    for (int i = size + 1; i < this.tree.length; i += i & -i) {
+      this.tree[i] += delta;
+    }
+  }
+}
+
+// Class representing a uniform grid over the torus of a pond, used to find the fish
+// near a point or in an area without scanning the whole pond. Each cell keeps a doubly linked 
+// list of fish indices threaded through the next/prev arrays.
+class FishGrid {
+  PondBounds bounds;
+  int cellSize;
+  int cols;
+  int rows;
+  int[] head;   // first fish index in each cell, or -1
+  int[] next;   // next fish index in the same cell, or -1
+  int[] prev;   // previous fish index in the same cell, or -1
+  int[] cellOf; // cell holding each fish index
+  int[] found;  // indices collected by the last gather
+  int foundCount;
+
+  /*
+   * Fields:
+   * ... this.bounds ...     -- PondBounds
+   * ... this.cellSize ...   -- int
+   * ... this.cols ...       -- int
+   * ... this.rows ...       -- int
+   * ... this.head ...       -- int[]
+   * ... this.next ...       -- int[]
+   * ... this.prev ...       -- int[]
+   * ... this.cellOf ...     -- int[]
+   * ... this.found ...      -- int[]
+   * ... this.foundCount ... -- int
+   * Methods:
+   * ... this.cellAt(int, int) ...          -- int
+   * ... this.insert(int, int, int) ...     -- void
+   * ... this.remove(int) ...               -- void
+   * ... this.update(int, int, int) ...     -- void
+   * ... this.relabel(int, int) ...         -- void
+   * ... this.ensureCapacity(int) ...       -- void
+   * ... this.span(int) ...                 -- int
+   * ... this.gather(int, int, int) ...     -- int
+   * ... this.gatherArea(int, int, int, int) ... -- int
+   * ... this.collect(int, int, int, int) ...    -- int
+   */
+
+  FishGrid(int cellSize, int capacity, PondBounds bounds) {
+    this.bounds = bounds;
+    this.cellSize = cellSize;
+    this.cols = (bounds.width + cellSize - 1) / cellSize;
+    this.rows = (bounds.height + cellSize - 1) / cellSize;
+    this.head = new int[this.cols * this.rows];
+    Arrays.fill(this.head, -1);
+    this.next = new int[capacity];
+    this.prev = new int[capacity];
+    this.cellOf = new int[capacity];
+    this.found = new int[16];
+    this.foundCount = 0;
+  }
+
+  FishGrid(int cellSize, int capacity) {
+    this(cellSize, capacity, PondBounds.WINDOW);
+  }
+
+  // Returns the cell containing the point (x, y), wrapping around the torus
+  int cellAt(int x, int y) {
+    int col = Math.min(this.bounds.wrapX(x) / this.cellSize, this.cols - 1);
+    int row = Math.min(this.bounds.wrapY(y) / this.cellSize, this.rows - 1);
+    return row * this.cols + col;
+  }
+
+  // Links fish index i into the cell containing (x, y)
+  void insert(int i, int x, int y) {
+    int cell = this.cellAt(x, y);
+    this.cellOf[i] = cell;
+    this.prev[i] = -1;
+    this.next[i] = this.head[cell];
+    if (this.head[cell] != -1) {
+      this.prev[this.head[cell]] = i;
+    }
+    this.head[cell] = i;
+  }
+
+  // Unlinks fish index i from its cell
+  void remove(int i) {
+    if (this.prev[i] != -1) {
+      this.next[this.prev[i]] = this.next[i];
+    } 
+    else {
+      this.head[this.cellOf[i]] = this.next[i];
+    }
+    if (this.next[i] != -1) {
+      this.prev[this.next[i]] = this.prev[i];
+    }
+  }
+
+  // Moves fish index i to the cell containing (x, y) if it changed cells
+  void update(int i, int x, int y) {
+    if (this.cellAt(x, y) != this.cellOf[i]) {
+      this.remove(i);
+      this.insert(i, x, y);
+    }
+  }
+
+  // The fish linked at index from now lives at index to (after a swap-remove)
+  void relabel(int from, int to) {
+    this.cellOf[to] = this.cellOf[from];
+    this.next[to] = this.next[from];
+    this.prev[to] = this.prev[from];
+    if (this.prev[to] != -1) {
+      this.next[this.prev[to]] = to;
+    } 
+    else {
+      this.head[this.cellOf[to]] = to;
+    }
+    if (this.next[to] != -1) {
+      this.prev[this.next[to]] = to;
+    }
+  }
+
+  // Makes room for fish indices below capacity
+  void ensureCapacity(int capacity) {
+    if (capacity > this.next.length) {
+      this.next = Arrays.copyOf(this.next, capacity);
+      this.prev = Arrays.copyOf(this.prev, capacity);
+      this.cellOf = Arrays.copyOf(this.cellOf, capacity);
+    }
+  }
+
+  // Number of cells on each side of a point that can hold a fish closer than radius
+  int span(int radius) {
+    return radius / this.cellSize + 1;
+  }
+
+  // Collects into found the indices of every fish in the cells that can hold a fish
+  // closer than radius to (x, y), and returns how many there are
+  int gather(int x, int y, int radius) {
+    int span = this.span(radius);
+    int spanCols = Math.min(2 * span + 1, this.cols);
+    int spanRows = Math.min(2 * span + 1, this.rows);
+    int startCol = spanCols == this.cols ? 0 : this.bounds.wrapX(x) / this.cellSize - span;
+    int startRow = spanRows == this.rows ? 0 : this.bounds.wrapY(y) / this.cellSize - span;
+    return this.collect(startCol, spanCols, startRow, spanRows);
+  }
+
+  // Collects into found the indices of every fish in the cells overlapping the 
+  // area of the given width and height whose top left corner is (x, y), and 
+  // returns how many there are. The area may cross the wrap-around edges; one 
+  // more cell is taken along each axis in case it crosses a narrower last cell.
+  int gatherArea(int x, int y, int width, int height) {
+    int offsetX = this.bounds.wrapX(x) % this.cellSize;
+    int offsetY = this.bounds.wrapY(y) % this.cellSize;
+    int spanCols = Math.min((offsetX + width - 1) / this.cellSize + 2, this.cols);
+    int spanRows = Math.min((offsetY + height - 1) / this.cellSize + 2, this.rows);
+    int startCol = spanCols == this.cols ? 0 : this.bounds.wrapX(x) / this.cellSize;
+    int startRow = spanRows == this.rows ? 0 : this.bounds.wrapY(y) / this.cellSize;
+    return this.collect(startCol, spanCols, startRow, spanRows);
+  }
+
+  // Collects into found the indices of every fish in the block of spanCols by 
+  // spanRows cells from (startCol, startRow), wrapping around, and returns how 
+  // many there are
+  int collect(int startCol, int spanCols, int startRow, int spanRows) {
+    this.foundCount = 0;
+    for (int r = 0; r < spanRows; r += 1) {
+      int row = Math.floorMod(startRow + r, this.rows);
+      for (int c = 0; c < spanCols; c += 1) {
+        int col = Math.floorMod(startCol + c, this.cols);
+        for (int i = this.head[row * this.cols + col]; i != -1; i = this.next[i]) {
+          if (this.foundCount == this.found.length) {
+            this.found = Arrays.copyOf(this.found, this.foundCount * 2);
+          }
+          this.found[this.foundCount] = i;
+          this.foundCount += 1;
+        }
+      }
+    }
+    return this.foundCount;
+  }
+}
+
+// Class representing a hashed timing wheel over the ids [0, capacity): each id may
+// be scheduled at one tick, and the ids due at a tick are found in the slot for
+// tick % SLOTS alone. Each slot keeps a doubly linked list of ids threaded through
+// the next/prev arrays, as the cells of a FishGrid do, so scheduling, cancelling 
+// and relabelling an id take constant time. An id due more than one turn of the 
+// wheel ahead stays in its slot until its own tick comes round. The wheel must be
+// advanced once per tick.
+class TimingWheel {
+  static final int SLOTS = 256; // a power of two above the usual delays
+
+  int[] head;         // first id in each slot, or -1
+  int[] next;         // next id in the same slot, or -1
+  int[] prev;         // previous id in the same slot, or -1
+  int[] deadline;     // the tick each scheduled id is due
+  boolean[] scheduled;
+  int size;           // ids scheduled
+  int[] fired;        // ids that fell due in the last advance
+  int firedCount;
+  long firedTotal;
+
+  /*
+   * Fields:
+   * ... this.head ...       -- int[]
+   * ... this.next ...       -- int[]
+   * ... this.prev ...       -- int[]
+   * ... this.deadline ...   -- int[]
+   * ... this.scheduled ...  -- boolean[]
+   * ... this.size ...       -- int
+   * ... this.fired ...      -- int[]
+   * ... this.firedCount ... -- int
+   * ... this.firedTotal ... -- long
+   * Methods:
+   * ... this.schedule(int, int) ...   -- void
+   * ... this.cancel(int) ...          -- void
+   * ... this.relabel(int, int) ...    -- void
+   * ... this.advance(int) ...         -- int
+   * ... this.ensureCapacity(int) ...  -- void
+   */
+
+  TimingWheel(int capacity) {
+    this.head = new int[TimingWheel.SLOTS];
+    Arrays.fill(this.head, -1);
+    this.next = new int[capacity];
+    this.prev = new int[capacity];
+    this.deadline = new int[capacity];
+    this.scheduled = new boolean[capacity];
+    this.size = 0;
+    this.fired = new int[16];
+    this.firedCount = 0;
+    this.firedTotal = 0;
+  }
+
+  // Schedules id at the given tick, in place of any tick it was scheduled at
+  void schedule(int id, int tick) {
+    if (this.scheduled[id]) {
+      this.cancel(id);
+    }
+    int slot = tick & (TimingWheel.SLOTS - 1);
+    this.deadline[id] = tick;
+    this.scheduled[id] = true;
+    this.prev[id] = -1;
+    this.next[id] = this.head[slot];
+    if (this.head[slot] != -1) {
+      this.prev[this.head[slot]] = id;
+    }
+    this.head[slot] = id;
+    this.size += 1;
+  }
+
+  // Unschedules id if it is scheduled
+  void cancel(int id) {
+    if (!this.scheduled[id]) {
+      return;
+    }
+    if (this.prev[id] != -1) {
+      this.next[this.prev[id]] = this.next[id];
+    } 
+    else {
+      this.head[this.deadline[id] & (TimingWheel.SLOTS - 1)] = this.next[id];
+    }
+    if (this.next[id] != -1) {
+      this.prev[this.next[id]] = this.prev[id];
+    }
+    this.scheduled[id] = false;
+    this.size -= 1;
+  }
+
+  // The id scheduled as from is now scheduled as to, which must not be (after a 
+  // swap-remove)
+  void relabel(int from, int to) {
+    this.scheduled[to] = this.scheduled[from];
+    this.scheduled[from] = false;
+    if (!this.scheduled[to]) {
+      return;
+    }
+    this.deadline[to] = this.deadline[from];
+    this.next[to] = this.next[from];
+    this.prev[to] = this.prev[from];
+    if (this.prev[to] != -1) {
+      this.next[this.prev[to]] = to;
+    } 
+    else {
+      this.head[this.deadline[to] & (TimingWheel.SLOTS - 1)] = to;
+    }
+    if (this.next[to] != -1) {
+      this.prev[this.next[to]] = to;
+    }
+  }
+
+  // Unschedules the ids due at the given tick into fired, in ascending order, and
+  // returns how many there are. Only the slot of the tick is visited: the slot is 
+  // detached whole and the ids due on a later turn are linked back in.
+  int advance(int tick) {
+    int slot = tick & (TimingWheel.SLOTS - 1);
+    int id = this.head[slot];
+    this.head[slot] = -1;
+    this.firedCount = 0;
+    while (id != -1) {
+      int after = this.next[id];
+      if (this.deadline[id] - tick <= 0) {
+        this.scheduled[id] = false;
+        this.size -= 1;
+        if (this.firedCount == this.fired.length) {
+          this.fired = Arrays.copyOf(this.fired, this.firedCount * 2);
+        }
+        this.fired[this.firedCount] = id;
+        this.firedCount += 1;
+      } 
+      else {
+        this.prev[id] = -1;
+        this.next[id] = this.head[slot];
+        if (this.head[slot] != -1) {
+          this.prev[this.head[slot]] = id;
+        }
+        this.head[slot] = id;
+      }
+      id = after;
+    }
+    Arrays.sort(this.fired, 0, this.firedCount); // visits the owner's arrays in order
+    this.firedTotal += this.firedCount;
+    return this.firedCount;
+  }
+
+  // Makes room for ids below capacity
+  void ensureCapacity(int capacity) {
+    if (capacity > this.next.length) {
+      this.next = Arrays.copyOf(this.next, capacity);
+      this.prev = Arrays.copyOf(this.prev, capacity);
+      this.deadline = Arrays.copyOf(this.deadline, capacity);
+      this.scheduled = Arrays.copyOf(this.scheduled, capacity);
+    }
+  }
+}
+
+// Class representing a fork/join task running the chunks [lo, hi) of a parallel 
+// cross or settle of an ArrayLoFish, split in halves down to single chunks
+class ParallelTickTask extends RecursiveAction {
+  static final long serialVersionUID = 1L;
+  static final byte CROSS = 0; // phases
+  static final byte SETTLE = 1;
+
+  transient ArrayLoFish fish; // tasks are never serialized
+  byte phase;
+  int lo;
+  int hi;
+
+  ParallelTickTask(ArrayLoFish fish, byte phase, int lo, int hi) {
+    this.fish = fish;
+    this.phase = phase;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // Runs a single chunk, or splits the range in two
+  protected void compute() {
+    if (this.hi - this.lo <= 1) {
+      if (this.lo < this.hi) {
+        this.fish.tickChunk(this.phase, this.lo);
+      }
+    } 
+    else {
+      int mid = (this.lo + this.hi) >>> 1;
+      ForkJoinTask.invokeAll(new ParallelTickTask(this.fish, this.phase, this.lo, mid),
+          new ParallelTickTask(this.fish, this.phase, mid, this.hi));
+    }
+  }
+}
+
+// Class representing a scripted stream of key events, each one pressed just 
+// before the given tick of a HeadlessRunner
+class KeyScript {
+  int[] ticks; // ascending
+  String[] keys;
+  int count;
+
+  /*
+   * Fields:
+   * ... this.ticks ... -- int[]
+   * ... this.keys ...  -- String[]
+   * ... this.count ... -- int
+   * Methods:
+   * ... this.press(int, String) ...              -- KeyScript
+   * ... KeyScript.random(long, int, int) ...     -- KeyScript
+   */
+
+  KeyScript() {
+    this.ticks = new int[16];
+    this.keys = new String[16];
+    this.count = 0;
+  }
+
+  // Adds a key press before the given tick, which must not be earlier than the last one
+  KeyScript press(int tick, String key) {
+    if (this.count > 0 && tick < this.ticks[this.count - 1]) {
+      throw new IllegalArgumentException("Key presses must be in tick order: " + tick);
+    }
+    if (this.count == this.ticks.length) {
+      this.ticks = Arrays.copyOf(this.ticks, this.count * 2);
+      this.keys = Arrays.copyOf(this.keys, this.count * 2);
+    }
+    this.ticks[this.count] = tick;
+    this.keys[this.count] = key;
+    this.count += 1;
+    return this;
+  }
+
+  // A script pressing a random arrow key every few ticks, the same for the same seed
+  static KeyScript random(long seed, int ticks, int every) {
+    String[] arrows = {"left", "right", "up", "down"};
+    FishRandom rand = new FishRandom(seed);
+    KeyScript script = new KeyScript();
+    for (int tick = 0; tick < ticks; tick += every) {
+      script.press(tick, arrows[rand.nextInt(arrows.length)]);
+    }
+    return script;
+  }
+}
+
+// Class representing a driver that steps a PondWorld through onKeyEvent, step 
+// and the end of game rules as fast as the CPU allows, without opening a window.
+// The seed restarts the pond's random source, so the same pond, seed and script 
+// always play out the same way.
+class HeadlessRunner {
+  PondWorld world;
+  long seed;
+  KeyScript script;
+  int nextKey;     // index of the next key in the script
+  boolean render;  // also build the scene every tick
+  int ticks;
+  int state;       // PondWorld.PLAYING, LOST or WON
+  long elapsedNanos;
+  int sampleEvery; // ticks between fish count samples
+  int[] fishSamples;
+  int sampleCount;
+
+  /*
+   * Fields:
+   * ... this.world ...        -- PondWorld
+   * ... this.seed ...         -- long
+   * ... this.script ...       -- KeyScript
+   * ... this.nextKey ...      -- int
+   * ... this.render ...       -- boolean
+   * ... this.ticks ...        -- int
+   * ... this.state ...        -- int
+   * ... this.elapsedNanos ... -- long
+   * ... this.sampleEvery ...  -- int
+   * ... this.fishSamples ...  -- int[]
+   * ... this.sampleCount ...  -- int
+   * Methods:
+   * ... this.step() ...                      -- boolean
+   * ... this.run(int) ...                    -- HeadlessRunner
+   * ... this.ticksPerSecond() ...            -- double
+   * ... this.report() ...                    -- String
+   * ... HeadlessRunner.reseed(PondWorld, long) ... -- void
+   * ... HeadlessRunner.randomPond(int, long, PondBounds) ... -- PondWorld
+   * ... HeadlessRunner.randomPond(int, long) ... -- PondWorld
+   * ... HeadlessRunner.main(String[]) ...    -- void
+   */
+
+  HeadlessRunner(PondWorld world, long seed, KeyScript script, boolean render, int sampleEvery) {
+    this.world = world;
+    this.seed = seed;
+    this.script = script;
+    this.nextKey = 0;
+    this.render = render;
+    this.ticks = 0;
+    this.state = PondWorld.PLAYING;
+    this.elapsedNanos = 0;
+    this.sampleEvery = sampleEvery;
+    this.fishSamples = new int[16];
+    this.sampleCount = 0;
+    HeadlessRunner.reseed(world, seed);
+  }
+
+  HeadlessRunner(PondWorld world, long seed, KeyScript script) {
+    this(world, seed, script, false, 100);
+  }
+
+  // Starts the random numbers of world from seed. A pond built without a source of
+  // its own draws from FishRandom.SHARED, which other ponds and threads use too, so
+  // it and its fish list are given a stream of their own instead of reseeding it.
+  static void reseed(PondWorld world, long seed) {
+    if (world.rand != FishRandom.SHARED) {
+      world.rand.setSeed(seed);
+      return;
+    }
+    world.rand = new FishRandom(seed);
+    if (world.fish instanceof ArrayLoFish 
+        && ((ArrayLoFish) world.fish).rand == FishRandom.SHARED) {
+      ((ArrayLoFish) world.fish).rand = world.rand;
+    }
+    if (world.fish instanceof OffHeapLoFish 
+        && ((OffHeapLoFish) world.fish).rand == FishRandom.SHARED) {
+      ((OffHeapLoFish) world.fish).rand = world.rand;
+    }
+  }
+
+  // Runs one tick: the key presses due before it, step, the end of game rules 
+  // that worldEnds applies, and makeScene when rendering. Returns true once the 
+  // game has ended.
+  boolean step() {
+    while (this.nextKey < this.script.count && this.script.ticks[this.nextKey] <= this.ticks) {
+      this.world = (PondWorld) this.world.onKeyEvent(this.script.keys[this.nextKey]);
+      this.nextKey += 1;
+    }
+    this.world = this.world.step();
+    if (this.ticks % this.sampleEvery == 0) {
+      if (this.sampleCount == this.fishSamples.length) {
+        this.fishSamples = Arrays.copyOf(this.fishSamples, this.sampleCount * 2);
+      }
+      this.fishSamples[this.sampleCount] = this.world.result.fishCount;
+      this.sampleCount += 1;
+    }
+    this.world.profiler.begin(TickProfiler.WORLD_ENDS);
+    this.state = this.world.endState();
+    this.world.profiler.end(TickProfiler.WORLD_ENDS);
+    if (this.render) {
+      this.world.makeScene();
+    }
+    this.ticks += 1;
+    return this.state != PondWorld.PLAYING;
+  }
+
+  // Steps until the game ends or maxTicks ticks have run
+  HeadlessRunner run(int maxTicks) {
+    long start = System.nanoTime();
+    while (this.ticks < maxTicks && !this.step()) {
+      // keep stepping
+    }
+    this.elapsedNanos += System.nanoTime() - start;
+    return this;
+  }
+
+  // Ticks run per second of wall-clock time spent in run
+  double ticksPerSecond() {
+    return this.elapsedNanos == 0 ? 0 : this.ticks * 1e9 / this.elapsedNanos;
+  }
+
+  // A readable summary of the run
+  String report() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("seed ").append(this.seed)
+        .append(", ticks ").append(this.ticks)
+        .append(", ").append(String.format("%.0f", this.ticksPerSecond())).append(" ticks/s")
+        .append(", end ").append(this.state == PondWorld.LOST ? "lost" 
+            : this.state == PondWorld.WON ? "won" : "still playing")
+        .append(", score ").append(this.world.player.score * 10)
+        .append(", lives ").append(this.world.player.lives)
+        .append("\nfish every ").append(this.sampleEvery).append(" ticks:");
+    for (int i = 0; i < this.sampleCount; i += 1) {
+      sb.append(' ').append(this.fishSamples[i]);
+    }
+    return sb.toString();
+  }
+
+  // A pond of the given bounds with randomly placed background fish around a 
+  // fresh player in a clear middle, the same for the same seed
+  static PondWorld randomPond(int fishCount, long seed, PondBounds bounds) {
+    Color[] colors = {Color.BLUE, Color.RED, Color.GREEN, Color.ORANGE, Color.MAGENTA, 
+        Color.CYAN, Color.PINK, Color.GRAY};
+    FishRandom rand = new FishRandom(seed);
+    ArrayLoFish fish = new ArrayLoFish(fishCount, rand, bounds);
+    int midX = bounds.width / 2;
+    int midY = bounds.height / 2;
+    for (int i = 0; i < fishCount; i += 1) {
+      int x = rand.nextInt(bounds.width);
+      int y = rand.nextInt(bounds.height);
+      while (Math.abs(x - midX) < 100 && Math.abs(y - midY) < 100) { // keep the start clear
+        x = rand.nextInt(bounds.width);
+        y = rand.nextInt(bounds.height);
+      }
+      fish.addFish(rand.nextInt(90) + 10, colors[rand.nextInt(colors.length)], x, y, 
+          rand.nextInt(3) - 1, rand.nextInt(3) - 1, rand.nextInt(100));
+    }
+    PlayerFish player = new PlayerFish(12, Color.YELLOW, midX, midY, 0, 0, 0, 3, 0.85, 10, 
+        bounds);
+    return new PondWorld(fish, player, 0, rand);
+  }
+
+  static PondWorld randomPond(int fishCount, long seed) {
+    return HeadlessRunner.randomPond(fishCount, seed, PondBounds.WINDOW);
+  }
+
+  // Runs a random pond headlessly: 
+  // HeadlessRunner [ticks] [fish] [seed] [render] [profile] [ecosystem] [width] [height]
+  //     [raster bands, 0 to render image nodes] [off-heap fish, without the ecosystem]
+  public static void main(String[] args) {
+    int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int fishCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+    boolean render = args.length > 3 && Boolean.parseBoolean(args[3]);
+    boolean profile = args.length > 4 && Boolean.parseBoolean(args[4]);
+    boolean ecosystem = args.length > 5 && Boolean.parseBoolean(args[5]);
+    int width = args.length > 6 ? Integer.parseInt(args[6]) : 800;
+    int height = args.length > 7 ? Integer.parseInt(args[7]) : 600;
+    int bands = args.length > 8 ? Integer.parseInt(args[8]) : 0;
+    boolean offHeap = args.length > 9 && Boolean.parseBoolean(args[9]);
+    PondWorld pond = HeadlessRunner.randomPond(fishCount, seed, new PondBounds(width, height));
+    if (offHeap) {
+      pond = new PondWorld(new OffHeapLoFish((ArrayLoFish) pond.fish), pond.player, 0, 
+          pond.rand);
+    }
+    if (bands > 0) {
+      pond.view.rasterize(bands);
+    }
+    if (ecosystem && !offHeap) {
+      ((ArrayLoFish) pond.fish).sweep = new FishSweep();
+    }
+    HeadlessRunner runner = new HeadlessRunner(pond, seed, KeyScript.random(seed, ticks, 10), 
+        render, Math.max(1, ticks / 20));
+    if (profile) {
+      runner.world.profiler = new TickProfiler(true, false).register("HeadlessRunner");
+    }
+    System.out.println(runner.run(ticks).report());
+    if (profile) {
+      System.out.println(runner.world.profiler.report());
+    }
+  }
+}
+
+// Class representing the timers and allocation counters of the phases of a game's
+// ticks. Each phase records its durations in a LatencyHistogram and adds up the 
+// bytes its thread allocated, and emits a PondPhaseEvent when JFR records them. 
+// The profiler is also a JMX MBean whose attributes are the tick and phase 
+// figures. A disabled profiler does nothing, so OFF can be shared by every game 
+// that is not profiled. The bytes the profiler's own events allocate are left out
+// of the phases they happen in, so recording with JFR does not change the figures.
+class TickProfiler implements DynamicMBean {
+  static final int TICK = 0; // phases
+  static final int FISH_TICK = 1;
+  static final int SPAWN = 2;
+  static final int PLAYER_MOVE = 3;
+  static final int WORLD_ENDS = 4;
+  static final int MAKE_SCENE = 5;
+  static final int SNACKS = 6;
+  static final String[] PHASES = {"Tick", "FishTick", "Spawn", "PlayerMove", "WorldEnds", 
+    "MakeScene", "Snacks"};
+  static final TickProfiler OFF = new TickProfiler(false, false);
+  static final String PROPERTY = "feedingfrenzy.profile"; // turns on the game's profiler
+  static final EventType PHASE_EVENT = EventType.getEventType(PondPhaseEvent.class);
+
+  boolean enabled;
+  boolean overlay;         // makeScene draws the figures next to the HUD
+  LatencyHistogram[] nanos;
+  long[] bytes;            // bytes allocated by each phase in total
+  long[] startNanos;       // when each running phase began
+  long[] startBytes;
+  long eventBytes;         // bytes allocated by the phase events in total
+  long[] startEventBytes;  // eventBytes when each running phase began
+  int fishCount;           // fish in the pond after the last tick
+
+  /*
+   * Fields:
+   * ... this.enabled ...    -- boolean
+   * ... this.overlay ...    -- boolean
+   * ... this.nanos ...      -- LatencyHistogram[]
+   * ... this.bytes ...      -- long[]
+   * ... this.startNanos ... -- long[]
+   * ... this.startBytes ... -- long[]
+   * ... this.eventBytes ... -- long
+   * ... this.startEventBytes ... -- long[]
+   * ... this.fishCount ...  -- int
+   * Methods:
+   * ... TickProfiler.fromProperty(String) ... -- TickProfiler
+   * ... TickProfiler.allocatedBytes() ...     -- long
+   * ... this.begin(int) ...           -- void
+   * ... this.end(int) ...             -- void
+   * ... this.bytesPerCall(int) ...    -- long
+   * ... this.overlayText() ...        -- String[]
+   * ... this.report() ...             -- String
+   * ... this.register(String) ...     -- TickProfiler
+   * ... this.getAttribute(String) ... -- Object
+   * ... this.getMBeanInfo() ...       -- MBeanInfo
+   */
+
+  TickProfiler(boolean enabled, boolean overlay) {
+    this.enabled = enabled;
+    this.overlay = overlay;
+    int phases = enabled ? TickProfiler.PHASES.length : 0;
+    this.nanos = new LatencyHistogram[phases];
+    for (int p = 0; p < phases; p += 1) {
+      this.nanos[p] = new LatencyHistogram();
+    }
+    this.bytes = new long[phases];
+    this.startNanos = new long[phases];
+    this.startBytes = new long[phases];
+    this.eventBytes = 0;
+    this.startEventBytes = new long[phases];
+    this.fishCount = 0;
+  }
+
+  // The profiler of an interactive game under the given name: an enabled one with
+  // the overlay, registered with JMX, if the system property PROPERTY is true, or
+  // else OFF
+  static TickProfiler fromProperty(String name) {
+    if (!Boolean.getBoolean(TickProfiler.PROPERTY)) {
+      return TickProfiler.OFF;
+    }
+    return new TickProfiler(true, true).register(name);
+  }
+
+  // Bytes allocated so far by the current thread
+  static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getCurrentThreadAllocatedBytes();
+  }
+
+  // Starts timing the given phase
+  void begin(int phase) {
+    if (this.enabled) {
+      this.startEventBytes[phase] = this.eventBytes;
+      this.startBytes[phase] = TickProfiler.allocatedBytes();
+      this.startNanos[phase] = System.nanoTime();
+    }
+  }
+
+  // Stops timing the given phase and records it. A phase event is only made when
+  // JFR records them.
+  void end(int phase) {
+    if (this.enabled) {
+      long nanos = System.nanoTime() - this.startNanos[phase];
+      long allocated = TickProfiler.allocatedBytes();
+      long bytes = allocated - this.startBytes[phase] 
+          - (this.eventBytes - this.startEventBytes[phase]);
+      this.nanos[phase].record(nanos);
+      this.bytes[phase] += bytes;
+      if (TickProfiler.PHASE_EVENT.isEnabled()) {
+        PondPhaseEvent event = new PondPhaseEvent();
+        if (event.shouldCommit()) {
+          event.phase = TickProfiler.PHASES[phase];
+          event.nanos = nanos;
+          event.allocatedBytes = bytes;
+          event.fishCount = this.fishCount;
+          event.commit();
+        }
+        this.eventBytes += TickProfiler.allocatedBytes() - allocated;
+      }
+    }
+  }
+
+  // The mean bytes allocated by one run of the given phase
+  long bytesPerCall(int phase) {
+    long calls = this.nanos[phase].total;
+    return calls == 0 ? 0 : this.bytes[phase] / calls;
+  }
+
+  // The lines the overlay shows: fish count, tick p99 and allocations per tick
+  String[] overlayText() {
+    return new String[] {"Fish: " + this.fishCount, 
+      "Tick p99: " + this.nanos[TickProfiler.TICK].percentile(99) / 1000 + " us",
+      "Alloc: " + this.bytesPerCall(TickProfiler.TICK) + " B/tick"};
+  }
+
+  // A readable table of every phase
+  String report() {
+    StringBuilder sb = new StringBuilder(String.format("%-12s %10s %10s %10s %12s", 
+        "phase", "calls", "p50 ns", "p99 ns", "B/call"));
+    for (int p = 0; p < this.nanos.length; p += 1) {
+      sb.append(String.format("%n%-12s %10d %10d %10d %12d", TickProfiler.PHASES[p], 
+          this.nanos[p].total, this.nanos[p].percentile(50), this.nanos[p].percentile(99), 
+          this.bytesPerCall(p)));
+    }
+    return sb.toString();
+  }
+
+  // Registers this profiler with the platform MBean server under the given game 
+  // name, in place of any profiler registered under it before
+  TickProfiler register(String name) {
+    try {
+      ObjectName objectName = 
+          new ObjectName("FeedingFrenzy:type=TickProfiler,name=" + ObjectName.quote(name));
+      if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      }
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    } 
+    catch (JMException e) {
+      throw new IllegalStateException("Cannot register profiler " + name, e);
+    }
+    return this;
+  }
+
+  // The value of an attribute: FishCount, or <phase>Calls, <phase>P50Nanos, 
+  // <phase>P99Nanos, <phase>MaxNanos or <phase>BytesPerCall for each phase
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    if (attribute.equals("FishCount")) {
+      return (long) this.fishCount;
+    }
+    for (int p = 0; p < this.nanos.length; p += 1) {
+      if (attribute.startsWith(TickProfiler.PHASES[p])) {
+        switch (attribute.substring(TickProfiler.PHASES[p].length())) {
+          case "Calls":
+            return this.nanos[p].total;
+          case "P50Nanos":
+            return this.nanos[p].percentile(50);
+          case "P99Nanos":
+            return this.nanos[p].percentile(99);
+          case "MaxNanos":
+            return this.nanos[p].max;
+          case "BytesPerCall":
+            return this.bytesPerCall(p);
+          default:
+            break;
+        }
+      }
+    }
+    throw new AttributeNotFoundException(attribute);
+  }
+
+  // The values of the named attributes that exist
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      try {
+        list.add(new Attribute(attribute, this.getAttribute(attribute)));
+      } 
+      catch (AttributeNotFoundException e) {
+        // left out, as the MBean server expects
+      }
+    }
+    return list;
+  }
+
+  // Every attribute is read-only
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+  }
+
+  // Every attribute is read-only
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  // There are no operations
+  public Object invoke(String action, Object[] params, String[] signature) 
+      throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(action));
+  }
+
+  // Describes the attributes getAttribute knows
+  public MBeanInfo getMBeanInfo() {
+    String[] suffixes = {"Calls", "P50Nanos", "P99Nanos", "MaxNanos", "BytesPerCall"};
+    MBeanAttributeInfo[] attributes = 
+        new MBeanAttributeInfo[1 + this.nanos.length * suffixes.length];
+    attributes[0] = new MBeanAttributeInfo("FishCount", "long", "Fish after the last tick", 
+        true, false, false);
+    for (int p = 0; p < this.nanos.length; p += 1) {
+      for (int s = 0; s < suffixes.length; s += 1) {
+        attributes[1 + p * suffixes.length + s] = new MBeanAttributeInfo(
+            TickProfiler.PHASES[p] + suffixes[s], "long", suffixes[s] + " of " 
+            + TickProfiler.PHASES[p], true, false, false);
+      }
+    }
+    return new MBeanInfo(TickProfiler.class.getName(), "Tick phase timers of a pond", 
+        attributes, null, null, null);
+  }
+}
+
+// Class representing the JFR event of one timed phase of a pond tick
+@Name("FeedingFrenzy.Phase")
+@Label("Pond Tick Phase")
+@Category("FeedingFrenzy")
+class PondPhaseEvent extends Event {
+  @Label("Phase")
+  String phase;
+
+  @Label("Duration")
+  @Timespan(Timespan.NANOSECONDS)
+  long nanos;
+
+  @Label("Allocated")
+  @DataAmount
+  long allocatedBytes;
+
+  @Label("Fish")
+  int fishCount;
+}
+
+// Class representing a histogram of durations in nanoseconds. Values are kept in
+// buckets that double in width every 16 buckets, so any recorded value is known 
+// to within 1/16 of itself while the whole range of a long fits in 1024 counts.
+class LatencyHistogram {
+  static final int SUB_BITS = 4;
+  static final int SUB_COUNT = 1 << LatencyHistogram.SUB_BITS;
+
+  long[] counts;
+  long total;
+  long max;
+
+  /*
+   * Fields:
+   * ... this.counts ... -- long[]
+   * ... this.total ...  -- long
+   * ... this.max ...    -- long
+   * Methods:
+   * ... this.record(long) ...       -- void
+   * ... this.merge(LatencyHistogram) ... -- void
+   * ... this.percentile(double) ... -- long
+   * ... LatencyHistogram.bucket(long) ... -- int
+   * ... LatencyHistogram.lowest(int) ...  -- long
+   */
+
+  LatencyHistogram() {
+    this.counts = new long[1024];
+    this.total = 0;
+    this.max = 0;
+  }
+
+  // Adds one duration
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    this.counts[LatencyHistogram.bucket(value)] += 1;
+    this.total += 1;
+    this.max = Math.max(this.max, value);
+  }
+
+  // Adds every duration recorded in the given histogram
+  void merge(LatencyHistogram other) {
+    for (int i = 0; i < this.counts.length; i += 1) {
+      this.counts[i] += other.counts[i];
+    }
+    this.total += other.total;
+    this.max = Math.max(this.max, other.max);
+  }
+
+  // The smallest value of the bucket holding the given percentile, 0 when empty
+  long percentile(double percent) {
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * this.total));
+    long seen = 0;
+    for (int i = 0; i < this.counts.length; i += 1) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return LatencyHistogram.lowest(i);
+      }
+    }
+    return 0;
+  }
+
+  // The index of the bucket holding the given non-negative value
+  static int bucket(long value) {
+    if (value < LatencyHistogram.SUB_COUNT) {
+      return (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - LatencyHistogram.SUB_BITS)) 
+        & (LatencyHistogram.SUB_COUNT - 1);
+    return (exp - LatencyHistogram.SUB_BITS + 1) * LatencyHistogram.SUB_COUNT + sub;
+  }
+
+  // The smallest value that falls in the given bucket
+  static long lowest(int bucket) {
+    if (bucket < LatencyHistogram.SUB_COUNT) {
+      return bucket;
+    }
+    int exp = bucket / LatencyHistogram.SUB_COUNT + LatencyHistogram.SUB_BITS - 1;
+    long sub = bucket % LatencyHistogram.SUB_COUNT;
+    return (LatencyHistogram.SUB_COUNT + sub) << (exp - LatencyHistogram.SUB_BITS);
+  }
+}
+
+// Class representing the versioned binary snapshot of a PondWorld. All values are
+// little-endian ints unless noted. A fixed header holds the tick counter, every
+// PlayerFish field, the random source, the pond's bounds (0 in snapshots older 
+// than them, for an 800x600 pond) and the sizes of what follows: the palette 
+// as ARGB values, then one packed column per ArrayLoFish field. Loading copies 
+// each column straight out of a memory-mapped file into the arrays of the pond,
+// except the ticks each fish has left in its direction, which are scheduled.
+// Since version 2 the fish are followed by the SnackField, its spawn settings 
+// and a column per snack field, and by every event still scheduled, so a speed
+// boost running when the pond was saved still wears off once it is loaded.
+class PondSnapshot {
+  static final int MAGIC = 0x4e534646; // "FFSN" in file order
+  static final int VERSION = 2; // 2: snacks and events
+  static final int HEADER_BYTES = 96;
+  static final int COLUMNS = 7; // x, y, dx, dy, size, timeLeft, color
+  static final int SNACK_HEADER = 5; // period, batch, limit, snack count, event count
+  static final int SNACK_COLUMNS = 5; // kind, x, y, amount, duration
+  static final int EVENT_COLUMNS = 4; // kind, due tick, period, amount
+
+  /*
+   * Methods:
+   * ... PondSnapshot.byteSize(PondWorld) ...          -- int
+   * ... PondSnapshot.write(ByteBuffer, PondWorld) ... -- void
+   * ... PondSnapshot.read(ByteBuffer) ...             -- PondWorld
+   * ... PondSnapshot.save(Path, PondWorld) ...        -- void
+   * ... PondSnapshot.load(Path) ...                   -- PondWorld
+   * ... PondSnapshot.arrayFish(PondWorld) ...         -- ArrayLoFish
+   * ... PondSnapshot.main(String[]) ...               -- void
+   */
+
+  // The bytes taken by the snapshot of world
+  static int byteSize(PondWorld world) {
+    ArrayLoFish fish = PondSnapshot.arrayFish(world);
+    return PondSnapshot.HEADER_BYTES 
+        + 4 * (fish.paletteSize + PondSnapshot.COLUMNS * fish.count + PondSnapshot.SNACK_HEADER
+            + PondSnapshot.SNACK_COLUMNS * world.snacks.count 
+            + PondSnapshot.EVENT_COLUMNS * world.events.wheel.size);
+  }
+
+  // Writes the snapshot of world at the position of out, leaving out just past it.
+  // A ConsLoFish pond is written as the ArrayLoFish holding the same fish.
+  static void write(ByteBuffer out, PondWorld world) {
+    ArrayLoFish fish = PondSnapshot.arrayFish(world);
+    fish.settle(); // so the x and y columns are where the fish are now
+    PlayerFish p = world.player;
+    ByteBuffer buf = out.slice().order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(PondSnapshot.MAGIC).putInt(PondSnapshot.VERSION).putInt(world.tickCounter)
+        .putInt(p.size).putInt(p.color.getRGB()).putInt(p.x).putInt(p.y)
+        .putInt(p.dx).putInt(p.dy).putInt(p.score).putInt(p.lives).putInt(p.speed)
+        .putDouble(p.inertia).putLong(world.rand.seed).putLong(world.rand.gamma)
+        .putInt(fish.count).putInt(fish.paletteSize).putInt(fish.grid.cellSize)
+        .putInt(p.bounds.width).putInt(p.bounds.height);
+    buf.position(PondSnapshot.HEADER_BYTES);
+    IntBuffer ints = buf.asIntBuffer();
+    for (int c = 0; c < fish.paletteSize; c += 1) {
+      ints.put(fish.palette[c].getRGB());
+    }
+    int[][] columns = {fish.x, fish.y, fish.dx, fish.dy, fish.size};
+    for (int[] column : columns) {
+      ints.put(column, 0, fish.count);
+    }
+    for (int i = 0; i < fish.count; i += 1) {
+      ints.put(fish.timeLeft(i));
+    }
+    ints.put(fish.color, 0, fish.count);
+    SnackField snacks = world.snacks;
+    PondEvents events = world.events;
+    ints.put(snacks.period).put(snacks.batch).put(snacks.limit).put(snacks.count)
+        .put(events.wheel.size);
+    for (int k = 0; k < snacks.count; k += 1) {
+      ints.put(snacks.kind[k]);
+    }
+    int[][] snackColumns = {snacks.x, snacks.y, snacks.amount, snacks.duration};
+    for (int[] column : snackColumns) {
+      ints.put(column, 0, snacks.count);
+    }
+    for (int id = 0; id < events.count; id += 1) {
+      if (events.wheel.scheduled[id]) {
+        ints.put(events.kind[id]).put(events.wheel.deadline[id]).put(events.period[id])
+            .put(events.amount[id]);
+      }
+    }
+    out.position(out.position() + PondSnapshot.HEADER_BYTES + ints.position() * 4);
+  }
+
+  // Reads the snapshot at the position of in, leaving in just past it. The pond 
+  // and its fish share a random source in the saved state. A version 1 snapshot,
+  // which has no snacks, loads with none and with the spawns of a new pond.
+  static PondWorld read(ByteBuffer in) throws IOException {
+    ByteBuffer buf = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+    if (buf.remaining() < PondSnapshot.HEADER_BYTES || buf.getInt() != PondSnapshot.MAGIC) {
+      throw new IOException("Not a pond snapshot");
+    }
+    int version = buf.getInt();
+    if (version != 1 && version != PondSnapshot.VERSION) {
+      throw new IOException("Unsupported snapshot version: " + version);
+    }
+    int tickCounter = buf.getInt();
+    int size = buf.getInt();
+    Color color = new Color(buf.getInt(), true);
+    int x = buf.getInt();
+    int y = buf.getInt();
+    int dx = buf.getInt();
+    int dy = buf.getInt();
+    int score = buf.getInt();
+    int lives = buf.getInt();
+    int speed = buf.getInt();
+    double inertia = buf.getDouble();
+    FishRandom rand = new FishRandom(buf.getLong(), buf.getLong());
+    int count = buf.getInt();
+    int paletteSize = buf.getInt();
+    int cellSize = buf.getInt();
+    int width = buf.getInt();
+    int height = buf.getInt();
+    // snapshots from before ponds had bounds leave them 0
+    PondBounds bounds = width > 0 && height > 0 ? new PondBounds(width, height) 
+        : PondBounds.WINDOW;
+    long bytes = PondSnapshot.HEADER_BYTES 
+        + 4L * (paletteSize + PondSnapshot.COLUMNS * (long) count);
+    if (count < 0 || paletteSize < 0 || bytes > buf.capacity()) {
+      throw new IOException("Truncated pond snapshot");
+    }
+    buf.position(PondSnapshot.HEADER_BYTES);
+    IntBuffer ints = buf.asIntBuffer();
+    ArrayLoFish fish = new ArrayLoFish(Math.max(count, 16), rand, bounds);
+    for (int c = 0; c < paletteSize; c += 1) {
+      fish.colorIndex(new Color(ints.get(), true));
+    }
+    int[][] columns = {fish.x, fish.y, fish.dx, fish.dy, fish.size};
+    for (int[] column : columns) {
+      ints.get(column, 0, count);
+    }
+    for (int i = 0; i < count; i += 1) {
+      fish.turns.schedule(i, Math.max(0, ints.get()));
+    }
+    ints.get(fish.color, 0, count);
+    fish.count = count;
+    fish.rebuildGrid(cellSize);
+    for (int i = 0; i < count; i += 1) {
+      fish.sizes.add(fish.size[i]);
+    }
+    PlayerFish player = 
+        new PlayerFish(size, color, x, y, dx, dy, score, lives, inertia, speed, bounds);
+    if (version == 1) {
+      in.position(in.position() + (int) bytes);
+      return new PondWorld(fish, player, tickCounter, rand);
+    }
+    bytes += 4L * PondSnapshot.SNACK_HEADER;
+    if (bytes > buf.capacity()) {
+      throw new IOException("Truncated pond snapshot");
+    }
+    SnackField snacks = new SnackField(ints.get(), ints.get(), ints.get(), bounds);
+    int snackCount = ints.get();
+    int eventCount = ints.get();
+    bytes += 4L * (PondSnapshot.SNACK_COLUMNS * (long) snackCount 
+        + PondSnapshot.EVENT_COLUMNS * (long) eventCount);
+    if (snackCount < 0 || eventCount < 0 || bytes > buf.capacity()) {
+      throw new IOException("Truncated pond snapshot");
+    }
+    byte[] kinds = new byte[snackCount];
+    for (int k = 0; k < snackCount; k += 1) {
+      kinds[k] = (byte) ints.get();
+    }
+    int[][] snackColumns = new int[4][snackCount];
+    for (int[] column : snackColumns) {
+      ints.get(column);
+    }
+    for (int k = 0; k < snackCount; k += 1) {
+      snacks.add(kinds[k], snackColumns[0][k], snackColumns[1][k], snackColumns[2][k], 
+          snackColumns[3][k]);
+    }
+    PondWorld world = new PondWorld(fish, player, tickCounter, rand, snacks);
+    world.events = new PondEvents();
+    for (int e = 0; e < eventCount; e += 1) {
+      world.events.add((byte) ints.get(), ints.get(), ints.get(), ints.get());
+    }
+    in.position(in.position() + (int) bytes);
+    return world;
+  }
+
+  // Saves the snapshot of world to file through a memory mapping
+  static void save(Path file, PondWorld world) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      PondSnapshot.write(channel.map(FileChannel.MapMode.READ_WRITE, 0, 
+          PondSnapshot.byteSize(world)), world);
+    }
+  }
+
+  // Loads the snapshot in file through a memory mapping
+  static PondWorld load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return PondSnapshot.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  // The fish of world as an ArrayLoFish
+  static ArrayLoFish arrayFish(PondWorld world) {
+    return world.fish instanceof ArrayLoFish ? (ArrayLoFish) world.fish 
+        : new ArrayLoFish(world.fish, world.player.bounds);
+  }
+  // Saves a random pond and times loading it back: PondSnapshot [file] [fish] [seed]
+  public static void main(String[] args) throws IOException {
+    Path file = Paths.get(args.length > 0 ? args[0] : "pond.snapshot");
+    int fishCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+    long start = System.nanoTime();
+    PondWorld world = HeadlessRunner.randomPond(fishCount, seed);
+    long built = System.nanoTime();
+    PondSnapshot.save(file, world);
+    long saved = System.nanoTime();
+    PondWorld loaded = PondSnapshot.load(file);
+    long done = System.nanoTime();
+    System.out.println(fishCount + " fish, " + Files.size(file) + " bytes: generated in " 
+        + (built - start) / 1000000 + " ms, saved in " + (saved - built) / 1000000 
+        + " ms, loaded in " + (done - saved) / 1000000 + " ms, " 
+        + (PondJournal.hash(loaded) == PondJournal.hash(world) ? "identical" : "DIFFERENT"));
+  }
+}
+
+// Class representing an append-only binary journal of a game, written by 
+// PondWorld.step whether the game is played at the keyboard or headlessly: the 
+// seed, a PondSnapshot of the pond it started from, and the keys that steered 
+// each step, coalesced as PondWorld.keys holds them. A step is stored as a varint 
+// of the steps since the previous entry and its keys as their one-byte PlayerFish
+// key bits; steps without keys are not stored. Each entry is flushed, so the 
+// journal of a game whose window is closed replays up to its last keys.
+// Closing the journal appends an end entry (a key byte of 0) with the number of
+// steps run and a hash of the final state, which replay checks.
+class PondJournal {
+  static final int MAGIC = 0x46464a4c; // "FFJL"
+  static final int VERSION = 4; // 2: the starting pond is a PondSnapshot, 3: keys per step,
+                                // 4: the hash covers the snacks and events
+  static final String PROPERTY = "feedingfrenzy.journal"; // file to journal the game to
+  static final String[] KEY_NAMES = {null, "left", "right", null, "up", null, null, null, 
+    "down"};
+
+  DataOutputStream out;
+  int startTick; // tick counter of the starting pond
+  int lastTick;  // steps from the start to the last entry written
+  boolean ended; // the end entry has been written
+
+  /*
+   * Fields:
+   * ... this.out ...       -- DataOutputStream
+   * ... this.startTick ... -- int
+   * ... this.lastTick ...  -- int
+   * ... this.ended ...     -- boolean
+   * Methods:
+   * ... this.step(int, int) ...       -- void
+   * ... this.end(PondWorld) ...       -- void
+   * ... PondJournal.writePond(DataOutputStream, PondWorld) ... -- void
+   * ... PondJournal.readPond(DataInputStream) ...  -- PondWorld
+   * ... PondJournal.writeVarint(DataOutputStream, int) ... -- void
+   * ... PondJournal.readVarint(DataInputStream) ...  -- int
+   * ... PondJournal.hash(PondWorld) ...              -- long
+   * ... PondJournal.replay(InputStream) ...          -- JournalReplay
+   * ... PondJournal.main(String[]) ...               -- void
+   */
+
+  // Starts a journal of a game of start played from the given seed, writing its 
+  // header and starting pond
+  PondJournal(OutputStream out, PondWorld start, long seed) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    this.startTick = start.tickCounter;
+    this.lastTick = 0;
+    this.ended = false;
+    this.out.writeInt(PondJournal.MAGIC);
+    this.out.writeByte(PondJournal.VERSION);
+    this.out.writeLong(seed);
+    PondJournal.writePond(this.out, start);
+    this.out.flush();
+  }
+
+  // Appends the PlayerFish key bits that steer the step of the pond at the given 
+  // tick counter
+  void step(int tick, int keys) throws IOException {
+    if (keys == 0 || this.ended) {
+      return; // the step is steered by no key
+    }
+    int steps = tick - this.startTick;
+    PondJournal.writeVarint(this.out, steps - this.lastTick);
+    this.out.writeByte(keys);
+    this.out.flush();
+    this.lastTick = steps;
+  }
+
+  // Appends the end entry for the game that reached world, and closes the journal.
+  // A journal already closed is left as it is.
+  void end(PondWorld world) throws IOException {
+    if (this.ended) {
+      return;
+    }
+    PondJournal.writeVarint(this.out, world.tickCounter - this.startTick - this.lastTick);
+    this.out.writeByte(0);
+    this.out.writeLong(PondJournal.hash(world));
+    this.out.close();
+    this.ended = true;
+  }
+
+  // Writes the snapshot of a pond, preceded by its length
+  static void writePond(DataOutputStream out, PondWorld world) throws IOException {
+    ByteBuffer snapshot = ByteBuffer.allocate(PondSnapshot.byteSize(world));
+    PondSnapshot.write(snapshot, world);
+    out.writeInt(snapshot.capacity());
+    out.write(snapshot.array());
+  }
+
+  // Reads a pond written by writePond
+  static PondWorld readPond(DataInputStream in) throws IOException {
+    byte[] snapshot = new byte[in.readInt()];
+    in.readFully(snapshot);
+    return PondSnapshot.read(ByteBuffer.wrap(snapshot));
+  }
+
+  // Writes a non-negative int in 7-bit groups, low group first
+  static void writeVarint(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  // Reads an int written by writeVarint
+  static int readVarint(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Varint too long");
+  }
+
+  // A hash of everything that decides how a pond plays on: the tick counter, the
+  // player, every fish and snack in order, the scheduled events and the state of 
+  // the random source. The events are summed, as their ids follow the order they 
+  // were scheduled in rather than the play.
+  static long hash(PondWorld world) {
+    PlayerFish p = world.player;
+    long h = FishRandom.mix64(world.tickCounter);
+    long[] player = {p.size, p.color.getRGB(), p.x, p.y, p.dx, p.dy, p.score, p.lives, 
+        Double.doubleToLongBits(p.inertia), p.speed, world.rand.seed};
+    for (long v : player) {
+      h = FishRandom.mix64(h ^ v);
+    }
+    ArrayLoFish fish = world.fish instanceof ArrayLoFish ? (ArrayLoFish) world.fish 
+        : new ArrayLoFish(world.fish, p.bounds);
+    h = FishRandom.mix64(h ^ fish.count);
+    for (int i = 0; i < fish.count; i += 1) {
+      h = FishRandom.mix64(h ^ fish.currentX(i) ^ ((long) fish.currentY(i) << 16) 
+          ^ ((long) fish.size[i] << 32));
+      h = FishRandom.mix64(h ^ fish.dx[i] ^ ((long) fish.dy[i] << 8) 
+          ^ ((long) fish.timeLeft(i) << 16) ^ ((long) fish.palette[fish.color[i]].getRGB() << 32));
+    }
+    SnackField snacks = world.snacks;
+    h = FishRandom.mix64(h ^ snacks.count);
+    for (int k = 0; k < snacks.count; k += 1) {
+      h = FishRandom.mix64(h ^ snacks.kind[k] ^ ((long) snacks.x[k] << 8) 
+          ^ ((long) snacks.y[k] << 32));
+      h = FishRandom.mix64(h ^ snacks.amount[k] ^ ((long) snacks.duration[k] << 32));
+    }
+    PondEvents events = world.events;
+    long scheduled = 0;
+    for (int id = 0; id < events.count; id += 1) {
+      if (events.wheel.scheduled[id]) {
+        scheduled += FishRandom.mix64(FishRandom.mix64(events.kind[id] 
+            ^ ((long) events.wheel.deadline[id] << 8)) ^ events.period[id] 
+            ^ ((long) events.amount[id] << 32));
+      }
+    }
+    return FishRandom.mix64(h ^ scheduled);
+  }
+
+  // Plays a journal back through a HeadlessRunner as fast as the CPU allows. A 
+  // journal cut short, with no end entry, plays up to its last key.
+  static JournalReplay replay(InputStream input) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+    if (in.readInt() != PondJournal.MAGIC) {
+      throw new IOException("Not a pond journal");
+    }
+    int version = in.readUnsignedByte();
+    if (version != PondJournal.VERSION) {
+      throw new IOException("Unsupported journal version: " + version);
+    }
+    long seed = in.readLong();
+    PondWorld start = PondJournal.readPond(in);
+    KeyScript script = new KeyScript();
+    int tick = 0;
+    boolean ended = false;
+    long expected = 0;
+    try {
+      while (!ended) {
+        tick += PondJournal.readVarint(in);
+        int keys = in.readUnsignedByte();
+        if (keys == 0) {
+          expected = in.readLong();
+          ended = true;
+        } 
+        else {
+          // one key per axis, which PlayerFish.press coalesces back into keys
+          for (int bit = 1; bit < PondJournal.KEY_NAMES.length; bit <<= 1) {
+            if ((keys & bit) != 0) {
+              script.press(tick, PondJournal.KEY_NAMES[bit]);
+            }
+          }
+        }
+      }
+    } 
+    catch (EOFException e) {
+      // the game was cut short
+    }
+    HeadlessRunner runner = new HeadlessRunner(start, seed, script);
+    runner.run(tick);
+    return new JournalReplay(runner, ended, expected, PondJournal.hash(runner.world));
+  }
+
+  // Records or checks games:
+  // PondJournal record [file] [ticks] [fish] [seed]  plays a random game into file
+  // PondJournal replay [file]                        replays file and checks its hash
+  public static void main(String[] args) throws IOException {
+    Path file = Paths.get(args.length > 1 ? args[1] : "pond.journal");
+    if (args.length > 0 && args[0].equals("record")) {
+      int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+      int fishCount = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+      long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+      HeadlessRunner runner = new HeadlessRunner(HeadlessRunner.randomPond(fishCount, seed), 
+          seed, KeyScript.random(seed, ticks, 10));
+      runner.world.record(Files.newOutputStream(file), seed);
+      System.out.println(runner.run(ticks).report());
+      runner.world.journal.end(runner.world);
+      System.out.println(Files.size(file) + " bytes written to " + file);
+    } 
+    else {
+      long start = System.nanoTime();
+      JournalReplay replay;
+      try (InputStream in = Files.newInputStream(file)) {
+        replay = PondJournal.replay(in);
+      }
+      System.out.println(replay.runner.report());
+      System.out.println(replay.report() + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+  }
+}
+
+// Class representing the outcome of replaying a PondJournal
+class JournalReplay {
+  HeadlessRunner runner;
+  boolean complete; // the journal had its end entry
+  long expected;    // the hash recorded in the end entry
+  long actual;      // the hash of the replayed game
+
+  /*
+   * Fields:
+   * ... this.runner ...   -- HeadlessRunner
+   * ... this.complete ... -- boolean
+   * ... this.expected ... -- long
+   * ... this.actual ...   -- long
+   * Methods:
+   * ... this.matches() ... -- boolean
+   * ... this.report() ...  -- String
+   */
+
+  JournalReplay(HeadlessRunner runner, boolean complete, long expected, long actual) {
+    this.runner = runner;
+    this.complete = complete;
+    this.expected = expected;
+    this.actual = actual;
+  }
+
+  // Whether the replay ended in exactly the recorded state
+  boolean matches() {
+    return this.complete && this.expected == this.actual;
+  }
+
+  // A readable verdict
+  String report() {
+    if (!this.complete) {
+      return "journal has no end entry, replayed " + this.runner.ticks + " ticks";
+    }
+    return (this.matches() ? "replay matches" : "REPLAY DIVERGED") + ": " 
+        + this.runner.ticks + " ticks, hash " + Long.toHexString(this.actual);
+  }
+}
+
+// Class representing a host running many independent games at once, each one a 
+// HeadlessRunner stepped on its own virtual thread. With a period, one shared 
+// scheduler hands every game a tick permit at that fixed rate, and a game that 
+// falls behind catches up on the permits it has missed; with a period of 0 the 
+// games run as fast as they can.
+class PondHost {
+  HeadlessRunner[] games;
+  int maxTicks;
+  long periodNanos;
+  Semaphore[] permits;        // ticks each game is allowed to run
+  LatencyHistogram[] latency; // time taken by each game's steps
+  long elapsedNanos;
+
+  /*
+   * Fields:
+   * ... this.games ...        -- HeadlessRunner[]
+   * ... this.maxTicks ...     -- int
+   * ... this.periodNanos ...  -- long
+   * ... this.permits ...      -- Semaphore[]
+   * ... this.latency ...      -- LatencyHistogram[]
+   * ... this.elapsedNanos ... -- long
+   * Methods:
+   * ... this.run() ...             -- PondHost
+   * ... this.play(int) ...         -- void
+   * ... this.release() ...         -- void
+   * ... this.totalTicks() ...      -- long
+   * ... this.ticksPerSecond() ...  -- double
+   * ... this.latency() ...         -- LatencyHistogram
+   * ... this.outcome(int) ...      -- String
+   * ... this.report(boolean) ...   -- String
+   * ... PondHost.main(String[]) ... -- void
+   */
+
+  PondHost(HeadlessRunner[] games, int maxTicks, long periodNanos) {
+    this.games = games;
+    this.maxTicks = maxTicks;
+    this.periodNanos = periodNanos;
+    this.permits = new Semaphore[games.length];
+    this.latency = new LatencyHistogram[games.length];
+    for (int i = 0; i < games.length; i += 1) {
+      this.permits[i] = new Semaphore(0);
+      this.latency[i] = new LatencyHistogram();
+    }
+    this.elapsedNanos = 0;
+  }
+
+  // A host for gameCount random ponds of fishCount fish, game i playing a random 
+  // key script from seed + i
+  PondHost(int gameCount, int fishCount, long seed, int maxTicks, long periodNanos) {
+    this(new HeadlessRunner[gameCount], maxTicks, periodNanos);
+    for (int i = 0; i < gameCount; i += 1) {
+      this.games[i] = new HeadlessRunner(HeadlessRunner.randomPond(fishCount, seed + i), 
+          seed + i, KeyScript.random(seed + i, maxTicks, 10));
+    }
+  }
+
+  // Plays every game until it ends or has run maxTicks ticks
+  PondHost run() {
+    long start = System.nanoTime();
+    ScheduledExecutorService clock = null;
+    if (this.periodNanos > 0) {
+      clock = Executors.newSingleThreadScheduledExecutor();
+      clock.scheduleAtFixedRate(this::release, 0, this.periodNanos, TimeUnit.NANOSECONDS);
+    }
+    try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < this.games.length; i += 1) {
+        int game = i;
+        threads.execute(() -> this.play(game));
+      }
+    } // closing waits for every game
+    finally {
+      if (clock != null) {
+        clock.shutdownNow();
+      }
+    }
+    this.elapsedNanos += System.nanoTime() - start;
+    return this;
+  }
+
+  // Steps game i, waiting for a tick permit first when the host runs at a fixed rate
+  void play(int i) {
+    HeadlessRunner runner = this.games[i];
+    LatencyHistogram times = this.latency[i];
+    long start = System.nanoTime();
+    try {
+      boolean ended = runner.state != PondWorld.PLAYING;
+      while (!ended && runner.ticks < this.maxTicks) {
+        if (this.periodNanos > 0) {
+          this.permits[i].acquire();
+        }
+        long before = System.nanoTime();
+        ended = runner.step();
+        times.record(System.nanoTime() - before);
+      }
+    } 
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    runner.elapsedNanos += System.nanoTime() - start;
+  }
+
+  // Gives every game one more tick, run by the scheduler once per period
+  void release() {
+    for (Semaphore permit : this.permits) {
+      permit.release();
+    }
+  }
+
+  // The ticks run by all games together
+  long totalTicks() {
+    long sum = 0;
+    for (HeadlessRunner runner : this.games) {
+      sum += runner.ticks;
+    }
+    return sum;
+  }
+
+  // Ticks run by all games per second of wall-clock time spent in run
+  double ticksPerSecond() {
+    return this.elapsedNanos == 0 ? 0 : this.totalTicks() * 1e9 / this.elapsedNanos;
+  }
+
+  // The step times of all games together
+  LatencyHistogram latency() {
+    LatencyHistogram all = new LatencyHistogram();
+    for (LatencyHistogram times : this.latency) {
+      all.merge(times);
+    }
+    return all;
+  }
+
+  // How game i ended: won, lost or still playing, with its final score
+  String outcome(int i) {
+    HeadlessRunner runner = this.games[i];
+    return (runner.state == PondWorld.LOST ? "lost" 
+        : runner.state == PondWorld.WON ? "won" : "still playing")
+        + ", score " + runner.world.player.score + ", ticks " + runner.ticks;
+  }
+
+  // A readable summary of the run, with one line per game when perGame is true
+  String report(boolean perGame) {
+    int won = 0;
+    int lost = 0;
+    for (HeadlessRunner runner : this.games) {
+      won += runner.state == PondWorld.WON ? 1 : 0;
+      lost += runner.state == PondWorld.LOST ? 1 : 0;
     }
+    LatencyHistogram all = this.latency();
+    StringBuilder sb = new StringBuilder();
+    sb.append(this.games.length).append(" games, ").append(this.totalTicks()).append(" ticks, ")
+        .append(String.format("%.0f", this.ticksPerSecond())).append(" ticks/s")
+        .append("\ntick latency p50 ").append(all.percentile(50))
+        .append(" ns, p99 ").append(all.percentile(99))
+        .append(" ns, max ").append(all.max).append(" ns")
+        .append("\nwon ").append(won).append(", lost ").append(lost)
+        .append(", still playing ").append(this.games.length - won - lost);
+    if (perGame) {
+      for (int i = 0; i < this.games.length; i += 1) {
+        sb.append("\ngame ").append(i).append(": ").append(this.outcome(i));
+      }
+    }
+    return sb.toString();
   }
 
+  // Runs many random ponds at once: 
+  // PondHost [games] [ticks] [fish] [ticksPerSecond] [seed] [perGame]
+  public static void main(String[] args) {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int fishCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    int rate = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+    boolean perGame = args.length > 5 && Boolean.parseBoolean(args[5]);
+    PondHost host = new PondHost(games, fishCount, seed, ticks, 
+        rate > 0 ? 1000000000L / rate : 0);
+    System.out.println(host.run().report(perGame));
+  }
 }
 
-// Class representing the player-controlled fish
-class PlayerFish extends AFish {
+// Class representing one remote player of a PondServer: their own pond, the keys
+// they sent since the last tick, and what they were last told about their game
+class PondSession {
+  static final int MAX_KEYS = 64; // keys kept per tick, later ones are dropped
+
+  int id;
+  SocketChannel channel;
+  PondWorld world;
+  byte[] keys;   // inbound key codes, oldest first
+  int keyCount;
+  int state;     // PondWorld.PLAYING, LOST or WON
+  int[] sent;    // field values of the last delta, see PondServer.FIELDS
+  ByteBuffer out; // outbound deltas not yet written to the channel
+
   /*
-   * fields:
-   *  ... this.x ... -- int
-   *  ... this.y ... -- int
-   *  ... this.size ... -- int
-   *  ... this.color ... -- Color
-   *  ... this.rand ... -- Random
-   *  ... this.inertia ... -- double
-   *  ... this.speed ... -- int
-   *  ... this.score ... -- int
-   *  ... this.dx ... -- int
-   *  ... this.dy ... -- int
-   *  ... this.lives ... -- int
-   * methods:
-   *  ... this.draw() ... --WorldImage
-   *  ... this.getX() ... --int
-   *  ... this.getY() ... -- int
-   *  ... this.getSize() ... int
-   *  ... this.canEat(IFish) ... -- boolean
-   *  ... this.move(String) ... --PlayerFish
-   *  ... this.move() ... --PlayerFish
-   *  ... this.PlayerIsEaten(ILoFish) ... --boolean
-   *  ... this.eatFish(ILoFish) ... -- PlayerFish
-   *  ... this.eatSnack(ISnack) ... -- PlayerFish
-   * methods for fields:
-   *  none
+   * Fields:
+   * ... this.id ...       -- int
+   * ... this.channel ...  -- SocketChannel
+   * ... this.world ...    -- PondWorld
+   * ... this.keys ...     -- byte[]
+   * ... this.keyCount ... -- int
+   * ... this.state ...    -- int
+   * ... this.sent ...     -- int[]
+   * ... this.out ...      -- ByteBuffer
+   * Methods:
+   * ... this.queue(byte) ...     -- boolean
+   * ... this.step() ...          -- void
+   * ... this.writeDelta() ...    -- boolean
+   * ... this.flush() ...         -- boolean
    */
-  double inertia;
-  int speed;
-  int score;
-  int dx; // velocity in x direction
-  int dy; // velocity in y direction
-  int lives; // multiple lives for player
 
-  PlayerFish(int size, Color color, int x, int y, int dx, int dy, 
-      int score, int lives, double inertia, int speed) {
-    super(size, color, x, y);
-    this.dx = dx;
-    this.dy = dy;
-    this.score = score;
-    this.lives = lives;
-    this.inertia = inertia;
-    this.speed = speed;
+  PondSession(int id, SocketChannel channel, PondWorld world) {
+    this.id = id;
+    this.channel = channel;
+    this.world = world;
+    this.keys = new byte[PondSession.MAX_KEYS];
+    this.keyCount = 0;
+    this.state = PondWorld.PLAYING;
+    this.sent = new int[PondServer.FIELDS];
+    Arrays.fill(this.sent, Integer.MIN_VALUE); // the first delta sends every field
+    this.out = ByteBuffer.allocate(4096);
   }
 
-  PlayerFish(int size, Color color, int dx, int dy, int score, int lives) {
-    super(size, color);
-    this.dx = dx;
-    this.dy = dy;
-    this.score = score;
-    this.lives = lives;
-    this.inertia = 0.85;
-    this.speed = 10;
+  // Adds a key code to the inbound queue, returning false if the queue is full
+  boolean queue(byte key) {
+    if (this.keyCount == this.keys.length) {
+      return false;
+    }
+    this.keys[this.keyCount] = key;
+    this.keyCount += 1;
+    return true;
   }
 
-  PlayerFish(int size, Color color) {
-    this(size, color, 0, 0, 0, 3);
+  // Applies the queued keys in order, then runs one tick and the end of game rules
+  void step() {
+    for (int k = 0; k < this.keyCount; k += 1) {
+      int code = this.keys[k];
+      if (code >= 0 && code < PondServer.KEYS.length) {
+        this.world = (PondWorld) this.world.onKeyEvent(PondServer.KEYS[code]);
+      }
+    }
+    this.keyCount = 0;
+    this.world = this.world.step();
+    this.state = this.world.endState();
   }
 
-
-  // Move the player fish based on key input
-  // Moves the player fish based on key input (left, right, up, down).
-  public PlayerFish move(String key) {
-    if (key.equals("left")) {
-      this.dx = -this.speed;
+  // Appends a delta of the fields that changed since the last one to out. Returns 
+  // false if the client has fallen so far behind that out has no room left.
+  boolean writeDelta() {
+    PlayerFish player = this.world.player;
+    int[] now = {player.x, player.y, player.size, player.score, player.lives, this.state, 
+        this.world.result == null ? this.sent[6] : this.world.result.fishCount};
+    int mask = 0;
+    for (int f = 0; f < PondServer.FIELDS; f += 1) {
+      if (now[f] != this.sent[f]) {
+        mask |= 1 << f;
+      }
     }
-    if (key.equals("right")) {
-      this.dx = this.speed;
+    if (mask == 0) {
+      return true;
     }
-    if (key.equals("up")) {
-      this.dy = -this.speed;
+    if (this.out.remaining() < PondServer.frameLength(mask)) {
+      return false;
     }
-    if (key.equals("down")) {
-      this.dy = this.speed;
+    this.out.put((byte) mask);
+    for (int f = 0; f < PondServer.FIELDS; f += 1) {
+      if ((mask & (1 << f)) != 0) {
+        PondServer.putField(this.out, f, now[f]);
+        this.sent[f] = now[f];
+      }
     }
+    return true;
+  }
 
-    int newX = (this.x + this.dx + 800) % 800;
-    int newY = (this.y + this.dy + 600) % 600;
-
-    return new PlayerFish(this.size, this.color, newX, newY, 
-        this.dx, this.dy, this.score, this.lives, this.inertia, this.speed);
+  // Writes as much of out as the channel takes, returning true once it is all sent
+  boolean flush() throws IOException {
+    this.out.flip();
+    this.channel.write(this.out);
+    boolean done = !this.out.hasRemaining();
+    this.out.compact();
+    return done;
   }
+}
 
-  //Move the player fish based on its velocity
-  public PlayerFish move() {
-    if (this.inertia <= 0) {
-      this.inertia = 0;
+// Class representing a server hosting one pond per connected player. Clients send 
+// one byte per key press (an index into KEYS). Every tick of a fixed-timestep loop
+// the server applies each session's queued keys in order, ticks its pond, and sends
+// back a delta holding only the fields of the player's state that changed: a mask 
+// byte, then each field in the mask's bit order, sizes as in WIDTHS. Sessions whose
+// game has ended stop ticking; sessions whose client stops reading are closed.
+class PondServer {
+  static final String[] KEYS = {"up", "down", "left", "right"};
+  // x, y, size, score, lives, state, fish count
+  static final int FIELDS = 7;
+  static final int[] WIDTHS = {2, 2, 2, 4, 1, 1, 4};
+  static final int MAX_CATCH_UP = 5; // ticks run late before the loop skips ahead
+
+  ServerSocketChannel server;
+  Selector selector;
+  long periodNanos;
+  int fishCount;
+  long seed;
+  ArrayList<PondSession> sessions;
+  int nextId;
+  ByteBuffer readBuffer;     // shared by every read, since reads happen one at a time
+  long ticks;
+  long skippedTicks;         // ticks given up to catch up with the clock
+  long droppedKeys;          // keys beyond a session's MAX_KEYS in one tick
+  long closedSlow;           // sessions closed for not reading their deltas
+  LatencyHistogram jitter;   // how late each tick started
+  LatencyHistogram tickTime; // how long each tick of all sessions took
+
+  /*
+   * Fields:
+   * ... this.server ...       -- ServerSocketChannel
+   * ... this.selector ...     -- Selector
+   * ... this.periodNanos ...  -- long
+   * ... this.fishCount ...    -- int
+   * ... this.seed ...         -- long
+   * ... this.sessions ...     -- ArrayList<PondSession>
+   * ... this.nextId ...       -- int
+   * ... this.readBuffer ...   -- ByteBuffer
+   * ... this.ticks ...        -- long
+   * ... this.skippedTicks ... -- long
+   * ... this.droppedKeys ...  -- long
+   * ... this.closedSlow ...   -- long
+   * ... this.jitter ...       -- LatencyHistogram
+   * ... this.tickTime ...     -- LatencyHistogram
+   * Methods:
+   * ... this.port() ...              -- int
+   * ... this.poll(long) ...          -- void
+   * ... this.accept() ...            -- void
+   * ... this.read(PondSession) ...   -- void
+   * ... this.tickOnce() ...          -- void
+   * ... this.run(long) ...           -- PondServer
+   * ... this.drop(PondSession) ...   -- void
+   * ... this.close() ...             -- void
+   * ... this.report() ...            -- String
+   * ... PondServer.frameLength(int) ...             -- int
+   * ... PondServer.putField(ByteBuffer, int, int) ... -- void
+   * ... PondServer.decode(ByteBuffer, int[]) ...    -- boolean
+   * ... PondServer.main(String[]) ...               -- void
+   */
+
+  // A server on the given port (0 for any free one) ticking every periodNanos, or
+  // as fast as it can if that is 0, giving each session a random pond of fishCount 
+  // fish
+  PondServer(int port, long periodNanos, int fishCount, long seed) throws IOException {
+    if (periodNanos < 0) {
+      throw new IllegalArgumentException("Tick period must not be negative: " + periodNanos);
     }
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+    this.server.configureBlocking(false);
+    this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+    this.periodNanos = periodNanos;
+    this.fishCount = fishCount;
+    this.seed = seed;
+    this.sessions = new ArrayList<PondSession>();
+    this.nextId = 0;
+    this.readBuffer = ByteBuffer.allocate(4096);
+    this.ticks = 0;
+    this.skippedTicks = 0;
+    this.droppedKeys = 0;
+    this.closedSlow = 0;
+    this.jitter = new LatencyHistogram();
+    this.tickTime = new LatencyHistogram();
+  }
 
-    int newDx = (int) (this.dx * this.inertia);
-    int newDy = (int) (this.dy * this.inertia);
+  // The port the server listens on
+  int port() throws IOException {
+    return ((InetSocketAddress) this.server.getLocalAddress()).getPort();
+  }
 
-    // Ensure fish stays within bounds
-    int newX = (this.x + newDx + 800) % 800;
-    int newY = (this.y + newDy + 600) % 600;
+  // Handles the connections, key bytes and pending writes that are ready, waiting 
+  // up to timeoutMillis for the first of them (not at all when 0)
+  void poll(long timeoutMillis) throws IOException {
+    if (timeoutMillis > 0) {
+      this.selector.select(timeoutMillis);
+    } 
+    else {
+      this.selector.selectNow();
+    }
+    Iterator<SelectionKey> ready = this.selector.selectedKeys().iterator();
+    while (ready.hasNext()) {
+      SelectionKey key = ready.next();
+      ready.remove();
+      if (!key.isValid()) {
+        continue;
+      }
+      if (key.isAcceptable()) {
+        this.accept();
+        continue;
+      }
+      PondSession session = (PondSession) key.attachment();
+      try {
+        if (key.isReadable()) {
+          this.read(session);
+        }
+        if (key.isValid() && key.isWritable() && session.flush()) {
+          key.interestOps(SelectionKey.OP_READ);
+        }
+      } 
+      catch (IOException e) {
+        this.drop(session);
+      }
+    }
+  }
 
-    return new PlayerFish(this.size, this.color, newX, newY, 
-        newDx, newDy, this.score, this.lives, this.inertia, this.speed);
+  // Accepts every pending connection as a new session
+  void accept() throws IOException {
+    SocketChannel channel = this.server.accept();
+    while (channel != null) {
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      int id = this.nextId;
+      this.nextId += 1;
+      PondSession session = new PondSession(id, channel, 
+          HeadlessRunner.randomPond(this.fishCount, this.seed + id));
+      channel.register(this.selector, SelectionKey.OP_READ, session);
+      this.sessions.add(session);
+      channel = this.server.accept();
+    }
   }
 
-  // Checks if the player fish is eaten by any background fish
-  public boolean playerIsEaten(ILoFish fish) {
-    /*
-     * fields:
-     *  ... this.x ... -- int
-     *  ... this.y ... -- int
-     *  ... this.size ... -- int
-     *  ... this.color ... -- Color
-     *  ... this.rand ... -- Random
-     *  ... this.inertia ... -- double
-     *  ... this.speed ... -- int
-     *  ... this.score ... -- int
-     *  ... this.dx ... -- int
-     *  ... this.dy ... -- int
-     *  ... this.lives ... -- int
-     * methods on fields: none
-     * methods for parameters:
-     * ... this.draw(WorldScene) ...           -- WorldScene
-     * ... this.move() ...                     -- ILoFish
-     * ... this.isEatenBy(PlayerFish) ...      -- boolean
-     * ... this.eats(PlayerFish) ...           -- boolean
-     * ... this.filterEaten(PlayerFish) ...    -- ILoFish
-     * ... this.isPlayerLargest(PlayerFish) ...-- boolean
-     */
-    return fish.eats(this);
+  // Queues the key bytes a session has sent, dropping it once its client hangs up
+  void read(PondSession session) throws IOException {
+    int n = session.channel.read(this.readBuffer);
+    while (n > 0) {
+      this.readBuffer.flip();
+      while (this.readBuffer.hasRemaining()) {
+        if (!session.queue(this.readBuffer.get())) {
+          this.droppedKeys += 1;
+        }
+      }
+      this.readBuffer.clear();
+      n = session.channel.read(this.readBuffer);
+    }
+    if (n < 0) {
+      this.drop(session);
+    }
   }
 
-  // If the player fish eats a smaller fish, it grows in size by the eaten fish
-  public PlayerFish eatFish(ILoFish fish) {
-    if (fish.isEatenBy(this)) {
-      return new PlayerFish(this.size, this.color, this.x, this.y,
-          this.dx, this.dy, this.score, this.lives, this.inertia, this.speed);
+  // Runs one tick of every session still playing and sends out their deltas
+  void tickOnce() {
+    long start = System.nanoTime();
+    int live = 0;
+    for (int i = 0; i < this.sessions.size(); i += 1) {
+      PondSession session = this.sessions.get(i);
+      if (session.state == PondWorld.PLAYING) {
+        session.step();
+      }
+      try {
+        if (!session.writeDelta()) {
+          this.closedSlow += 1;
+          session.channel.close();
+        } 
+        else if (session.out.position() > 0 && !session.flush()) {
+          session.channel.keyFor(this.selector).interestOps(
+              SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+      } 
+      catch (IOException e) {
+        try {
+          session.channel.close();
+        } 
+        catch (IOException ignored) {
+          // already closing
+        }
+      }
+      if (session.channel.isOpen()) {
+        this.sessions.set(live, session); // compact the open sessions to the front
+        live += 1;
+      }
     }
-    return this;
+    for (int i = this.sessions.size() - 1; i >= live; i -= 1) {
+      this.sessions.remove(i);
+    }
+    this.ticks += 1;
+    this.tickTime.record(System.nanoTime() - start);
   }
 
-  //Check for collision with a snack and apply its effect
-  public PlayerFish eatSnack(ISnack snack) {
-    /*
-     * fields:
-     *  ... this.x ... -- int
-     *  ... this.y ... -- int
-     *  ... this.size ... -- int
-     *  ... this.color ... -- Color
-     *  ... this.rand ... -- Random
-     *  ... this.inertia ... -- double
-     *  ... this.speed ... -- int
-     *  ... this.score ... -- int
-     *  ... this.dx ... -- int
-     *  ... this.dy ... -- int
-     *  ... this.lives ... -- int
-     * methods on fields: none
-     * methods for parameters:
-     * ... this.appleEffect(PlayerFish) ... -- PlayerFish
-     *  ... this.draw() ... --WorldImage
-     *  ... this.getX() ... --int
-     *  ... this.getY() ... --int
-     */
-    if (Math.abs(this.x - snack.getX()) < this.size / 2 
-        && Math.abs(this.y - snack.getY()) < this.size / 2) {
-      return snack.applyEffect(this);
+  // Serves sessions on a fixed timestep for maxTicks ticks. Between ticks the loop
+  // handles network events until the next tick is due; a tick that is more than 
+  // MAX_CATCH_UP periods late makes the loop skip ahead rather than run a burst.
+  // With a period of 0 there is no timestep: the loop handles the network events 
+  // that are ready and ticks again at once, the way PondHost runs without a period.
+  PondServer run(long maxTicks) throws IOException {
+    long next = System.nanoTime();
+    while (this.ticks < maxTicks) {
+      if (this.periodNanos == 0) {
+        this.poll(0);
+        this.tickOnce();
+        continue;
+      }
+      long wait = next - System.nanoTime();
+      while (wait > 0) {
+        if (wait >= 2000000) {
+          this.poll(wait / 1000000 - 1); // wake early, select only counts milliseconds
+        } 
+        else {
+          this.poll(0);
+          Thread.onSpinWait();
+        }
+        wait = next - System.nanoTime();
+      }
+      long late = -wait;
+      this.jitter.record(late);
+      this.tickOnce();
+      next += this.periodNanos;
+      if (late > this.periodNanos * PondServer.MAX_CATCH_UP) {
+        long behind = (System.nanoTime() - next) / this.periodNanos;
+        if (behind > 0) {
+          this.skippedTicks += behind;
+          next += behind * this.periodNanos;
+        }
+      }
     }
     return this;
   }
 
-  // Draws the player fish with the text "Player Fish" above it.
-  public WorldImage draw() {
-    WorldImage fishImage = super.draw();
-    WorldImage textImage = new TextImage("You", this.size / 6 + 10, FontStyle.BOLD, Color.BLACK);
-    return new OverlayImage(textImage, fishImage);
+  // Forgets a session whose connection is gone
+  void drop(PondSession session) {
+    try {
+      session.channel.close();
+    } 
+    catch (IOException e) {
+      // closing anyway
+    }
+    this.sessions.remove(session);
   }
-}
-
-// Interface for a list of fish
-interface ILoFish {
 
-  // Draws the world scene
-  WorldScene draw(WorldScene acc);
+  // Closes every session and stops listening
+  void close() throws IOException {
+    for (PondSession session : this.sessions) {
+      session.channel.close();
+    }
+    this.sessions.clear();
+    this.server.close();
+    this.selector.close();
+  }
 
-  // move the fish in the list
-  ILoFish move();
+  // A readable summary of the server's ticks
+  String report() {
+    return this.sessions.size() + " sessions, " + this.ticks + " ticks, " 
+        + this.skippedTicks + " skipped"
+        + "\ntick start jitter p50 " + this.jitter.percentile(50) + " ns, p99 " 
+        + this.jitter.percentile(99) + " ns, max " + this.jitter.max + " ns"
+        + "\ntick time p50 " + this.tickTime.percentile(50) + " ns, p99 " 
+        + this.tickTime.percentile(99) + " ns, max " + this.tickTime.max + " ns"
+        + "\ndropped keys " + this.droppedKeys + ", closed slow clients " + this.closedSlow;
+  }
 
-  // check if the fish is eaten by the player
-  boolean isEatenBy(PlayerFish player);
+  // The bytes taken by a delta with the given field mask
+  static int frameLength(int mask) {
+    int length = 1;
+    for (int f = 0; f < PondServer.FIELDS; f += 1) {
+      if ((mask & (1 << f)) != 0) {
+        length += PondServer.WIDTHS[f];
+      }
+    }
+    return length;
+  }
 
-  // check if the fish can eat the given fish
-  boolean eats(IFish fish);
+  // Writes field f with its width from WIDTHS
+  static void putField(ByteBuffer out, int f, int value) {
+    if (PondServer.WIDTHS[f] == 1) {
+      out.put((byte) value);
+    } 
+    else if (PondServer.WIDTHS[f] == 2) {
+      out.putShort((short) value);
+    } 
+    else {
+      out.putInt(value);
+    }
+  }
 
-  // eliminate the fish that are eaten by the player
-  ILoFish filterEaten(PlayerFish player);
+  // Reads one delta from in into the field values of fields, if in holds all of 
+  // it. Returns false, consuming nothing, when the delta is not complete yet.
+  static boolean decode(ByteBuffer in, int[] fields) {
+    if (!in.hasRemaining()) {
+      return false;
+    }
+    int mask = in.get(in.position()) & 0xFF;
+    if (in.remaining() < PondServer.frameLength(mask)) {
+      return false;
+    }
+    in.get();
+    for (int f = 0; f < PondServer.FIELDS; f += 1) {
+      if ((mask & (1 << f)) != 0) {
+        int width = PondServer.WIDTHS[f];
+        fields[f] = width == 1 ? in.get() : width == 2 ? in.getShort() : in.getInt();
+      }
+    }
+    return true;
+  }
 
-  // check if the player is the largest fish
-  boolean isPlayerLargest(PlayerFish player);
+  // Serves players on the loopback interface: 
+  // PondServer [port] [ticksPerSecond, 0 for as fast as possible] [fish] [seed] [ticks]
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+    int rate = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+    int fishCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+    long ticks = args.length > 4 ? Long.parseLong(args[4]) : Long.MAX_VALUE;
+    if (rate < 0) {
+      throw new IllegalArgumentException("Tick rate must not be negative: " + rate);
+    }
+    PondServer server = new PondServer(port, rate > 0 ? 1000000000L / rate : 0, fishCount, 
+        seed);
+    long reportEvery = rate > 0 ? rate * 10L : 100000; // every 10 seconds at a fixed rate
+    System.out.println("listening on " + server.port());
+    while (server.ticks < ticks) {
+      server.run(Math.min(ticks, server.ticks + reportEvery));
+      System.out.println(server.report());
+    }
+    server.close();
+  }
 }
 
-// Class representing an empty list of fish
-class MtLoFish implements ILoFish {
-  /* fields: none
+// Class representing a load generator that opens many sessions on a PondServer, 
+// presses random keys on them and decodes the deltas it gets back
+class PondLoadClient {
+  SocketChannel[] channels;
+  Selector selector;
+  ByteBuffer[] in;  // bytes received but not yet decoded, per session
+  int[][] fields;   // the player state each session has been told
+  FishRandom rand;
+  long keysSent;
+  long frames;
+  long bytes;
+
+  /*
+   * Fields:
+   * ... this.channels ... -- SocketChannel[]
+   * ... this.selector ... -- Selector
+   * ... this.in ...       -- ByteBuffer[]
+   * ... this.fields ...   -- int[][]
+   * ... this.rand ...     -- FishRandom
+   * ... this.keysSent ... -- long
+   * ... this.frames ...   -- long
+   * ... this.bytes ...    -- long
    * Methods:
-   * ... this.draw(WorldScene) ...           -- WorldScene
-   * ... this.move() ...                     -- ILoFish
-   * ... this.isEatenBy(PlayerFish) ...      -- boolean
-   * ... this.eats(PlayerFish) ...           -- boolean
-   * ... this.filterEaten(PlayerFish) ...    -- ILoFish
-   * ... this.isPlayerLargest(PlayerFish) ...-- boolean
+   * ... this.press(int) ...     -- void
+   * ... this.poll(long) ...     -- int
+   * ... this.close() ...        -- void
+   * ... PondLoadClient.main(String[]) ... -- void
    */
 
-  // Draws nothing and returns the unchanged world scene.
-  public WorldScene draw(WorldScene acc) {
-    return acc;
+  // Opens sessions connections to the server at address
+  PondLoadClient(InetSocketAddress address, int sessions, long seed) throws IOException {
+    this.channels = new SocketChannel[sessions];
+    this.selector = Selector.open();
+    this.in = new ByteBuffer[sessions];
+    this.fields = new int[sessions][PondServer.FIELDS];
+    this.rand = new FishRandom(seed);
+    for (int i = 0; i < sessions; i += 1) {
+      SocketChannel channel = SocketChannel.open(address);
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.register(this.selector, SelectionKey.OP_READ, i);
+      this.channels[i] = channel;
+      this.in[i] = ByteBuffer.allocate(4096);
+    }
+    this.keysSent = 0;
+    this.frames = 0;
+    this.bytes = 0;
   }
 
-  // Returns an empty list (no fish to move).
-  public ILoFish move() {
-    return this;
+  // Sends a random key on session i
+  void press(int i) throws IOException {
+    ByteBuffer key = ByteBuffer.wrap(new byte[] {(byte) this.rand.nextInt(PondServer.KEYS.length)});
+    this.channels[i].write(key);
+    this.keysSent += 1;
   }
 
+  // Reads and decodes what the server has sent, waiting up to timeoutMillis for it 
+  // (not at all when 0). Returns the number of deltas decoded.
+  int poll(long timeoutMillis) throws IOException {
+    if (timeoutMillis > 0) {
+      this.selector.select(timeoutMillis);
+    } 
+    else {
+      this.selector.selectNow();
+    }
+    int decoded = 0;
+    Iterator<SelectionKey> ready = this.selector.selectedKeys().iterator();
+    while (ready.hasNext()) {
+      SelectionKey key = ready.next();
+      ready.remove();
+      int i = (Integer) key.attachment();
+      ByteBuffer buffer = this.in[i];
+      int n = this.channels[i].read(buffer);
+      if (n < 0) {
+        key.cancel();
+        continue;
+      }
+      this.bytes += n;
+      buffer.flip();
+      while (PondServer.decode(buffer, this.fields[i])) {
+        decoded += 1;
+      }
+      buffer.compact();
+    }
+    this.frames += decoded;
+    return decoded;
+  }
 
-  // Returns false (no fish to be eaten by the player).
-  public boolean isEatenBy(PlayerFish player) {
-    return false;
+  // Closes every session
+  void close() throws IOException {
+    for (SocketChannel channel : this.channels) {
+      channel.close();
+    }
+    this.selector.close();
   }
 
-  // Returns false (no fish to eat the player).
-  public boolean eats(IFish fish) {
-    return false;
+  // Loads a server on the loopback interface, each session pressing a key about 
+  // once a second: PondLoadClient [port] [sessions] [seconds] [seed]
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+    int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+    PondLoadClient client = new PondLoadClient(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), sessions, seed);
+    long end = System.nanoTime() + seconds * 1000000000L;
+    long nextPress = System.nanoTime();
+    int pressed = 0;
+    while (System.nanoTime() < end) {
+      if (System.nanoTime() >= nextPress) {
+        client.press(pressed % sessions);
+        pressed += 1;
+        nextPress += 1000000000L / sessions;
+      }
+      client.poll(1);
+    }
+    System.out.println(sessions + " sessions, " + client.keysSent + " keys sent, " 
+        + client.frames + " deltas (" + client.bytes + " bytes) received");
+    client.close();
   }
+}
 
-  // Returns an empty list (no fish to filter).
-  public ILoFish filterEaten(PlayerFish player) {
-    return this;
+// Class representing the score of one benchmark at one pond size
+class BenchmarkScore {
+  String name;
+  int fishCount;
+  long ops;
+  double nsPerOp;
+  double bytesPerOp;
+
+  BenchmarkScore(String name, int fishCount, long ops, double nsPerOp, double bytesPerOp) {
+    this.name = name;
+    this.fishCount = fishCount;
+    this.ops = ops;
+    this.nsPerOp = nsPerOp;
+    this.bytesPerOp = bytesPerOp;
   }
 
-  //Returns true as there are no fish larger than the player.
-  public boolean isPlayerLargest(PlayerFish player) {
-    return true;
+  // One line of the results table
+  String format() {
+    return String.format("%-30s %8d %14.1f %14.1f", this.name, this.fishCount, this.nsPerOp, 
+        this.bytesPerOp);
   }
 }
 
-// Class representing a non-empty list of fish
-class ConsLoFish implements ILoFish {
-  IFish first;
-  ILoFish rest;
+// Class representing the benchmark suite for the tick, collision and render paths.
+// Every benchmark runs at each pond size, with warm-up iterations for the JIT, and
+// reports the time and the heap allocated per operation (like JMH's -prof gc 
+// gc.alloc.rate.norm), so engine changes are judged by the same numbers. The 
+// benchmarks module runs the same operations under JMH with -prof gc. The 
+// sparse benchmarks spread the same fish over a pond 10 times as wide and high, 
+// where the array fish, which only visit the fish whose events fall due, pull 
+// away from the off-heap fish, which move every fish on every tick; the serial 
+// one runs the array fish without their parallel chunks.
+class PondBenchmark {
+  static final int[] SIZES = {20, 1000, 10000, 100000};
+  static final String[] BENCHMARKS = {"PondWorld.step", "PondWorld.step[array]",
+    "PondWorld.step[array,serial]", "PondWorld.step[offheap]", "PondWorld.step[array,sparse]",
+    "PondWorld.step[offheap,sparse]", "ConsLoFish.filterEaten", "ConsLoFish.eats", 
+    "ConsLoFish.move", "ArrayLoFish.tick", "PondWorld.makeScene", "PondWorld.worldEnds"};
+  static final PondBounds SPARSE = new PondBounds(8000, 6000);
+  static volatile Object sink; // keeps benchmark results alive so they are not optimized away
+
+  int warmupIterations;
+  int measureIterations;
+  long iterationNanos;
+  PondWorld consWorld;  // the pond as a ConsLoFish, never changed by the benchmarks
+  PondWorld arrayWorld; // the pond as an ArrayLoFish, stepped by the array benchmarks
+  PondWorld offHeapWorld; // the pond as an OffHeapLoFish, stepped by its benchmark
+  PondWorld serialWorld;  // another ArrayLoFish pond that never runs in parallel
+  PondWorld sparseArrayWorld;   // the sparse pond as an ArrayLoFish
+  PondWorld sparseOffHeapWorld; // the sparse pond as an OffHeapLoFish
 
-  ConsLoFish(IFish first, ILoFish rest) {
-    this.first = first;
-    this.rest = rest;
-  }
-  /* 
+  /*
    * Fields:
-   * ... this.first ... -- IFish
-   * ... this.rest ...  -- ILoFish
+   * ... this.warmupIterations ...  -- int
+   * ... this.measureIterations ... -- int
+   * ... this.iterationNanos ...    -- long
+   * ... this.consWorld ...         -- PondWorld
+   * ... this.arrayWorld ...        -- PondWorld
+   * ... this.offHeapWorld ...      -- PondWorld
+   * ... this.serialWorld ...       -- PondWorld
+   * ... this.sparseArrayWorld ...  -- PondWorld
+   * ... this.sparseOffHeapWorld ... -- PondWorld
    * Methods:
-   * ... this.draw(WorldScene) ...           -- WorldScene
-   * ... this.move() ...                     -- ILoFish
-   * ... this.isEatenBy(PlayerFish) ...      -- boolean
-   * ... this.eats(IFish) ...                -- boolean
-   * ... this.filterEaten(PlayerFish) ...    -- ILoFish
-   * ... isPlayerLargerst(PlayerFish) ...    -- boolean
-   * Methods for fields:
-   * ... this.first.draw() ... --WorldImage
-   * ... this.first.move() ... -- IFish
-   * ... this.first.getX() ... --int
-   * ... this.first.getY() ... -- int
-   * ... this.first.getSize() ... int
-   * ... this.first.canEat(IFish) ... -- boolean
-   * ... this.rest.draw(WorldScene) ... -- WorldScene
-   * ... this.rest.move() ...  -- ILoFish
-   * ... this.rest.isEatenBy(PlayerFish) ... -- boolean
-   * ... this.rest.eats(PlayerFish) ... -- boolean
-   * ... this.rest.filterEaten(PlayerFish) ... -- ILoFish
-   * ... this.rest.isPlayerLargest(PlayerFish) ...-- boolean
+   * ... this.setUp(int) ...                   -- void
+   * ... PondBenchmark.steppedWorld(ILoFish, FishRandom, PondBounds) ... -- PondWorld
+   * ... this.operation(String) ...            -- Supplier<Object>
+   * ... this.measure(String, int) ...         -- BenchmarkScore
+   * ... PondBenchmark.toConsLoFish(ArrayLoFish) ... -- ILoFish
+   * ... PondBenchmark.main(String[]) ...      -- void
    */
 
-  // Draw the current fish and then recursively draw the rest of the fish in the list.
-  public WorldScene draw(WorldScene acc) {
-    return this.rest.draw(acc).placeImageXY(this.first.draw(), 
-        this.first.getX(), this.first.getY());
+  PondBenchmark(int warmupIterations, int measureIterations, long iterationMillis) {
+    this.warmupIterations = warmupIterations;
+    this.measureIterations = measureIterations;
+    this.iterationNanos = iterationMillis * 1000000;
   }
 
-  // Move the current fish and then recursively move the rest of the fish in the list.
-  public ILoFish move() {
-    return new ConsLoFish(this.first.move(), this.rest.move());
+  // Builds the ponds for the given number of fish. The player is too small to eat
+  // anything and the stepped ponds have no spawns scheduled, so the population stays
+  // the same however many operations run.
+  void setUp(int fishCount) {
+    ArrayLoFish fish = (ArrayLoFish) HeadlessRunner.randomPond(fishCount, 42).fish;
+    this.consWorld = new PondWorld(PondBenchmark.toConsLoFish(fish), 
+        new PlayerFish(1, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10), 1, fish.rand);
+    this.offHeapWorld = PondBenchmark.steppedWorld(new OffHeapLoFish(fish), fish.rand, 
+        PondBounds.WINDOW);
+    this.arrayWorld = PondBenchmark.steppedWorld(fish, fish.rand, PondBounds.WINDOW);
+    ArrayLoFish serial = (ArrayLoFish) HeadlessRunner.randomPond(fishCount, 42).fish;
+    serial.parallelThreshold = Integer.MAX_VALUE;
+    this.serialWorld = PondBenchmark.steppedWorld(serial, serial.rand, PondBounds.WINDOW);
+    ArrayLoFish sparse = 
+        (ArrayLoFish) HeadlessRunner.randomPond(fishCount, 42, PondBenchmark.SPARSE).fish;
+    this.sparseOffHeapWorld = PondBenchmark.steppedWorld(new OffHeapLoFish(sparse), 
+        sparse.rand, PondBenchmark.SPARSE);
+    this.sparseArrayWorld = 
+        PondBenchmark.steppedWorld(sparse, sparse.rand, PondBenchmark.SPARSE);
   }
 
-  // Check if the current fish is eaten by the player fish or 
-  // if any fish in the rest of the list is eaten by the player.
-  public boolean isEatenBy(PlayerFish player) {
-    /*
-     * methods for parameters:
-     * ... this.draw() ... --WorldImage
-     *  ... this.getX() ... --int
-     *  ... this.getY() ... -- int
-     *  ... this.getSize() ... int
-     *  ... this.canEat(IFish) ... -- boolean
-     *  ... this.move(String) ... --PlayerFish
-     *  ... this.move() ... --PlayerFish
-     *  ... this.PlayerIsEaten(ILoFish) ... --boolean
-     *  ... this.eatFish(ILoFish) ... -- PlayerFish
-     *  ... this.eatSnack(ISnack) ... -- PlayerFish
-     */
-    return player.canEat(this.first) || this.rest.isEatenBy(player);
+  // A pond of the given fish for a stepped benchmark, with a player in the middle
+  // too small to eat anything and no spawns
+  static PondWorld steppedWorld(ILoFish fish, FishRandom rand, PondBounds bounds) {
+    PondWorld world = new PondWorld(fish, new PlayerFish(1, Color.YELLOW, bounds.width / 2, 
+        bounds.height / 2, 0, 0, 0, 3, 0.85, 10, bounds), 1, rand);
+    world.events = new PondEvents();
+    return world;
   }
 
-  // Check if the current fish eats the player fish or if any fish in 
-  // the rest of the list eats the player.
-  public boolean eats(IFish fish) {
-    /*
-     * methods for parameters:
-     *  ... this.draw() ... --WorldImage
-     *  ... this.move() ... -- IFish
-     *  ... this.getX() ... --int
-     *  ... this.getY() ... -- int
-     *  ... this.getSize() ... int
-     *  ... this.canEat(IFish) ... -- boolean
-     */
-    return this.first.canEat(fish) || this.rest.eats(fish);
+  // The named benchmark, resolved once so that running it does not look it up. It
+  // reads the ponds of the last setUp when it runs.
+  Supplier<Object> operation(String name) {
+    switch (name) {
+      case "PondWorld.step":
+        return () -> this.consWorld.step();
+      case "PondWorld.step[array]":
+        return () -> this.arrayWorld = this.arrayWorld.step();
+      case "PondWorld.step[array,serial]":
+        return () -> this.serialWorld = this.serialWorld.step();
+      case "PondWorld.step[offheap]":
+        return () -> this.offHeapWorld = this.offHeapWorld.step();
+      case "PondWorld.step[array,sparse]":
+        return () -> this.sparseArrayWorld = this.sparseArrayWorld.step();
+      case "PondWorld.step[offheap,sparse]":
+        return () -> this.sparseOffHeapWorld = this.sparseOffHeapWorld.step();
+      case "ConsLoFish.filterEaten":
+        return () -> this.consWorld.fish.filterEaten(this.consWorld.player);
+      case "ConsLoFish.eats":
+        return () -> this.consWorld.fish.eats(this.consWorld.player);
+      case "ConsLoFish.move":
+        return () -> this.consWorld.fish.move();
+      case "ArrayLoFish.tick":
+        return () -> this.arrayWorld.fish.tick(this.arrayWorld.player, 
+            new TickResult(this.arrayWorld.player));
+      case "PondWorld.makeScene":
+        return () -> this.consWorld.makeScene();
+      case "PondWorld.worldEnds":
+        return () -> this.consWorld.worldEnds();
+      default:
+        throw new IllegalArgumentException("Unknown benchmark: " + name);
+    }
   }
 
-  // Filter out the current fish if it is eaten by the player fish and 
-  // recursively filter the rest of the fish in the list.
-  public ILoFish filterEaten(PlayerFish player) {
-
-    if (player.canEat(this.first)) {
-      player.size += this.first.getSize() / 5; // grow the player fish
-      player.score += this.first.getSize() / 5; // add score to the player fish
+  // Measures the named benchmark on a fresh pond of the given size
+  BenchmarkScore measure(String name, int fishCount) {
+    this.setUp(fishCount);
+    Supplier<Object> operation = this.operation(name);
+    long ops = 0;
+    long nanos = 0;
+    long bytes = 0;
+    for (int iteration = 0; iteration < this.warmupIterations + this.measureIterations; 
+        iteration += 1) {
+      long iterationOps = 0;
+      long startBytes = TickProfiler.allocatedBytes();
+      long start = System.nanoTime();
+      long now = start;
+      while (now - start < this.iterationNanos) {
+        PondBenchmark.sink = operation.get();
+        iterationOps += 1;
+        now = System.nanoTime();
+      }
+      if (iteration >= this.warmupIterations) {
+        ops += iterationOps;
+        nanos += now - start;
+        bytes += TickProfiler.allocatedBytes() - startBytes;
+      }
+    }
+    return new BenchmarkScore(name, fishCount, ops, (double) nanos / ops, (double) bytes / ops);
+  }
 
-      // The bigger the player gets, the harder it should become to accelerate 
-      // the fish and also to stop
-      player.inertia -= player.size / 100; 
-      return this.rest.filterEaten(player);
-    } 
-    else {
-      return new ConsLoFish(this.first, this.rest.filterEaten(player));
+  // The same fish, in the same order, as a ConsLoFish
+  static ILoFish toConsLoFish(ArrayLoFish fish) {
+    ILoFish list = new MtLoFish();
+    for (int i = fish.count - 1; i >= 0; i -= 1) {
+      list = new ConsLoFish(new BgFish(fish.size[i], fish.palette[fish.color[i]], 
+          fish.currentX(i), fish.currentY(i), fish.dx[i], fish.dy[i], fish.timeLeft(i), 
+          fish.rand), list);
     }
+    return list;
   }
 
-  //Checks if the player fish is the largest fish in the list.
-  public boolean isPlayerLargest(PlayerFish player) {
-    if (player.size >= this.first.getSize()) {
-      return this.rest.isPlayerLargest(player);
-    } 
-    else {
-      return false;
+  // Runs the suite: PondBenchmark [iterationMillis] [benchmark name filter] [sizes...]
+  public static void main(String[] args) {
+    long iterationMillis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+    String filter = args.length > 1 ? args[1] : "";
+    int[] sizes = PondBenchmark.SIZES;
+    if (args.length > 2) {
+      sizes = new int[args.length - 2];
+      for (int i = 2; i < args.length; i += 1) {
+        sizes[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+    PondBenchmark bench = new PondBenchmark(3, 5, iterationMillis);
+    System.out.println(String.format("%-30s %8s %14s %14s", "Benchmark", "fish", "ns/op", 
+        "B/op"));
+    for (String name : PondBenchmark.BENCHMARKS) {
+      if (name.contains(filter)) {
+        for (int fishCount : sizes) {
+          System.out.println(bench.measure(name, fishCount).format());
+        }
+      }
     }
   }
 }
@@ -844,10 +6377,19 @@ class ExamplesPondWorld {
   PondWorld world = new PondWorld(this.fishList, pf, 0);
 
   // Test the game using bigBang
-  boolean testBigBang(Tester t) {
+  boolean testBigBang(Tester t) throws IOException {
     // Runs the game using the bigBang method to initiate the game loop with a 
-    // window size of 800x600 and a tick rate of 0.1 seconds.
-    return this.world.bigBang(800, 600, 0.1);
+    // window size of 800x600 and a frame rate of 60 per second.
+    // The pond still steps every 0.1 seconds; the faster frames draw the motion 
+    // in between. Run with -Dfeedingfrenzy.profile=true to show the profiler's 
+    // figures next to the score and lives and to publish them over JMX, and with
+    // -Dfeedingfrenzy.journal=<file> to journal the game for PondJournal replay.
+    this.world.profiler = TickProfiler.fromProperty("bigBang");
+    String journal = System.getProperty(PondJournal.PROPERTY);
+    if (journal != null) {
+      this.world.record(Files.newOutputStream(Paths.get(journal)), System.nanoTime());
+    }
+    return this.world.bigBang(800, 600, 1.0 / 60);
   }
 
   // test the constructor
@@ -880,16 +6422,53 @@ class ExamplesPondWorld {
   // test the method createRandomFish
   boolean testCreateRandomFish(Tester t) {
     BgFish randomFish = this.world.createRandomFish();
+    OffHeapLoFish spawned = new OffHeapLoFish(16, FishRandom.SHARED, PondBounds.WINDOW);
+    for (int i = 0; i < 20000; i += 1) {
+      spawned.add(this.world.createRandomFish());
+    }
     return t.checkExpect(randomFish.size >= 10 && randomFish.size <= 100, true)
+        && t.checkExpect(Arrays.asList(PondWorld.SPAWN_COLORS).contains(randomFish.color), true)
+        && t.checkExpect(PondWorld.spawnColor(0, 0.5f, 0.999f), new Color(0, 145, 255))
+        && t.checkExpect(spawned.paletteSize <= PondWorld.SPAWN_COLORS.length, true)
         && t.checkExpect(randomFish.x, 0)
         && t.checkExpect(randomFish.y >= 0 && randomFish.y <= 600, true);
   }
 
   // test the method onKeyEvent
   boolean testOnKeyEvent(Tester t) {
-    PondWorld leftWorld = (PondWorld) this.world.onKeyEvent("left");
-    PlayerFish movedPlayer = this.pf.move("left");
-    return t.checkExpect(leftWorld.player, movedPlayer) && t.checkExpect(leftWorld.tickCounter, 1);
+    PondWorld pond = new PondWorld(new ArrayLoFish(), this.pf, 1);
+    PondWorld leftWorld = (PondWorld) pond.onKeyEvent("left");
+    pond.onKeyEvent("up");
+    pond.onKeyEvent("right");
+    pond.onKeyEvent("space");
+    int keys = pond.keys;
+    PondWorld next = (PondWorld) pond.onTick();
+    return t.checkExpect(leftWorld == pond, true)
+        && t.checkExpect(leftWorld.tickCounter, 1)
+        && t.checkExpect(leftWorld.player, this.pf)
+        && t.checkExpect(keys, PlayerFish.RIGHT | PlayerFish.UP)
+        && t.checkExpect(pond.keys, 0)
+        && t.checkExpect(next.tickCounter, 2)
+        && t.checkExpect(next.player.x, 408)
+        && t.checkExpect(next.player.y, 392)
+        && t.checkExpect(next.player.dx, 8);
+  }
+
+  // test the methods steer, keyBit and press in class playerfish
+  boolean testPlayerFishSteer(Tester t) {
+    PlayerFish moving = new PlayerFish(12, Color.YELLOW, 400, 300, 3, -4, 0, 3, 0.85, 10);
+    PlayerFish steered = moving.steer(PlayerFish.LEFT);
+    return t.checkExpect(steered.dx, -10)
+        && t.checkExpect(steered.dy, -4)
+        && t.checkExpect(steered.x, 400)
+        && t.checkExpect(moving.dx, 3)
+        && t.checkExpect(moving.steer(0).dx, 3)
+        && t.checkExpect(moving.steer(PlayerFish.DOWN | PlayerFish.RIGHT).dy, 10)
+        && t.checkExpect(PlayerFish.keyBit("down"), PlayerFish.DOWN)
+        && t.checkExpect(PlayerFish.keyBit("q"), 0)
+        && t.checkExpect(PlayerFish.press(PlayerFish.LEFT | PlayerFish.UP, PlayerFish.RIGHT), 
+            PlayerFish.RIGHT | PlayerFish.UP)
+        && t.checkExpect(PlayerFish.press(PlayerFish.LEFT, 0), PlayerFish.LEFT);
   }
 
   // test the method worldEnds 
@@ -1013,6 +6592,1490 @@ class ExamplesPondWorld {
     WorldImage image = snack.draw();
     return t.checkExpect(image, new CircleImage(10, OutlineMode.SOLID, Color.BLUE));
   }
+
+  // test the method feed in SnackField
+  boolean testSnackFieldFeed(Tester t) {
+    SnackField snacks = new SnackField();
+    snacks.add(new SizeSnack(402, 398, 3));
+    snacks.add(new SpeedSnack(396, 404, 2, 5));
+    snacks.add(new SizeSnack(420, 400, 2));
+    snacks.add(new SizeSnack(700, 100, 2));
+    PondEvents events = new PondEvents();
+    PlayerFish fed = snacks.feed(this.pf, 10, events);
+    int early = events.due(14);
+    int due = events.due(15);
+    int id = events.fired(0);
+    return t.checkExpect(fed.size, 15)
+        && t.checkExpect(fed.dx, 2)
+        && t.checkExpect(fed.dy, 2)
+        && t.checkExpect(fed.speed, 12)
+        && t.checkExpect(early, 0)
+        && t.checkExpect(due, 1)
+        && t.checkExpect(events.kind[id], PondEvents.BOOST_END)
+        && t.checkExpect(events.amount[id], 2)
+        && t.checkExpect(snacks.count, 2)
+        && t.checkExpect(snacks.x[0], 420)
+        && t.checkExpect(snacks.x[1], 700)
+        && t.checkExpect(snacks.eatenTotal, 2L)
+        && t.checkExpect(snacks.feed(this.pf, 20, events), this.pf)
+        && t.checkExpect(snacks.snack(1), new SizeSnack(700, 100, 2));
+  }
+
+  // test the method spawn in SnackField
+  boolean testSnackFieldSpawn(Tester t) {
+    SnackField snacks = new SnackField(10, 40, 30);
+    int spawned = snacks.spawn(40, new FishRandom(3));
+    int more = snacks.spawn(5, new FishRandom(4));
+    int speed = 0;
+    for (int i = 0; i < snacks.count; i += 1) {
+      speed += snacks.kind[i] == SnackField.SPEED ? 1 : 0;
+    }
+    return t.checkExpect(spawned, 30)
+        && t.checkExpect(more, 0)
+        && t.checkExpect(snacks.grid.gather(400, 300, 1000), 30)
+        && t.checkExpect(speed > 0 && speed < 30, true);
+  }
+
+  // test the method step in PondWorld with snacks in the pond: the snacks spawn
+  // on their ticks and a speed boost wears off after its duration
+  boolean testStepSnacks(Tester t) {
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10);
+    PondWorld pond = new PondWorld(new ArrayLoFish(), player, 4, new FishRandom(1), 
+        new SnackField(10, 5, 50));
+    pond.snacks.add(new SizeSnack(400, 300, 4));
+    pond.snacks.add(new SpeedSnack(402, 300, 3, 2));
+    pond.snacks.add(new SizeSnack(100, 100, 4));
+    PondWorld next = pond.step();
+    PondWorld spawned = next.step();
+    PondWorld worn = spawned.step();
+    return t.checkExpect(next.player.size, 24)
+        && t.checkExpect(next.player.speed, 13)
+        && t.checkExpect(next.snacks, pond.snacks)
+        && t.checkExpect(next.events, pond.events)
+        && t.checkExpect(spawned.player.speed, 13)
+        && t.checkExpect(spawned.snacks.count, 6)
+        && t.checkExpect(worn.player.speed, 10)
+        && t.checkExpect(worn.snacks.eatenTotal, 2L);
+  }
+
+  // test the class TimingWheel
+  boolean testTimingWheel(Tester t) {
+    TimingWheel wheel = new TimingWheel(4);
+    wheel.schedule(0, 5);
+    wheel.schedule(1, 5 + TimingWheel.SLOTS);
+    wheel.schedule(2, 5);
+    wheel.schedule(3, 7);
+    wheel.cancel(2);
+    wheel.relabel(3, 2);
+    int early = wheel.advance(4);
+    int due = wheel.advance(5);
+    int first = wheel.fired[0];
+    int later = wheel.advance(7);
+    int moved = wheel.fired[0];
+    int round = wheel.advance(5 + TimingWheel.SLOTS);
+    return t.checkExpect(early, 0)
+        && t.checkExpect(due, 1)
+        && t.checkExpect(first, 0)
+        && t.checkExpect(later, 1)
+        && t.checkExpect(moved, 2)
+        && t.checkExpect(round, 1)
+        && t.checkExpect(wheel.size, 0)
+        && t.checkExpect(wheel.firedTotal, 3L);
+  }
+
+  // test the class PondEvents
+  boolean testPondEvents(Tester t) {
+    PondEvents events = new PondEvents();
+    int spawn = events.every(PondEvents.SPAWN_FISH, 7, 100, 0);
+    int boost = events.add(PondEvents.BOOST_END, 50, 0, 3);
+    int due = events.due(50);
+    events.done(boost, 50);
+    int reused = events.add(PondEvents.BOOST_END, 60, 0, 1);
+    int spawns = events.due(100);
+    events.done(spawn, 100);
+    return t.checkExpect(due, 1)
+        && t.checkExpect(reused, boost)
+        && t.checkExpect(spawns, 1)
+        && t.checkExpect(events.wheel.deadline[spawn], 200)
+        && t.checkExpect(events.count, 2);
+  }
+
+  // test that the fish of an ArrayLoFish turn when their scheduled tick comes, the
+  // way a BgFish does when its time left runs out
+  boolean testArrayLoFishTurns(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish(16, new FishRandom(9));
+    arr.addFish(10, Color.RED, 100, 100, 1, 0, 2);
+    arr.addFish(10, Color.RED, 300, 300, -1, 0, 50);
+    arr.move();
+    arr.move();
+    int x = arr.currentX(0);
+    arr.move();
+    int still = arr.currentX(0);
+    int turned = arr.turns.firedTotal == 1 ? arr.timeLeft(0) : -1;
+    arr.remove(0);
+    return t.checkExpect(x, 102)
+        && t.checkExpect(still, 102)
+        && t.checkExpect(turned >= 0 && turned < 100, true)
+        && t.checkExpect(arr.currentX(0), 297)
+        && t.checkExpect(arr.timeLeft(0), 47)
+        && t.checkExpect(arr.turns.size, 1);
+  }
+
+  // test the constructor of ArrayLoFish
+  boolean testArrayLoFishConstructor(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish(this.fishList);
+    return t.checkExpect(arr.count, 20)
+        && t.checkExpect(arr.size[0], 24)
+        && t.checkExpect(arr.size[19], 10)
+        && t.checkExpect(new ArrayLoFish(this.mt).count, 0);
+  }
+
+  // test the method add in ILoFish
+  boolean testAdd(Tester t) {
+    IFish fish = new BgFish(10, Color.RED, 50, 60, 1, -1, 5);
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.add(fish);
+    return t.checkExpect(this.mt.add(fish), new ConsLoFish(fish, this.mt))
+        && t.checkExpect(arr.count, 1)
+        && t.checkExpect(arr.x[0], 50)
+        && t.checkExpect(arr.dy[0], -1)
+        && t.checkExpect(arr.palette[arr.color[0]], Color.RED);
+  }
+
+  // test the method move in ArrayLoFish
+  boolean testArrayLoFishMove(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(10, Color.RED, 799, 0, 2, -1, 5);
+    arr.addFish(10, Color.RED, 100, 100, 1, 1, 0);
+    ILoFish moved = arr.move();
+    return t.checkExpect(moved, arr)
+        && t.checkExpect(arr.currentX(0), 1)
+        && t.checkExpect(arr.currentY(0), 599)
+        && t.checkExpect(arr.timeLeft(0), 4)
+        && t.checkExpect(arr.currentX(1), 100)
+        && t.checkExpect(arr.dx[1] == 1 || arr.dx[1] == -1, true);
+  }
+
+  // test the method filterEaten in ArrayLoFish
+  boolean testArrayLoFishFilterEaten(Tester t) {
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(10, Color.RED, 105, 95, 1, 0, 5);
+    arr.addFish(30, Color.BLUE, 100, 100, 1, 0, 5);
+    arr.addFish(15, Color.GREEN, 500, 500, 1, 0, 5);
+    arr.filterEaten(player);
+    return t.checkExpect(arr.count, 2)
+        && t.checkExpect(arr.size[0], 15)
+        && t.checkExpect(arr.size[1], 30)
+        && t.checkExpect(player.size, 22)
+        && t.checkExpect(player.score, 2);
+  }
+
+  // test the methods isEatenBy, eats and isPlayerLargest in ArrayLoFish
+  boolean testArrayLoFishQueries(Tester t) {
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    ArrayLoFish prey = new ArrayLoFish();
+    prey.addFish(10, Color.RED, 105, 95, 1, 0, 5);
+    ArrayLoFish predator = new ArrayLoFish();
+    predator.addFish(30, Color.BLUE, 110, 90, 1, 0, 5);
+    return t.checkExpect(prey.isEatenBy(player), true)
+        && t.checkExpect(prey.eats(player), false)
+        && t.checkExpect(prey.isPlayerLargest(player), true)
+        && t.checkExpect(predator.isEatenBy(player), false)
+        && t.checkExpect(predator.eats(player), true)
+        && t.checkExpect(predator.isPlayerLargest(player), false)
+        && t.checkExpect(new ArrayLoFish(this.fishList).isPlayerLargest(this.pf), false);
+  }
+
+  // test the method draw in ArrayLoFish
+  boolean testArrayLoFishDraw(Tester t) {
+    ILoFish list = new ConsLoFish(new BgFish(10, Color.RED, 50, 60, 1, 0, 5),
+        new ConsLoFish(new BgFish(20, Color.BLUE, 70, 80, 1, 0, 5), this.mt));
+    return t.checkExpect(new ArrayLoFish(list).draw(new WorldScene(800, 600)),
+        list.draw(new WorldScene(800, 600)));
+  }
+
+  // test the method onTick with an ArrayLoFish pond
+  boolean testOnTickArrayLoFish(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish(this.fishList);
+    PondWorld newWorld = (PondWorld) new PondWorld(arr, this.pf, 0).onTick();
+    return t.checkExpect(newWorld.fish, arr)
+        && t.checkExpect(arr.count, 21)
+        && t.checkExpect(newWorld.tickCounter, 1);
+  }
+
+  // test the method gather in FishGrid, including neighbours across the wrap-around
+  boolean testFishGridGather(Tester t) {
+    FishGrid grid = new FishGrid(100, 4);
+    grid.insert(0, 795, 300);
+    grid.insert(1, 5, 300);
+    grid.insert(2, 400, 300);
+    grid.insert(3, 5, 595);
+    int n = grid.gather(10, 310, 20);
+    return t.checkExpect(n, 2)
+        && t.checkExpect(grid.found[0] + grid.found[1], 1)
+        && t.checkExpect(grid.gather(10, 10, 20), 1)
+        && t.checkExpect(grid.gather(10, 10, 800), 4);
+  }
+
+  // test the methods update, remove and relabel in FishGrid
+  boolean testFishGridUpdate(Tester t) {
+    FishGrid grid = new FishGrid(100, 3);
+    grid.insert(0, 50, 50);
+    grid.insert(1, 60, 60);
+    grid.insert(2, 450, 450);
+    grid.update(1, 450, 460);
+    boolean moved = grid.gather(450, 450, 10) == 2;
+    grid.remove(0);
+    grid.relabel(2, 0);
+    return t.checkExpect(moved, true)
+        && t.checkExpect(grid.gather(50, 50, 10), 0)
+        && t.checkExpect(grid.gather(450, 450, 10), 2)
+        && t.checkExpect(grid.cellOf[0], grid.cellAt(450, 450));
+  }
+
+  // test the method gatherArea in FishGrid, including areas across the wrap-around
+  // of a pond whose last cells are narrower
+  boolean testFishGridArea(Tester t) {
+    FishGrid grid = new FishGrid(100, 4, new PondBounds(850, 600));
+    grid.insert(0, 820, 10);
+    grid.insert(1, 130, 10);
+    grid.insert(2, 400, 300);
+    grid.insert(3, 230, 590);
+    int n = grid.gatherArea(790, 0, 200, 50);
+    Arrays.sort(grid.found, 0, n);
+    return t.checkExpect(n, 2)
+        && t.checkExpect(grid.found[0], 0)
+        && t.checkExpect(grid.found[1], 1)
+        && t.checkExpect(grid.gatherArea(-10, -10, 20, 20), 1)
+        && t.checkExpect(grid.gatherArea(0, 0, 5000, 5000), 4);
+  }
+
+  // test that ArrayLoFish keeps its grid in step with moves, removals and large fish
+  boolean testArrayLoFishGrid(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(10, Color.RED, 99, 50, 1, 0, 5);
+    arr.addFish(10, Color.BLUE, 700, 500, 1, 0, 5);
+    arr.move();
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 105, 50, 0, 0, 0, 3, 0.85, 10);
+    boolean eaten = arr.isEatenBy(player);
+    arr.filterEaten(player);
+    arr.addFish(150, Color.GREEN, 300, 300, 1, 0, 5);
+    return t.checkExpect(eaten, true)
+        && t.checkExpect(arr.count, 2)
+        && t.checkExpect(arr.grid.cellSize, 150)
+        && t.checkExpect(arr.eats(new PlayerFish(20, Color.YELLOW, 350, 350, 0, 0, 0, 3, 0.85, 10)),
+            true);
+  }
+
+  // test the methods of SizeIndex against counting by hand
+  boolean testSizeIndex(Tester t) {
+    SizeIndex index = new SizeIndex();
+    FishRandom rand = new FishRandom(4);
+    int[] sizes = new int[500];
+    for (int i = 0; i < sizes.length; i += 1) {
+      sizes[i] = rand.nextInt(300);
+      index.add(sizes[i]);
+    }
+    for (int i = 0; i < 250; i += 1) {
+      index.remove(sizes[i]);
+    }
+    int below = 0;
+    int above = 0;
+    int largest = -1;
+    for (int i = 250; i < sizes.length; i += 1) {
+      below += sizes[i] < 150 ? 1 : 0;
+      above += sizes[i] > 150 ? 1 : 0;
+      largest = Math.max(largest, sizes[i]);
+    }
+    SizeIndex single = new SizeIndex();
+    single.add(7);
+    single.remove(7);
+    return t.checkExpect(index.total, 250)
+        && t.checkExpect(index.countBelow(150), below)
+        && t.checkExpect(index.countAbove(150), above)
+        && t.checkExpect(index.largest, largest)
+        && t.checkExpect(index.countBelow(0), 0)
+        && t.checkExpect(index.countAbove(1000), 0)
+        && t.checkExpect(single.largest, -1)
+        && t.checkException(new IllegalArgumentException("Fish size must not be negative: -1"), 
+            single, "add", -1);
+  }
+
+  // test that ArrayLoFish keeps its size index through adds, eating and removal
+  boolean testArrayLoFishSizes(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(10, Color.RED, 405, 300, 0, 0, 50);
+    arr.addFish(60, Color.RED, 100, 100, 0, 0, 50);
+    arr.addFish(30, Color.RED, 700, 500, 0, 0, 50);
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10);
+    boolean before = arr.isPlayerLargest(player);
+    arr.filterEaten(player);
+    boolean noPrey = arr.isEatenBy(player);
+    int afterEating = arr.count;
+    PlayerFish tiny = new PlayerFish(5, Color.YELLOW, 700, 500, 0, 0, 0, 3, 0.85, 10);
+    arr.remove(1);
+    return t.checkExpect(before, false)
+        && t.checkExpect(afterEating, 2)
+        && t.checkExpect(noPrey, false)
+        && t.checkExpect(arr.eats(tiny), true)
+        && t.checkExpect(arr.sizes.total, 1)
+        && t.checkExpect(arr.sizes.largest, 30)
+        && t.checkExpect(arr.isPlayerLargest(new PlayerFish(30, Color.YELLOW, 0, 0, 0, 0, 0, 3, 
+            0.85, 10)), true);
+  }
+
+  // test the class FishSweep
+  boolean testFishSweep(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(50, Color.RED, 100, 100, 0, 0, 50);
+    arr.addFish(40, Color.RED, 120, 100, 0, 0, 50);
+    arr.addFish(30, Color.RED, 140, 100, 0, 0, 50);
+    arr.addFish(10, Color.RED, 795, 300, 0, 0, 50);
+    arr.addFish(20, Color.RED, 5, 300, 0, 0, 50);
+    arr.addFish(20, Color.RED, 400, 595, 0, 0, 50);
+    arr.addFish(20, Color.RED, 400, 10, 0, 0, 50);
+    FishSweep sweep = new FishSweep();
+    int eaten = sweep.resolve(arr);
+    return t.checkExpect(eaten, 3)
+        && t.checkExpect(arr.count, 4)
+        && t.checkExpect(arr.size[0], 64)
+        && t.checkExpect(arr.size[1], 22)
+        && t.checkExpect(arr.sizes.total, 4)
+        && t.checkExpect(arr.sizes.largest, 64)
+        && t.checkExpect(sweep.resolve(arr), 0)
+        && t.checkExpect(sweep.eatenTotal, 3L);
+  }
+
+  // test the method near in FishSweep against checking every pair
+  boolean testFishSweepNear(Tester t) {
+    ArrayLoFish arr = (ArrayLoFish) HeadlessRunner.randomPond(300, 7).fish;
+    arr.addFish(150, Color.RED, 790, 595, 0, 0, 5);
+    FishSweep sweep = new FishSweep();
+    sweep.sort(arr);
+    int missed = 0;
+    for (int i = 0; i < arr.count; i += 1) {
+      int found = sweep.near(arr, i);
+      for (int j = 0; j < arr.count; j += 1) {
+        if (arr.size[j] < arr.size[i] 
+            && TickResult.wrapDistance(arr.x[i], arr.x[j], 800) < arr.size[i]
+            && TickResult.wrapDistance(arr.y[i], arr.y[j], 600) < arr.size[i]) {
+          found -= 1;
+        }
+      }
+      missed += Math.abs(found);
+    }
+    return t.checkExpect(missed, 0);
+  }
+
+  // test the method tick in ArrayLoFish in the ecosystem mode
+  boolean testArrayLoFishEcosystem(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(30, Color.RED, 700, 500, 0, 0, 50);
+    arr.addFish(10, Color.RED, 710, 500, 0, 0, 50);
+    arr.sweep = new FishSweep();
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    TickResult result = new TickResult(player);
+    arr.tick(player, result);
+    return t.checkExpect(arr.count, 1)
+        && t.checkExpect(arr.size[0], 32)
+        && t.checkExpect(result.eatenCount, 0)
+        && t.checkExpect(player.size, 20);
+  }
+
+  // test the method tick in ILoFish
+  boolean testTick(Tester t) {
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    ILoFish list = new ConsLoFish(new BgFish(10, Color.RED, 105, 95, 1, 0, 5),
+        new ConsLoFish(new BgFish(30, Color.BLUE, 120, 100, -1, 0, 5), this.mt));
+    TickResult result = new TickResult(player);
+    ILoFish ticked = list.tick(player, result);
+    ArrayLoFish arr = new ArrayLoFish(list);
+    PlayerFish arrPlayer = new PlayerFish(20, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    TickResult arrResult = new TickResult(arrPlayer);
+    arr.tick(arrPlayer, arrResult);
+    BgFish survivor = (BgFish) ((ConsLoFish) ticked).first;
+    return t.checkExpect(((ConsLoFish) ticked).rest, this.mt)
+        && t.checkExpect(survivor.size, 30)
+        && t.checkExpect(survivor.x, 119)
+        && t.checkExpect(survivor.timeLeft, 4)
+        && t.checkExpect(player.size, 22)
+        && t.checkExpect(result.eatenCount, 1)
+        && t.checkExpect(result.fishCount, 1)
+        && t.checkExpect(result.predatorCount, 1)
+        && t.checkExpect(this.mt.tick(player, new TickResult(player)), this.mt)
+        && t.checkExpect(arr.count, 1)
+        && t.checkExpect(arr.currentX(0), 119)
+        && t.checkExpect(arrPlayer.size, 22)
+        && t.checkExpect(arrResult.eatenCount, 1);
+  }
+
+  // test that the fish of an ArrayLoFish are where moving them on every tick 
+  // would put them, that the grid keeps up with them, and that a tick only 
+  // handles the turns and cell crossings that fall due
+  boolean testArrayLoFishLazyMotion(Tester t) {
+    ArrayLoFish straight = new ArrayLoFish();
+    straight.addFish(10, Color.RED, 795, 5, 3, -2, 1000);
+    ArrayLoFish arr = (ArrayLoFish) HeadlessRunner.randomPond(2000, 11).fish;
+    PlayerFish player = new PlayerFish(1, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10);
+    int misplaced = 0;
+    for (int k = 0; k < 300; k += 1) {
+      straight.move();
+      arr.tick(player, new TickResult(player));
+      for (int i = 0; i < arr.count; i += 1) {
+        if (arr.grid.cellOf[i] != arr.grid.cellAt(arr.currentX(i), arr.currentY(i))) {
+          misplaced += 1;
+        }
+      }
+    }
+    return t.checkExpect(straight.currentX(0), (795 + 3 * 300) % 800)
+        && t.checkExpect(straight.currentY(0), Math.floorMod(5 - 2 * 300, 600))
+        && t.checkExpect(straight.x[0], 795)
+        && t.checkExpect(misplaced, 0)
+        && t.checkExpect(arr.turns.firedTotal + arr.crossings.firedTotal < 2000L * 300 / 10, 
+            true)
+        && t.checkExpect(ArrayLoFish.stepsToLeave(199, 1, 100, 800), 1)
+        && t.checkExpect(ArrayLoFish.stepsToLeave(100, -1, 100, 800), 1)
+        && t.checkExpect(ArrayLoFish.stepsToLeave(795, 2, 150, 800), 3)
+        && t.checkExpect(ArrayLoFish.stepsToLeave(5, 0, 100, 800), Integer.MAX_VALUE);
+  }
+
+  // test that ticks whose cell crossings are worked out in parallel chunks leave
+  // the fish, the grid and the crossings as the sequential ticks do
+  boolean testParallelTick(Tester t) {
+    ArrayLoFish seq = (ArrayLoFish) HeadlessRunner.randomPond(10000, 6).fish;
+    ArrayLoFish par = (ArrayLoFish) HeadlessRunner.randomPond(10000, 6).fish;
+    par.parallelThreshold = 1;
+    par.rebuildGrid(1); // cells of 1 pixel, so most fish cross every tick
+    seq.rebuildGrid(1);
+    PlayerFish seqPlayer = new PlayerFish(30, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10);
+    PlayerFish parPlayer = new PlayerFish(30, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10);
+    TickResult seqResult = new TickResult(seqPlayer);
+    TickResult parResult = new TickResult(parPlayer);
+    int mismatched = 0;
+    for (int k = 0; k < 20; k += 1) {
+      seq.tick(seqPlayer, seqResult);
+      par.tick(parPlayer, parResult);
+      for (int i = 0; i < Math.min(seq.count, par.count); i += 1) {
+        if (seq.currentX(i) != par.currentX(i) || seq.currentY(i) != par.currentY(i) 
+            || seq.grid.cellOf[i] != par.grid.cellOf[i] 
+            || seq.crossings.scheduled[i] != par.crossings.scheduled[i] 
+            || seq.crossings.deadline[i] != par.crossings.deadline[i]) {
+          mismatched += 1;
+        }
+      }
+    }
+    return t.checkExpect(par.count, seq.count)
+        && t.checkExpect(mismatched, 0)
+        && t.checkExpect(par.crossings.firedCount > ArrayLoFish.CHUNK, true)
+        && t.checkExpect(par.crossings.firedTotal, seq.crossings.firedTotal)
+        && t.checkExpect(parPlayer.size, seqPlayer.size)
+        && t.checkExpect(parResult.eatenCount, seqResult.eatenCount)
+        && t.checkExpect(parResult.predatorCount, seqResult.predatorCount);
+  }
+
+  // test that ecosystem ticks, which settle every fish in parallel chunks, repeat
+  // the sequential ones exactly from the same seed, and that a parallel settle 
+  // leaves every fish where it was
+  boolean testParallelTickDeterministic(Tester t) {
+    PondWorld a = HeadlessRunner.randomPond(9000, 5);
+    PondWorld b = HeadlessRunner.randomPond(9000, 5);
+    ((ArrayLoFish) a.fish).sweep = new FishSweep();
+    ((ArrayLoFish) b.fish).sweep = new FishSweep();
+    ((ArrayLoFish) b.fish).parallelThreshold = 1;
+    for (int k = 0; k < 3; k += 1) {
+      a = a.step();
+      b = b.step();
+    }
+    ArrayLoFish fish = (ArrayLoFish) HeadlessRunner.randomPond(9000, 5).fish;
+    fish.parallelThreshold = 1;
+    PlayerFish player = new PlayerFish(1, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10);
+    for (int k = 0; k < 10; k += 1) {
+      fish.tick(player, new TickResult(player));
+    }
+    int[] xs = new int[fish.count];
+    int[] ys = new int[fish.count];
+    for (int i = 0; i < fish.count; i += 1) {
+      xs[i] = fish.currentX(i);
+      ys[i] = fish.currentY(i);
+    }
+    fish.settle();
+    int unsettled = 0;
+    for (int i = 0; i < fish.count; i += 1) {
+      if (fish.since[i] < fish.now || fish.x[i] != xs[i] || fish.y[i] != ys[i] 
+          || fish.currentX(i) != xs[i]) {
+        unsettled += 1;
+      }
+    }
+    return t.checkExpect(PondJournal.hash(b), PondJournal.hash(a))
+        && t.checkExpect(fish.count > 2 * ArrayLoFish.CHUNK, true)
+        && t.checkExpect(unsettled, 0);
+  }
+
+  // test that a pond saved part way through plays on exactly as the original does
+  boolean testArrayLoFishLazySnapshot(Tester t) throws IOException {
+    PondWorld pond = HeadlessRunner.randomPond(500, 4);
+    pond.player = new PlayerFish(1, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10);
+    for (int k = 0; k < 37; k += 1) {
+      pond = pond.step();
+    }
+    ByteBuffer buf = ByteBuffer.allocate(PondSnapshot.byteSize(pond));
+    PondSnapshot.write(buf, pond);
+    buf.flip();
+    PondWorld copy = PondSnapshot.read(buf);
+    long saved = PondJournal.hash(copy);
+    long original = PondJournal.hash(pond);
+    for (int k = 0; k < 150; k += 1) {
+      pond = pond.step();
+      copy = copy.step();
+    }
+    return t.checkExpect(saved, original)
+        && t.checkExpect(PondJournal.hash(copy), PondJournal.hash(pond));
+  }
+
+  // test the records, palette and queries of OffHeapLoFish
+  boolean testOffHeapLoFish(Tester t) {
+    OffHeapLoFish fish = new OffHeapLoFish(1, new FishRandom(3), PondBounds.WINDOW);
+    fish.add(new BgFish(30, Color.RED, 100, 100, 1, -1, 5));
+    fish.add(new BgFish(8, Color.BLUE, 205, 200, -1, 1, 0));
+    fish.add(new BgFish(40, Color.RED, 799, 0, 1, -1, 7));
+    ArrayLoFish copy = fish.appendTo(new ArrayLoFish());
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 200, 200, 0, 0, 0, 3, 0.85, 10);
+    boolean eaten = fish.isEatenBy(player);
+    fish.filterEaten(player);
+    fish.move();
+    return t.checkExpect(fish.records.isDirect(), true)
+        && t.checkExpect(fish.records.capacity(), 4 * OffHeapLoFish.RECORD)
+        && t.checkExpect(fish.paletteSize, 2)
+        && t.checkExpect(copy.count, 3)
+        && t.checkExpect(copy.palette[copy.color[2]], Color.RED)
+        && t.checkExpect(copy.timeLeft(2), 7)
+        && t.checkExpect(eaten, true)
+        && t.checkExpect(fish.eats(player), false)
+        && t.checkExpect(fish.isPlayerLargest(player), false)
+        && t.checkExpect(player.size, 21)
+        && t.checkExpect(fish.count, 2)
+        && t.checkExpect(fish.x(0), 101)
+        && t.checkExpect(fish.y(0), 99)
+        && t.checkExpect(fish.x(1), 0)
+        && t.checkExpect(fish.y(1), 599)
+        && t.checkExpect(fish.timeLeft(1), 6)
+        && t.checkExpect(fish.color(1), Color.RED)
+        && t.checkException(
+            new IllegalArgumentException("Fish does not fit an off-heap record: size 40000, "
+                + "velocity 0,0, time left 0"), 
+            fish, "addFish", 40000, Color.RED, 0, 0, 0, 0, 0);
+  }
+
+  // test that an off-heap pond plays exactly as the same pond of ConsLoFish does
+  boolean testOffHeapLoFishTick(Tester t) {
+    PondWorld cons = HeadlessRunner.randomPond(400, 6);
+    cons = new PondWorld(PondBenchmark.toConsLoFish((ArrayLoFish) cons.fish), 
+        new PlayerFish(60, Color.YELLOW, 400, 300, 5, 3, 0, 3, 1.0, 10), 0, cons.rand);
+    PondWorld offHeap = HeadlessRunner.randomPond(400, 6);
+    offHeap = new PondWorld(new OffHeapLoFish((ArrayLoFish) offHeap.fish), 
+        new PlayerFish(60, Color.YELLOW, 400, 300, 5, 3, 0, 3, 1.0, 10), 0, offHeap.rand);
+    cons.events = new PondEvents(); // a spawn goes to the front of one and the end of the other
+    offHeap.events = new PondEvents();
+    boolean same = true;
+    for (int k = 0; k < 200; k += 1) {
+      cons = cons.step();
+      offHeap = offHeap.step();
+      same = same && PondJournal.hash(offHeap) == PondJournal.hash(cons)
+          && offHeap.result.fishCount == cons.result.fishCount
+          && offHeap.result.playerEaten == cons.result.playerEaten;
+    }
+    return t.checkExpect(same, true)
+        && t.checkExpect(offHeap.result.fishCount < 400, true)
+        && t.checkExpect(offHeap.fish.isPlayerLargest(offHeap.player), 
+            cons.fish.isPlayerLargest(cons.player));
+  }
+
+  // test the methods observe and finish in TickResult
+  boolean testTickResult(Tester t) {
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 795, 300, 10, 0, 0, 3, 0.85, 10);
+    TickResult result = new TickResult(player);
+    result.observe(10, 200, 300, player); // too small to ever eat the player
+    result.observe(40, 400, 300, player); // too far away
+    result.observe(40, 10, 300, player);  // close across the wrap-around
+    PlayerFish moved = player.move();
+    result.finish(moved);
+    return t.checkExpect(result.fishCount, 3)
+        && t.checkExpect(result.largestFish, 40)
+        && t.checkExpect(result.predatorCount, 1)
+        && t.checkExpect(moved.x, 3)
+        && t.checkExpect(result.playerEaten, true)
+        && t.checkExpect(result.playerLargest, false)
+        && t.checkExpect(TickResult.wrapDistance(795, 5, 800), 10);
+  }
+
+  // test the method advance in SimClock
+  boolean testSimClock(Tester t) {
+    SimClock clock = new SimClock(100, 3);
+    int first = clock.advance(1000);
+    int none = clock.advance(1050);
+    double half = clock.alpha;
+    int two = clock.advance(1260);
+    int capped = clock.advance(1960);
+    int later = clock.advance(1000001960);
+    return t.checkExpect(first, 1)
+        && t.checkExpect(none, 0)
+        && t.checkExpect(half, 0.5)
+        && t.checkExpect(two, 2)
+        && t.checkExpect(clock.alpha, 0.6)
+        && t.checkExpect(capped, 3)
+        && t.checkExpect(clock.dropped, 10000001L)
+        && t.checkExpect(clock.caughtUp, 5L)
+        && t.checkExpect(later, 3)
+        && t.checkExpect(clock.stepsPerSecond, 9L)
+        && t.checkExpect(clock.droppedPerSecond, 10000001L)
+        && t.checkExpect(clock.steps, 9L)
+        && t.checkExpect(SimClock.ahead(799, 3, 0.5, 800), 1)
+        && t.checkExpect(SimClock.ahead(0, -1, 0.6, 800), 799);
+  }
+
+  // test that onTick runs the steps its clock says are due and draws the fish 
+  // between steps
+  boolean testOnTickSteps(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(30, Color.RED, 100, 100, 4, 0, 50); // too big to eat, too far to eat us
+    PlayerFish player = new PlayerFish(12, Color.YELLOW, 400, 300, 10, 0, 0, 3, 1.0, 10);
+    PondWorld pond = new PondWorld(arr, player, 1);
+    PondWorld first = (PondWorld) pond.onTick();
+    first.clock.last -= first.clock.stepNanos * 5 / 2; // as if 2.5 steps had passed
+    PondWorld third = (PondWorld) first.onTick();
+    WorldScene scene = third.makeScene();
+    return t.checkExpect(first.tickCounter, 2)
+        && t.checkExpect(third.tickCounter, 4)
+        && t.checkExpect(arr.currentX(0), 112)
+        && t.checkExpect(third.player.x, 430)
+        && t.checkExpect(third.clock.alpha >= 0.5, true)
+        && t.checkExpect(third.view.x[0] >= 114, true)
+        && t.checkExpect(third.view.x[1] >= 435, true)
+        && t.checkExpect(third.makeScene() == scene, true)
+        && t.checkExpect(third.onTick() == third, true);
+  }
+
+  // test that the game's profiler is only turned on by its system property, can be
+  // registered again under the same name, and leaves its own JFR events out of the
+  // bytes it counts
+  boolean testTickProfilerOptIn(Tester t) throws JMException {
+    TickProfiler off = TickProfiler.fromProperty("testTickProfilerOptIn");
+    System.setProperty(TickProfiler.PROPERTY, "true");
+    TickProfiler first = TickProfiler.fromProperty("testTickProfilerOptIn");
+    TickProfiler second = TickProfiler.fromProperty("testTickProfilerOptIn");
+    System.clearProperty(TickProfiler.PROPERTY);
+    ObjectName name = new ObjectName("FeedingFrenzy:type=TickProfiler,name=" 
+        + ObjectName.quote("testTickProfilerOptIn"));
+    Object fishCount = ManagementFactory.getPlatformMBeanServer().getAttribute(name, 
+        "FishCount");
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    PondWorld pond = HeadlessRunner.randomPond(50, 3);
+    pond.profiler = new TickProfiler(true, false);
+    for (int i = 0; i < 5; i += 1) {
+      pond = pond.step();
+    }
+    long quiet = pond.profiler.eventBytes;
+    try (Recording recording = new Recording()) {
+      recording.enable(PondPhaseEvent.class);
+      recording.start();
+      for (int i = 0; i < 5; i += 1) {
+        pond = pond.step();
+      }
+    }
+    return t.checkExpect(off, TickProfiler.OFF)
+        && t.checkExpect(first.enabled && first.overlay, true)
+        && t.checkExpect(second.enabled, true)
+        && t.checkExpect(fishCount, 0L)
+        && t.checkExpect(quiet, 0L)
+        && t.checkExpect(pond.profiler.eventBytes > 0, true)
+        && t.checkExpect(pond.profiler.nanos[TickProfiler.TICK].total, 10L);
+  }
+
+  // test that an enabled TickProfiler times every phase of a tick and the overlay
+  // adds its lines to the scene
+  boolean testTickProfiler(Tester t) throws JMException {
+    PondWorld pond = HeadlessRunner.randomPond(50, 3);
+    pond.tickCounter = 0;
+    TickProfiler profiler = new TickProfiler(true, true).register("testTickProfiler");
+    pond.profiler = profiler;
+    for (int i = 0; i < 10; i += 1) {
+      pond = pond.step();
+    }
+    int nodes = pond.makeScene() == null ? -1 : pond.view.count;
+    pond.worldEnds();
+    Object fishCount = ManagementFactory.getPlatformMBeanServer().getAttribute(
+        new ObjectName("FeedingFrenzy:type=TickProfiler,name=\"testTickProfiler\""), "FishCount");
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+        new ObjectName("FeedingFrenzy:type=TickProfiler,name=\"testTickProfiler\""));
+    return t.checkExpect(profiler.nanos[TickProfiler.TICK].total, 10L)
+        && t.checkExpect(profiler.nanos[TickProfiler.FISH_TICK].total, 10L)
+        && t.checkExpect(profiler.nanos[TickProfiler.SPAWN].total, 1L)
+        && t.checkExpect(profiler.nanos[TickProfiler.PLAYER_MOVE].total, 10L)
+        && t.checkExpect(profiler.nanos[TickProfiler.MAKE_SCENE].total, 1L)
+        && t.checkExpect(profiler.nanos[TickProfiler.WORLD_ENDS].total, 1L)
+        && t.checkExpect(profiler.bytesPerCall(TickProfiler.TICK) > 0, true)
+        && t.checkExpect(profiler.fishCount, 51)
+        && t.checkExpect(fishCount, 51L)
+        && t.checkExpect(nodes, 51 + 1 + 2 + 3)
+        && t.checkExpect(profiler.overlayText()[0], "Fish: 51")
+        && t.checkExpect(profiler.getMBeanInfo().getAttributes().length, 36)
+        && t.checkExpect(TickProfiler.OFF.nanos.length, 0);
+  }
+
+  // test that worldEnds and makeScene read the tick result of onTick
+  boolean testWorldEndsTickResult(Tester t) {
+    PlayerFish player = new PlayerFish(50, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(10, Color.RED, 500, 500, 1, 0, 5);
+    PondWorld next = (PondWorld) new PondWorld(arr, player, 1).onTick();
+    WorldScene scene = next.makeScene();
+    return t.checkExpect(next.result.playerLargest, true)
+        && t.checkExpect(next.result.playerEaten, false)
+        && t.checkExpect(next.worldEnds().worldEnds, true)
+        && t.checkExpect(next.makeScene() == scene, true);
+  }
+
+  // test that every ILoFish operation handles a very long ConsLoFish without
+  // running out of stack, and keeps the list order
+  boolean testConsLoFishLongList(Tester t) {
+    ILoFish list = this.mt;
+    for (int i = 0; i < 200000; i += 1) {
+      list = new ConsLoFish(new BgFish(10 + i % 50, Color.RED, i % 800, 300, 1, 0, 50), list);
+    }
+    PlayerFish player = new PlayerFish(5, Color.YELLOW, 400, 100, 0, 0, 0, 3, 0.85, 10);
+    ILoFish moved = list.move();
+    ILoFish filtered = list.filterEaten(player);
+    ILoFish ticked = list.tick(player, new TickResult(player));
+    list.draw(new WorldScene(800, 600));
+    return t.checkExpect(list.isEatenBy(player), false)
+        && t.checkExpect(list.eats(player), false)
+        && t.checkExpect(list.isPlayerLargest(player), false)
+        && t.checkExpect(new ArrayLoFish(list).count, 200000)
+        && t.checkExpect(new ArrayLoFish(filtered).count, 200000)
+        && t.checkExpect(new ArrayLoFish(ticked).count, 200000)
+        && t.checkExpect(((ConsLoFish) moved).first.getX(), (199999 + 1) % 800)
+        && t.checkExpect(((ConsLoFish) filtered).first, ((ConsLoFish) list).first);
+  }
+
+  // test that filterEaten in ConsLoFish keeps the survivors in order
+  boolean testConsLoFishFilterOrder(Tester t) {
+    PlayerFish player = new PlayerFish(20, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    ILoFish list = new ConsLoFish(this.f8, 
+        new ConsLoFish(new BgFish(10, Color.RED, 105, 95, 1, 0, 5), 
+            new ConsLoFish(this.f9, this.mt)));
+    return t.checkExpect(list.filterEaten(player), 
+        new ConsLoFish(this.f8, new ConsLoFish(this.f9, this.mt)));
+  }
+
+  // test the method endState in PondWorld
+  boolean testEndState(Tester t) {
+    PlayerFish big = new PlayerFish(50, Color.YELLOW, 100, 100, 0, 0, 0, 3, 0.85, 10);
+    PlayerFish lastLife = new PlayerFish(5, Color.YELLOW, 100, 100, 0, 0, 0, 1, 0.85, 10);
+    PlayerFish twoLives = new PlayerFish(5, Color.YELLOW, 100, 100, 0, 0, 0, 2, 0.85, 10);
+    ILoFish predator = new ConsLoFish(new BgFish(30, Color.RED, 105, 100, 1, 0, 5), this.mt);
+    PondWorld restarted = new PondWorld(predator, twoLives, 0);
+    return t.checkExpect(new PondWorld(predator, big, 0).endState(), PondWorld.WON)
+        && t.checkExpect(new PondWorld(predator, lastLife, 0).endState(), PondWorld.LOST)
+        && t.checkExpect(restarted.endState(), PondWorld.PLAYING)
+        && t.checkExpect(restarted.player.lives, 1)
+        && t.checkExpect(restarted.player.x, 400);
+  }
+
+  // test that a player eaten on their last life during a frame of several steps 
+  // loses the game, however often the end of game rules are run afterwards
+  boolean testOnTickLastLife(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(60, Color.RED, 420, 300, 0, 0, 500);
+    PlayerFish player = new PlayerFish(12, Color.YELLOW, 400, 300, 0, 0, 0, 1, 0.85, 10);
+    PondWorld pond = new PondWorld(arr, player, 1);
+    pond.clock.started = true;
+    pond.clock.last = 0; // many steps are due
+    PondWorld next = (PondWorld) pond.onTick();
+    int lives = next.player.lives;
+    WorldEnd end = next.worldEnds();
+    return t.checkExpect(lives, 0)
+        && t.checkExpect(end.worldEnds, true)
+        && t.checkExpect(next.player.lives, 0)
+        && t.checkExpect(next.endState(), PondWorld.LOST)
+        && t.checkExpect(next.worldEnds().worldEnds, true);
+  }
+
+  // test the method press in KeyScript
+  boolean testKeyScript(Tester t) {
+    KeyScript script = new KeyScript().press(0, "left").press(3, "up");
+    KeyScript random = KeyScript.random(7, 100, 10);
+    return t.checkExpect(script.count, 2)
+        && t.checkExpect(script.keys[1], "up")
+        && t.checkException(new IllegalArgumentException("Key presses must be in tick order: 1"),
+            script, "press", 1, "down")
+        && t.checkExpect(random.count, 10)
+        && t.checkExpect(random.keys, KeyScript.random(7, 100, 10).keys);
+  }
+
+  // test the methods step and run in HeadlessRunner
+  boolean testHeadlessRunner(Tester t) {
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(30, Color.RED, 700, 500, 0, 0, 1000);
+    PondWorld pond = new PondWorld(arr, 
+        new PlayerFish(12, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10), 1);
+    HeadlessRunner runner = new HeadlessRunner(pond, 3, new KeyScript().press(2, "left"), 
+        true, 1).run(5);
+    return t.checkExpect(runner.ticks, 5)
+        && t.checkExpect(runner.state, PondWorld.PLAYING)
+        && t.checkExpect(runner.nextKey, 1)
+        && t.checkExpect(runner.world.player.x < 400, true)
+        && t.checkExpect(runner.sampleCount, 5)
+        && t.checkExpect(runner.fishSamples[4], 1);
+  }
+
+  // test that a runner gives a pond on the shared random numbers a stream of its 
+  // own rather than reseeding the shared one, so its games still repeat
+  boolean testHeadlessRunnerOwnRandom(Tester t) {
+    long shared = FishRandom.SHARED.seed;
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(30, Color.RED, 700, 500, 0, 0, 0);
+    PondWorld pond = new PondWorld(arr, 
+        new PlayerFish(12, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10), 1);
+    HeadlessRunner runner = new HeadlessRunner(pond, 3, new KeyScript());
+    ArrayLoFish other = new ArrayLoFish();
+    other.addFish(30, Color.RED, 700, 500, 0, 0, 0);
+    HeadlessRunner again = new HeadlessRunner(new PondWorld(other, 
+        new PlayerFish(12, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10), 1), 3, 
+        new KeyScript());
+    runner.run(300);
+    again.run(300);
+    return t.checkExpect(FishRandom.SHARED.seed, shared)
+        && t.checkExpect(runner.world.rand == FishRandom.SHARED, false)
+        && t.checkExpect(arr.rand, runner.world.rand)
+        && t.checkExpect(arr.x[0], other.x[0])
+        && t.checkExpect(arr.y[0], other.y[0])
+        && t.checkExpect(runner.world.rand.seed, again.world.rand.seed);
+  }
+
+  // test that HeadlessRunner stops when the game ends
+  boolean testHeadlessRunnerEnds(Tester t) {
+    PondWorld pond = new PondWorld(new ArrayLoFish(), 
+        new PlayerFish(12, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10), 1);
+    HeadlessRunner runner = new HeadlessRunner(pond, 3, new KeyScript()).run(1000);
+    return t.checkExpect(runner.ticks, 1)
+        && t.checkExpect(runner.state, PondWorld.WON)
+        && t.checkExpect(HeadlessRunner.randomPond(50, 9).fish instanceof ArrayLoFish, true)
+        && t.checkExpect(((ArrayLoFish) HeadlessRunner.randomPond(50, 9).fish).count, 50);
+  }
+
+  // test that PondHost plays every game the way a lone HeadlessRunner would
+  boolean testPondHost(Tester t) {
+    PondHost host = new PondHost(4, 20, 7, 200, 0).run();
+    HeadlessRunner alone = new HeadlessRunner(HeadlessRunner.randomPond(20, 9), 9, 
+        KeyScript.random(9, 200, 10)).run(200);
+    return t.checkExpect(host.games[2].ticks, alone.ticks)
+        && t.checkExpect(host.games[2].state, alone.state)
+        && t.checkExpect(host.games[2].world.player.score, alone.world.player.score)
+        && t.checkExpect(host.latency().total, host.totalTicks())
+        && t.checkExpect(host.ticksPerSecond() > 0, true)
+        && t.checkExpect(host.report(true).contains("game 3: "), true);
+  }
+
+  // test that a PondHost with a period only ticks its games at the scheduler's rate
+  boolean testPondHostPeriod(Tester t) {
+    PondHost host = new PondHost(3, 10, 1, 5, 2000000).run();
+    return t.checkExpect(host.games[0].ticks, 5)
+        && t.checkExpect(host.totalTicks(), 15L)
+        && t.checkExpect(host.elapsedNanos >= 4 * 2000000L, true);
+  }
+
+  // test the methods record, merge and percentile in LatencyHistogram
+  boolean testLatencyHistogram(Tester t) {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    for (int i = 1; i <= 100; i += 1) {
+      a.record(i * 1000);
+    }
+    b.record(5000000);
+    a.merge(b);
+    return t.checkExpect(a.total, 101L)
+        && t.checkExpect(a.max, 5000000L)
+        && t.checkExpect(a.percentile(50) <= 51000 && a.percentile(50) > 47000, true)
+        && t.checkExpect(a.percentile(100), 
+            LatencyHistogram.lowest(LatencyHistogram.bucket(5000000)))
+        && t.checkExpect(LatencyHistogram.lowest(LatencyHistogram.bucket(15)), 15L)
+        && t.checkExpect(LatencyHistogram.lowest(LatencyHistogram.bucket(32)), 32L)
+        && t.checkExpect(LatencyHistogram.lowest(LatencyHistogram.bucket(33)), 32L)
+        && t.checkExpect(new LatencyHistogram().percentile(99), 0L);
+  }
+
+  // test a PondServer session over loopback: keys reach the pond in order and 
+  // deltas only carry the fields that changed
+  boolean testPondServer(Tester t) throws IOException {
+    PondServer server = new PondServer(0, 1000000, 20, 3);
+    PondLoadClient client = new PondLoadClient(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()), 2, 1);
+    for (int i = 0; i < 100 && server.sessions.size() < 2; i += 1) {
+      server.poll(10);
+    }
+    client.channels[0].write(ByteBuffer.wrap(new byte[] {2, 2, 9})); // left, left, unknown
+    for (int i = 0; i < 100 && server.sessions.get(0).keyCount < 3; i += 1) {
+      server.poll(10);
+    }
+    int queued = server.sessions.get(0).keyCount;
+    server.tickOnce();
+    int decoded = 0;
+    for (int i = 0; i < 100 && decoded < 2; i += 1) {
+      decoded += client.poll(10);
+    }
+    int firstBytes = (int) client.bytes;
+    server.tickOnce();
+    for (int i = 0; i < 100 && client.frames < 4; i += 1) {
+      client.poll(10);
+    }
+    PondWorld alone = HeadlessRunner.randomPond(20, 4).step().step();
+    boolean ok = t.checkExpect(queued, 3)
+        && t.checkExpect(decoded, 2)
+        && t.checkExpect(firstBytes, 2 * PondServer.frameLength(127))
+        && t.checkExpect(client.fields[0][0] < 400, true)
+        && t.checkExpect(client.fields[0][1], 300)
+        && t.checkExpect(client.fields[0][4], 3)
+        && t.checkExpect(client.fields[1][0], alone.player.x)
+        && t.checkExpect(client.fields[1][6], alone.result.fishCount)
+        && t.checkExpect(client.bytes < 4L * PondServer.frameLength(127), true);
+    client.close();
+    for (int i = 0; i < 100 && server.sessions.size() > 0; i += 1) {
+      server.poll(10);
+    }
+    ok = ok && t.checkExpect(server.sessions.size(), 0);
+    server.close();
+    return ok;
+  }
+
+  // test that the fixed-timestep loop of PondServer keeps its tick rate under a 
+  // load-generating client
+  boolean testPondServerRun(Tester t) throws IOException {
+    PondServer server = new PondServer(0, 2000000, 20, 1);
+    PondLoadClient client = new PondLoadClient(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()), 50, 2);
+    for (int i = 0; i < 50; i += 1) {
+      client.press(i);
+    }
+    long start = System.nanoTime();
+    server.run(50);
+    long elapsed = System.nanoTime() - start;
+    for (int i = 0; i < 100 && client.poll(10) > 0; i += 1) {
+      // drain the deltas
+    }
+    boolean ok = t.checkExpect(server.ticks, 50L)
+        && t.checkExpect(server.sessions.size(), 50)
+        && t.checkExpect(elapsed >= 49 * 2000000L, true)
+        && t.checkExpect(client.frames >= 50, true)
+        && t.checkExpect(server.jitter.total, 50L);
+    client.close();
+    server.close();
+    return ok;
+  }
+
+  // test that a PondServer without a period ticks as fast as it can, still serving 
+  // its sessions, and that a negative period is refused
+  boolean testPondServerUnpaced(Tester t) throws IOException {
+    PondServer server = new PondServer(0, 0, 20, 1);
+    PondLoadClient client = new PondLoadClient(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()), 5, 2);
+    client.press(0);
+    server.run(200);
+    boolean ok = t.checkExpect(server.ticks, 200L)
+        && t.checkExpect(server.skippedTicks, 0L)
+        && t.checkExpect(server.sessions.size(), 5)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Tick period must not be negative: -1"), 
+            "PondServer", 0, -1L, 20, 1L);
+    client.close();
+    server.close();
+    return ok;
+  }
+
+  // test the methods frameLength and decode in PondServer
+  boolean testPondServerDecode(Tester t) {
+    ByteBuffer buffer = ByteBuffer.allocate(32);
+    buffer.put((byte) 0b1001001).putShort((short) 123).putInt(-7).putInt(55);
+    buffer.flip();
+    ByteBuffer partial = ByteBuffer.wrap(new byte[] {0b1001001, 0, 123});
+    int[] fields = new int[PondServer.FIELDS];
+    boolean decoded = PondServer.decode(buffer, fields);
+    return t.checkExpect(decoded, true)
+        && t.checkExpect(fields[0], 123)
+        && t.checkExpect(fields[3], -7)
+        && t.checkExpect(fields[6], 55)
+        && t.checkExpect(buffer.hasRemaining(), false)
+        && t.checkExpect(PondServer.decode(partial, fields), false)
+        && t.checkExpect(partial.position(), 0)
+        && t.checkExpect(PondServer.frameLength(0b1001001), 11);
+  }
+
+  // test that a recorded PondJournal replays to the same final state
+  boolean testPondJournal(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HeadlessRunner runner = new HeadlessRunner(HeadlessRunner.randomPond(30, 5), 5, 
+        KeyScript.random(5, 400, 7).press(400, "space"));
+    runner.world.record(bytes, 5);
+    runner.run(400);
+    runner.world.journal.end(runner.world);
+    byte[] journal = bytes.toByteArray();
+    JournalReplay replay = PondJournal.replay(new ByteArrayInputStream(journal));
+    JournalReplay cut = PondJournal.replay(
+        new ByteArrayInputStream(Arrays.copyOf(journal, journal.length - 12)));
+    journal[journal.length - 1] ^= 1;
+    JournalReplay corrupt = PondJournal.replay(new ByteArrayInputStream(journal));
+    return t.checkExpect(replay.matches(), true)
+        && t.checkExpect(replay.runner.ticks, runner.ticks)
+        && t.checkExpect(replay.runner.world.player.x, runner.world.player.x)
+        && t.checkExpect(cut.complete, false)
+        && t.checkExpect(cut.matches(), false)
+        && t.checkExpect(corrupt.matches(), false)
+        && t.checkExpect(journal.length 
+            <= 30 + PondSnapshot.byteSize(HeadlessRunner.randomPond(30, 5)) 
+            + (runner.ticks / 7 + 1) * 2, true);
+  }
+
+  // test that a game played the way bigBang plays it, with keys pressed together 
+  // between steps and fish on the shared random numbers, is journaled by PondWorld
+  // and replays to the same final state
+  boolean testPondJournalInteractive(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ILoFish list = new MtLoFish();
+    for (int i = 0; i < 40; i += 1) {
+      list = list.add(new BgFish(10 + i * 2, Color.RED, i * 20, (i * 37) % 600, 1, -1, i));
+    }
+    PondWorld pond = new PondWorld(list, 
+        new PlayerFish(15, Color.YELLOW, 400, 300, 0, 0, 0, 3, 0.85, 10), 0).record(bytes, 17);
+    boolean ended = false;
+    for (int k = 0; k < 300 && !ended; k += 1) {
+      if (k % 9 == 0) {
+        pond.onKeyEvent(k % 2 == 0 ? "left" : "right");
+        pond.onKeyEvent(k % 4 < 2 ? "up" : "down");
+      }
+      pond = pond.step();
+      ended = pond.worldEnds().worldEnds;
+    }
+    pond.journal.end(pond);
+    JournalReplay replay = PondJournal.replay(new ByteArrayInputStream(bytes.toByteArray()));
+    return t.checkExpect(pond.fish instanceof ArrayLoFish, true)
+        && t.checkExpect(pond.rand == FishRandom.SHARED, false)
+        && t.checkExpect(replay.complete, true)
+        && t.checkExpect(replay.runner.ticks, pond.tickCounter)
+        && t.checkExpect(replay.matches(), true);
+  }
+
+  // test that a PondSnapshot saved to a file loads back the same pond
+  boolean testPondSnapshot(Tester t) throws IOException {
+    Path file = Files.createTempFile("pond", ".snapshot");
+    PondWorld pond = HeadlessRunner.randomPond(500, 8);
+    pond = pond.step().step();
+    pond.player.lives = 2;
+    PondSnapshot.save(file, pond);
+    PondWorld loaded = PondSnapshot.load(file);
+    PondSnapshot.save(file, this.world);
+    PondWorld cons = PondSnapshot.load(file);
+    long size = Files.size(file);
+    ArrayLoFish fish = (ArrayLoFish) loaded.fish;
+    boolean ok = t.checkExpect(PondJournal.hash(loaded), PondJournal.hash(pond))
+        && t.checkExpect(loaded.tickCounter, 2)
+        && t.checkExpect(loaded.player.inertia, 0.85)
+        && t.checkExpect(loaded.player.lives, 2)
+        && t.checkExpect(fish.rand == loaded.rand, true)
+        && t.checkExpect(PondJournal.hash(loaded.step()), PondJournal.hash(pond.step()))
+        && t.checkExpect(PondJournal.hash(cons), PondJournal.hash(this.world))
+        && t.checkExpect(size, (long) PondSnapshot.byteSize(this.world));
+    try {
+      PondSnapshot.read(ByteBuffer.allocate(200));
+      ok = false;
+    } 
+    catch (IOException e) {
+      ok = ok && t.checkExpect(e.getMessage(), "Not a pond snapshot");
+    }
+    Files.delete(file);
+    return ok;
+  }
+
+  // test that a PondSnapshot keeps the snacks and a speed boost still running
+  boolean testPondSnapshotSnacks(Tester t) throws IOException {
+    PondWorld pond = HeadlessRunner.randomPond(50, 8);
+    pond.snacks.add(new SpeedSnack(400, 300, 3, 5));
+    pond.snacks.add(new SizeSnack(700, 100, 2));
+    pond = pond.step();
+    ByteBuffer buf = ByteBuffer.allocate(PondSnapshot.byteSize(pond));
+    PondSnapshot.write(buf, pond);
+    buf.flip();
+    PondWorld loaded = PondSnapshot.read(buf);
+    boolean ok = t.checkExpect(buf.remaining(), 0)
+        && t.checkExpect(PondJournal.hash(loaded), PondJournal.hash(pond))
+        && t.checkExpect(loaded.player.speed, 13)
+        && t.checkExpect(loaded.snacks.count, 1)
+        && t.checkExpect(loaded.snacks.snack(0), new SizeSnack(700, 100, 2))
+        && t.checkExpect(loaded.snacks.period, pond.snacks.period)
+        && t.checkExpect(loaded.events.wheel.size, pond.events.wheel.size);
+    for (int k = 0; k < 5; k += 1) {
+      pond = pond.step();
+      loaded = loaded.step();
+    }
+    ok = ok && t.checkExpect(loaded.player.speed, 10)
+        && t.checkExpect(pond.player.speed, 10)
+        && t.checkExpect(PondJournal.hash(loaded), PondJournal.hash(pond));
+    loaded.snacks.count = 0;
+    return ok && t.checkExpect(PondJournal.hash(loaded) == PondJournal.hash(pond), false);
+  }
+
+  // test the methods writeVarint and readVarint in PondJournal
+  boolean testPondJournalVarint(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    PondJournal.writeVarint(out, 5);
+    PondJournal.writeVarint(out, 300);
+    PondJournal.writeVarint(out, Integer.MAX_VALUE);
+    int written = bytes.size();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    return t.checkExpect(written, 1 + 2 + 5)
+        && t.checkExpect(PondJournal.readVarint(in), 5)
+        && t.checkExpect(PondJournal.readVarint(in), 300)
+        && t.checkExpect(PondJournal.readVarint(in), Integer.MAX_VALUE);
+  }
+
+  // test the method measure in PondBenchmark
+  boolean testPondBenchmark(Tester t) {
+    PondBenchmark bench = new PondBenchmark(0, 1, 1);
+    BenchmarkScore score = bench.measure("ConsLoFish.move", 20);
+    ILoFish cons = PondBenchmark.toConsLoFish((ArrayLoFish) bench.arrayWorld.fish);
+    PondWorld before = bench.arrayWorld;
+    Object stepped = bench.operation("PondWorld.step[array]").get();
+    return t.checkExpect(score.ops > 0, true)
+        && t.checkExpect(score.bytesPerOp > 0, true)
+        && t.checkExpect(new ArrayLoFish(cons).count, 20)
+        && t.checkExpect(new ArrayLoFish(cons).x[19], 
+            ((ArrayLoFish) bench.arrayWorld.fish).currentX(19))
+        && t.checkException(new IllegalArgumentException("Unknown benchmark: nope"), 
+            bench, "operation", "nope")
+        && t.checkExpect(stepped == bench.arrayWorld && stepped != before, true);
+  }
+
+  // test that FishRandom repeats the same numbers for the same seed
+  boolean testFishRandomSeed(Tester t) {
+    FishRandom a = new FishRandom(42);
+    FishRandom b = new FishRandom(42);
+    boolean same = true;
+    boolean inRange = true;
+    for (int i = 0; i < 1000; i += 1) {
+      int n = a.nextInt(600);
+      same = same && n == b.nextInt(600);
+      inRange = inRange && n >= 0 && n < 600;
+      float f = a.nextFloat();
+      same = same && f == b.nextFloat();
+      inRange = inRange && f >= 0 && f < 1;
+    }
+    b.setSeed(42);
+    return t.checkExpect(same, true)
+        && t.checkExpect(inRange, true)
+        && t.checkExpect(b.nextLong(), new FishRandom(42).nextLong())
+        && t.checkExpect(a.nextInt(64) < 64, true)
+        && t.checkException(new IllegalArgumentException("Bound must be positive: 0"), 
+            a, "nextInt", 0);
+  }
+
+  // test the method split in FishRandom
+  boolean testFishRandomSplit(Tester t) {
+    FishRandom a = new FishRandom(7);
+    FishRandom child = a.split();
+    FishRandom again = new FishRandom(7).split();
+    return t.checkExpect(child.nextLong(), again.nextLong())
+        && t.checkExpect(child.gamma % 2 != 0, true)
+        && t.checkExpect(child.nextLong() == a.nextLong(), false);
+  }
+
+  // test that fish share the pond's random source and a seeded run is reproducible
+  boolean testPondRandom(Tester t) {
+    FishRandom rand = new FishRandom(3);
+    PondWorld pond = new PondWorld(this.mt, this.pf, 0, rand);
+    BgFish spawned = pond.createRandomFish();
+    HeadlessRunner first = new HeadlessRunner(HeadlessRunner.randomPond(200, 5), 11, 
+        KeyScript.random(11, 500, 7)).run(500);
+    HeadlessRunner second = new HeadlessRunner(HeadlessRunner.randomPond(200, 5), 11, 
+        KeyScript.random(11, 500, 7)).run(500);
+    ArrayLoFish a = (ArrayLoFish) first.world.fish;
+    ArrayLoFish b = (ArrayLoFish) second.world.fish;
+    return t.checkExpect(spawned.rand, rand)
+        && t.checkExpect(((BgFish) spawned.move()).rand, rand)
+        && t.checkExpect(first.ticks, second.ticks)
+        && t.checkExpect(a.count, b.count)
+        && t.checkExpect(Arrays.equals(a.x, b.x) && Arrays.equals(a.y, b.y), true)
+        && t.checkExpect(first.world.player.x, second.world.player.x);
+  }
+
+  // test the methods get and put in ImageCache, including least recently used eviction
+  boolean testImageCache(Tester t) {
+    ImageCache<WorldImage> cache = new ImageCache<WorldImage>(2);
+    WorldImage a = new CircleImage(1, OutlineMode.SOLID, Color.RED);
+    WorldImage b = new CircleImage(2, OutlineMode.SOLID, Color.RED);
+    WorldImage c = new CircleImage(3, OutlineMode.SOLID, Color.RED);
+    cache.put(1, a);
+    cache.put(2, b);
+    boolean hit = cache.get(1) == a; // 2 is now the least recently used
+    cache.put(3, c);
+    return t.checkExpect(hit, true)
+        && t.checkExpect(cache.get(2), null)
+        && t.checkExpect(cache.get(3), c)
+        && t.checkExpect(cache.size(), 2)
+        && t.checkExpect(cache.hits, 2L)
+        && t.checkExpect(cache.misses, 1L)
+        && t.checkInexact(cache.hitRate(), 2.0 / 3, 0.0001)
+        && t.checkExpect(ImageCache.key(1, -1), 0x1ffffffffL);
+  }
+
+  // test that fish, player and HUD images are reused across frames
+  boolean testImagesCached(Tester t) {
+    WorldImage[] hud = PondWorld.hud(7, 2);
+    return t.checkExpect(this.f1.draw() == this.f1.draw(), true)
+        && t.checkExpect(this.f1.draw(), new CircleImage(10, OutlineMode.SOLID, Color.BLUE))
+        && t.checkExpect(this.pf.draw() == this.pf.draw(), true)
+        && t.checkExpect(PondWorld.hud(7, 2) == hud, true)
+        && t.checkExpect(hud[0], new TextImage("Score: 70", 30, FontStyle.BOLD, Color.BLACK))
+        && t.checkExpect(hud[1], new TextImage("Lives: 2", 30, FontStyle.BOLD, Color.BLACK));
+  }
+
+  // test that RetainedScene only composes a new scene when a node changed
+  boolean testRetainedScene(Tester t) {
+    RetainedScene view = new RetainedScene(800, 600);
+    view.begin();
+    view.fishNode(10, 20, 5, Color.RED);
+    view.node(100, 50, this.pf.draw());
+    WorldScene first = view.compose();
+    view.begin();
+    view.fishNode(10, 20, 5, Color.RED);
+    view.node(100, 50, this.pf.draw());
+    boolean reused = view.compose() == first;
+    view.begin();
+    view.fishNode(11, 20, 5, Color.RED);
+    view.node(100, 50, this.pf.draw());
+    WorldScene moved = view.compose();
+    int changed = view.changed;
+    view.begin();
+    view.fishNode(11, 20, 5, Color.RED);
+    WorldScene fewer = view.compose();
+    return t.checkExpect(reused, true)
+        && t.checkExpect(moved == first, false)
+        && t.checkExpect(changed, 1)
+        && t.checkExpect(fewer == moved, false)
+        && t.checkExpect(view.composeCount, 3L)
+        && t.checkExpect(view.reuseCount, 1L)
+        && t.checkExpect(moved, new WorldScene(800, 600)
+            .placeImageXY(new CircleImage(5, OutlineMode.SOLID, Color.RED), 11, 20)
+            .placeImageXY(this.pf.draw(), 100, 50));
+  }
+
+  // test the methods of FishRaster: the pixels a circle covers, the circles drawn
+  // later on top, and only the changed pixels handed on, in one band or several
+  boolean testFishRaster(Tester t) {
+    int red = Color.RED.getRGB() & 0xffffff;
+    FishRaster raster = new FishRaster(20, 10);
+    raster.begin();
+    raster.circle(5, 5, 3, Color.RED.getRGB());
+    raster.finish();
+    int covered = 0;
+    for (int i = 0; i < raster.pixels.length; i += 1) {
+      covered += raster.pixels[i] == red ? 1 : 0;
+    }
+    long first = raster.pixelsSet;
+    raster.begin();
+    raster.circle(5, 5, 3, Color.RED.getRGB());
+    raster.finish();
+    long same = raster.pixelsSet;
+    raster.begin();
+    raster.circle(6, 5, 3, Color.RED.getRGB());
+    raster.circle(15, 5, 4, Color.BLUE.getRGB());
+    raster.circle(15, 5, 2, Color.RED.getRGB());
+    raster.finish();
+    FishRaster banded = new FishRaster(20, 10, 3);
+    banded.begin();
+    banded.circle(6, 5, 3, Color.RED.getRGB());
+    banded.circle(15, 5, 4, Color.BLUE.getRGB());
+    banded.circle(15, 5, 2, Color.RED.getRGB());
+    banded.finish();
+    Color blue = raster.color(Color.BLUE.getRGB() & 0xffffff);
+    for (int rgb = 0; rgb < 100; rgb += 1) {
+      raster.color(rgb); // grows the color table
+    }
+    return t.checkExpect(FishRaster.span(3), new int[] {2, 3, 3, 3, 3, 2})
+        && t.checkExpect(raster.colorCount, 103)
+        && t.checkExpect(raster.color(Color.BLUE.getRGB() & 0xffffff) == blue, true)
+        && t.checkExpect(raster.color(red), Color.RED)
+        && t.checkExpect(covered, 32)
+        && t.checkExpect(raster.pixels[0], FishRaster.BACKGROUND)
+        && t.checkExpect(first, 200L)
+        && t.checkExpect(same, 200L)
+        && t.checkExpect(raster.pixels[5 * 20 + 15], red)
+        && t.checkExpect(raster.pixels[5 * 20 + 12], Color.BLUE.getRGB() & 0xffffff)
+        && t.checkExpect(Arrays.equals(banded.pixels, raster.pixels), true);
+  }
+
+  // test that makeScene with a raster places the fish in its framebuffer and a
+  // single image node in the scene for them
+  boolean testMakeSceneRaster(Tester t) {
+    PlayerFish still = new PlayerFish(12, Color.YELLOW, 400, 400, 0, 0, 0, 3, 0.85, 10);
+    ArrayLoFish arr = new ArrayLoFish();
+    for (int i = 0; i < 500; i += 1) {
+      arr.addFish(10, Color.RED, 100 + i % 50, 100 + i / 50, 0, 0, 50);
+    }
+    arr.addFish(20, Color.BLUE, 600, 200, 0, 0, 50);
+    PondWorld pond = new PondWorld(arr, still, 1);
+    pond.view.rasterize(2);
+    pond.makeScene();
+    FishRaster raster = pond.view.raster;
+    return t.checkExpect(pond.view.count, 4)
+        && t.checkExpect(pond.view.image[0], raster.image)
+        && t.checkExpect(raster.count, 501)
+        && t.checkExpect(raster.pixels[100 * 800 + 100], Color.RED.getRGB() & 0xffffff)
+        && t.checkExpect(raster.pixels[200 * 800 + 600], Color.BLUE.getRGB() & 0xffffff)
+        && t.checkExpect(raster.pixels[500 * 800 + 700], FishRaster.BACKGROUND);
+  }
+
+  // test the method drawInto in ILoFish
+  boolean testDrawInto(Tester t) {
+    ILoFish list = new ConsLoFish(new BgFish(10, Color.RED, 50, 60, 1, 0, 5),
+        new ConsLoFish(new BgFish(20, Color.BLUE, 70, 80, 1, 0, 5), this.mt));
+    RetainedScene consView = new RetainedScene(800, 600);
+    consView.begin();
+    list.drawInto(consView);
+    RetainedScene arrayView = new RetainedScene(800, 600);
+    arrayView.begin();
+    new ArrayLoFish(list).drawInto(arrayView);
+    RetainedScene mtView = new RetainedScene(800, 600);
+    mtView.begin();
+    this.mt.drawInto(mtView);
+    return t.checkExpect(consView.compose(), list.draw(new WorldScene(800, 600)))
+        && t.checkExpect(arrayView.compose(), list.draw(new WorldScene(800, 600)))
+        && t.checkExpect(consView.x[0], 70)
+        && t.checkExpect(mtView.count, 0);
+  }
+
+  // test the methods of PondBounds and the fish moving in a pond larger than the 
+  // window
+  boolean testPondBounds(Tester t) {
+    PondBounds large = new PondBounds(100000, 100000);
+    BgFish bg = new BgFish(10, Color.RED, 799, 599, 1, 1, 5, new FishRandom(1), large);
+    PlayerFish player = new PlayerFish(12, Color.YELLOW, 0, 5, -10, 0, 0, 3, 1.0, 10, large);
+    return t.checkExpect(large.wrapX(-1), 99999)
+        && t.checkExpect(large.wrapY(100005), 5)
+        && t.checkExpect(PondBounds.WINDOW.cellSize(20), 20)
+        && t.checkExpect(large.cellSize(100), 100)
+        && t.checkExpect(large.cellSize(20), 160)
+        && t.checkExpect(bg.move().getX(), 800)
+        && t.checkExpect(bg.move().getY(), 600)
+        && t.checkExpect(player.move().x, 99990)
+        && t.checkExpect(player.move().bounds, large)
+        && t.checkExpect(player.steer(PlayerFish.DOWN).bounds, large);
+  }
+
+  // test the camera of RetainedScene: a window-sized pond is drawn as it is, and 
+  // a larger one around the point followed, across the wrap-around edges
+  boolean testRetainedSceneCamera(Tester t) {
+    RetainedScene window = new RetainedScene(800, 600);
+    window.follow(700, 500);
+    RetainedScene view = new RetainedScene(800, 600, new PondBounds(10000, 10000));
+    view.follow(100, 9900);
+    return t.checkExpect(window.showsAll(), true)
+        && t.checkExpect(window.screenX(790), 790)
+        && t.checkExpect(window.shows(790, 590, 5), true)
+        && t.checkExpect(view.showsAll(), false)
+        && t.checkExpect(view.left, -300)
+        && t.checkExpect(view.top, 9600)
+        && t.checkExpect(view.screenX(100), 400)
+        && t.checkExpect(view.screenX(9800), 100)
+        && t.checkExpect(view.screenY(50), 450)
+        && t.checkExpect(view.shows(9800, 50, 10), true)
+        && t.checkExpect(view.shows(505, 9900, 10), true)
+        && t.checkExpect(view.shows(520, 9900, 10), false)
+        && t.checkExpect(view.shows(5000, 5000, 100), false);
+  }
+
+  // test that drawInto places exactly the fish in view of a large pond, in the 
+  // order it places them in a window-sized one
+  boolean testDrawIntoCulled(Tester t) {
+    PondBounds bounds = new PondBounds(5000, 4000);
+    FishRandom rand = new FishRandom(11);
+    ArrayLoFish arr = new ArrayLoFish(16, rand, bounds);
+    ILoFish list = new MtLoFish();
+    for (int i = 0; i < 2000; i += 1) {
+      int size = rand.nextInt(90) + 10;
+      int x = rand.nextInt(bounds.width);
+      int y = rand.nextInt(bounds.height);
+      arr.addFish(size, Color.RED, x, y, 0, 0, 50);
+      list = list.add(new BgFish(size, Color.RED, x, y, 0, 0, 50, rand, bounds));
+    }
+    RetainedScene view = new RetainedScene(800, 600, bounds);
+    view.follow(4900, 100); // across both wrap-around edges
+    view.begin();
+    arr.drawInto(view);
+    RetainedScene consView = new RetainedScene(800, 600, bounds);
+    consView.follow(4900, 100);
+    consView.begin();
+    new ArrayLoFish(list, bounds).drawInto(consView);
+    int expected = 0;
+    boolean ordered = true;
+    for (int i = arr.count - 1; i >= 0; i -= 1) {
+      if (view.shows(arr.x[i], arr.y[i], arr.size[i])) {
+        ordered = ordered && view.x[expected] == view.screenX(arr.x[i])
+            && view.y[expected] == view.screenY(arr.y[i]);
+        expected += 1;
+      }
+    }
+    return t.checkExpect(view.count, expected)
+        && t.checkExpect(expected > 0 && expected < arr.count / 10, true)
+        && t.checkExpect(ordered, true)
+        && t.checkExpect(consView.count, expected);
+  }
+
+  // test a pond larger than the window: the view follows the player, a snapshot 
+  // keeps the bounds, and the ecosystem sweep sorts the wide pond band by band
+  boolean testLargePond(Tester t) throws IOException {
+    PondBounds bounds = new PondBounds(100000, 20000);
+    PondWorld pond = HeadlessRunner.randomPond(20000, 5, bounds);
+    ArrayLoFish fish = (ArrayLoFish) pond.fish;
+    FishSweep sweep = new FishSweep();
+    fish.sweep = sweep;
+    for (int k = 0; k < 5; k += 1) {
+      pond = pond.step();
+    }
+    pond.makeScene();
+    fish.settle();
+    sweep.sort(fish);
+    boolean sorted = true;
+    for (int b = 0; b < sweep.bands; b += 1) {
+      for (int q = sweep.bandStart[b] + 1; q < sweep.bandStart[b + 1]; q += 1) {
+        sorted = sorted && fish.x[sweep.order[q - 1]] <= fish.x[sweep.order[q]];
+      }
+    }
+    ByteBuffer buf = ByteBuffer.allocate(PondSnapshot.byteSize(pond));
+    PondSnapshot.write(buf, pond);
+    buf.flip();
+    PondWorld loaded = PondSnapshot.read(buf);
+    ((ArrayLoFish) loaded.fish).sweep = new FishSweep();
+    return t.checkExpect(pond.player.x, 50000)
+        && t.checkExpect(pond.view.left, 50000 - 400)
+        && t.checkExpect(pond.view.count < 100, true)
+        && t.checkExpect((long) sweep.bands * bounds.width > FishSweep.MAX_BUCKETS, true)
+        && t.checkExpect(sorted, true)
+        && t.checkExpect(loaded.player.bounds.width, 100000)
+        && t.checkExpect(((ArrayLoFish) loaded.fish).bounds.height, 20000)
+        && t.checkExpect(PondJournal.hash(loaded.step()), PondJournal.hash(pond.step()));
+  }
+
+  // test that makeScene reuses the composed scene while nothing moves
+  boolean testMakeSceneRetained(Tester t) {
+    PlayerFish still = new PlayerFish(12, Color.YELLOW, 400, 400, 0, 0, 0, 3, 0.85, 10);
+    ArrayLoFish arr = new ArrayLoFish();
+    arr.addFish(10, Color.RED, 100, 100, 0, 0, 50);
+    PondWorld pond = new PondWorld(arr, still, 1);
+    WorldScene first = pond.makeScene();
+    PondWorld next = (PondWorld) pond.onTick();
+    return t.checkExpect(next.makeScene() == first, true)
+        && t.checkExpect(next.view, pond.view);
+  }
 }
 
 
@@ -0,0 +1,68 @@
+package feedingfrenzy.jmh;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Class representing the PondBenchmark suite of FeedingFrenzy.java run under JMH.
+// The game's classes live in the unnamed package, which a JMH benchmark cannot,
+// so the benchmark builds its ponds with PondBenchmark.setUp and looks up its
+// operation with PondBenchmark.operation through reflection. Both happen once per
+// trial, as in PondBenchmark.measure, so a measured call is only Supplier.get.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PondJmhBenchmark {
+  @Param({"PondWorld.step", "PondWorld.step[array]", "PondWorld.step[array,serial]",
+    "PondWorld.step[offheap]", "PondWorld.step[array,sparse]",
+    "PondWorld.step[offheap,sparse]", "ConsLoFish.filterEaten", "ConsLoFish.eats",
+    "ConsLoFish.move", "ArrayLoFish.tick", "PondWorld.makeScene", "PondWorld.worldEnds"})
+  public String name;
+
+  @Param({"20", "1000", "10000", "100000"})
+  public int fishCount;
+
+  Supplier<Object> operation; // the named operation of the suite
+
+  /*
+   * Fields:
+   * ... this.name ...      -- String
+   * ... this.fishCount ... -- int
+   * ... this.operation ... -- Supplier<Object>
+   * Methods:
+   * ... this.setUp() ...   -- void
+   * ... this.run() ...     -- Object
+   */
+
+  // Builds the ponds of the suite for fishCount fish and resolves the operation
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setUp() throws ReflectiveOperationException {
+    Class<?> suite = Class.forName("PondBenchmark");
+    Constructor<?> make = suite.getDeclaredConstructor(int.class, int.class, long.class);
+    make.setAccessible(true);
+    Object bench = make.newInstance(0, 0, 0L);
+    Method setUp = suite.getDeclaredMethod("setUp", int.class);
+    setUp.setAccessible(true);
+    setUp.invoke(bench, this.fishCount);
+    Method operation = suite.getDeclaredMethod("operation", String.class);
+    operation.setAccessible(true);
+    this.operation = (Supplier<Object>) operation.invoke(bench, this.name);
+  }
+
+  // Runs the named operation once; JMH keeps the result alive
+  @Benchmark
+  public Object run() {
+    return this.operation.get();
+  }
+}